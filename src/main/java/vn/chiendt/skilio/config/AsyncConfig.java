@@ -0,0 +1,82 @@
+package vn.chiendt.skilio.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class AsyncConfig {
+
+    /**
+     * Bounded pool finishing asynchronous checkouts (first charge + callback).
+     * When the queue is full a submission fails with TaskRejectedException: the async checkout
+     * answers 503 with Retry-After instead of charging on the request thread, batch checkouts
+     * charge on the calling thread.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public Executor checkoutExecutor(
+            @Value("${paylater.checkout.async.core-pool-size}") int corePoolSize,
+            @Value("${paylater.checkout.async.max-pool-size}") int maxPoolSize,
+            @Value("${paylater.checkout.async.queue-capacity}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("checkout-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Virtual-thread variant (Java 21 + spring.threads.virtual.enabled): one virtual thread per
+     * checkout, submissions are rejected once the concurrency limit of charges is in flight.
+     */
+    @Bean(name = "checkoutExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Executor virtualCheckoutExecutor(
+            @Value("${paylater.checkout.async.virtual-concurrency-limit}") int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("checkout-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        executor.setRejectTasksWhenLimitReached(true);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+
+    /**
+     * Workers of the charge dispatcher, one thread per shard worker for the whole run
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public Executor chargeDispatchExecutor(ChargeDispatcherProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(properties.totalWorkers());
+        executor.setMaxPoolSize(properties.totalWorkers());
+        executor.setQueueCapacity(properties.totalWorkers());
+        executor.setThreadNamePrefix("charge-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(name = "chargeDispatchExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Executor virtualChargeDispatchExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("charge-");
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+}
@@ -0,0 +1,44 @@
+package vn.chiendt.skilio.config;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feign client limiting the number of concurrent outbound requests with a fair semaphore
+ */
+public class BoundedFeignClient implements Client {
+
+    private final Client delegate;
+    private final Semaphore permits;
+    private final long acquireTimeoutMs;
+
+    public BoundedFeignClient(Client delegate, int maxConcurrentRequests, long acquireTimeoutMs) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    @Override
+    public Response execute(Request request, Request.Options options) throws IOException {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                // Feign turns the IOException into a RetryableException
+                throw new IOException("Too many concurrent requests to " + request.url());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to call " + request.url(), e);
+        }
+
+        try {
+            return delegate.execute(request, options);
+        } finally {
+            permits.release();
+        }
+    }
+}
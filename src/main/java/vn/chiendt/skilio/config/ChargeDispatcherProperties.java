@@ -0,0 +1,129 @@
+package vn.chiendt.skilio.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import vn.chiendt.skilio.constant.DispatchMode;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "paylater.dispatcher")
+public class ChargeDispatcherProperties {
+
+    /** Number of shards, due installments are routed to a shard by hash of plan ID */
+    private int shards = 8;
+
+    /** Concurrent charge workers per shard */
+    private int workersPerShard = 16;
+
+    /** Due installments buffered per shard before the scan waits for the workers */
+    private int shardQueueCapacity = 1000;
+
+    /** Max concurrent charges per gateway provider */
+    private Map<String, Integer> gatewayLimits = new HashMap<>();
+
+    /** Limit for gateways missing from gatewayLimits */
+    private int defaultGatewayLimit = 50;
+
+    private Duration progressLogInterval = Duration.ofSeconds(30);
+
+    /** BURST charges everything as soon as it is due, SHAPED spreads and rate-limits the charges */
+    private DispatchMode mode = DispatchMode.BURST;
+
+    /** SHAPED: the daily run spreads its charges uniformly at random over this window */
+    private Duration spreadWindow = Duration.ofHours(4);
+
+    private RateLimit rateLimit = new RateLimit();
+
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    public int totalWorkers() {
+        return shards * workersPerShard;
+    }
+
+    public int gatewayLimit(String gatewayProvider) {
+        return gatewayLimits.getOrDefault(gatewayProvider, defaultGatewayLimit);
+    }
+
+    public boolean isShaped() {
+        return mode == DispatchMode.SHAPED;
+    }
+
+    /**
+     * Adaptive token bucket per gateway (AIMD): the rate grows by additiveIncrease per second while
+     * charges are healthy and is multiplied by decreaseFactor on a gateway error or a slow charge
+     */
+    @Getter
+    @Setter
+    public static class RateLimit {
+
+        /** Start and maximum charges per second per gateway provider */
+        private Map<String, Double> gatewayRates = new HashMap<>();
+
+        /** Rate for gateways missing from gatewayRates */
+        private double defaultRate = 50;
+
+        /** The adaptive rate never drops below this */
+        private double minRate = 1;
+
+        /** Bucket size as seconds of the current rate */
+        private double burstSeconds = 1;
+
+        /** Random delay of up to this much is added to each wait so workers do not wake up in lockstep */
+        private Duration jitter = Duration.ofMillis(50);
+
+        /** A charge slower than this counts as a congestion signal */
+        private Duration latencyTarget = Duration.ofSeconds(2);
+
+        private double decreaseFactor = 0.7;
+
+        /** Charges per second added to the rate per second without congestion */
+        private double additiveIncrease = 1;
+
+        /** Minimum time between two decreases, so one burst of errors cuts the rate once */
+        private Duration decreaseCooldown = Duration.ofSeconds(1);
+
+        public double gatewayRate(String gatewayProvider) {
+            return gatewayRates.getOrDefault(gatewayProvider, defaultRate);
+        }
+    }
+
+    /**
+     * Circuit breaker per gateway: opens when the failure rate or slow-call rate over the sliding window
+     * reaches its threshold, charges are deferred (no attempt spent) until it half-opens
+     */
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+
+        private boolean enabled = true;
+
+        private Duration window = Duration.ofSeconds(60);
+
+        /** The window slides by window / windowBuckets */
+        private int windowBuckets = 12;
+
+        /** Calls needed in the window before the rates are evaluated */
+        private int minimumCalls = 20;
+
+        /** Percent of gateway errors that opens the circuit */
+        private double failureRateThreshold = 50;
+
+        /** Percent of calls slower than slowCallDuration that opens the circuit */
+        private double slowCallRateThreshold = 80;
+
+        private Duration slowCallDuration = Duration.ofSeconds(5);
+
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /** Trial charges let through while half-open, all must succeed to close the circuit */
+        private int halfOpenCalls = 5;
+
+        /** Deferred charges come back at a random time within this much after the circuit half-opens */
+        private Duration deferSpread = Duration.ofMinutes(2);
+    }
+}
@@ -0,0 +1,25 @@
+package vn.chiendt.skilio.config;
+
+import feign.Client;
+import feign.http2client.Http2Client;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableFeignClients(basePackages = "vn.chiendt.skilio.sevice.feign")
+public class FeignConfig {
+
+    /**
+     * HTTP client shared by all Feign clients, capped at max-concurrent-requests in-flight calls
+     * so a burst of (virtual) threads queues here instead of opening unbounded connections.
+     * Calls go through the JDK HttpClient: a virtual thread waiting on it unmounts, whereas
+     * HttpURLConnection (Client.Default) blocks in synchronized code and pins its carrier thread on Java 21.
+     */
+    @Bean
+    public Client feignClient(@Value("${paylater.feign.max-concurrent-requests}") int maxConcurrentRequests,
+                              @Value("${paylater.feign.acquire-timeout-ms}") long acquireTimeoutMs) {
+        return new BoundedFeignClient(new Http2Client(), maxConcurrentRequests, acquireTimeoutMs);
+    }
+}
@@ -0,0 +1,33 @@
+package vn.chiendt.skilio.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.math.BigDecimal;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "paylater.schedule")
+public class InstallmentScheduleProperties {
+
+    /** Template used when the checkout does not name a product */
+    private String defaultTemplate = "standard";
+
+    /** Bounds for an explicitly requested installmentsTotal */
+    private int minInstallments = 2;
+    private int maxInstallments = 24;
+
+    private Map<String, Template> templates = new HashMap<>();
+
+    @Getter
+    @Setter
+    public static class Template {
+        private int count = 3;
+        private Period interval = Period.ofMonths(1);
+        private BigDecimal downPaymentPercent = BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,41 @@
+package vn.chiendt.skilio.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "paylater.retry.classifier")
+public class RetryClassifierProperties {
+
+    /** Gateway decline codes that can never succeed, never retried */
+    private Set<String> hardDeclineCodes = new HashSet<>(Set.of(
+            "stolen_card", "lost_card", "pickup_card", "fraudulent", "expired_card", "incorrect_number",
+            "invalid_account", "card_not_supported", "restricted_card", "revocation_of_authorization"));
+
+    /** Gateway decline codes meaning the balance is too low, retried on paydays */
+    private Set<String> insufficientFundsCodes = new HashSet<>(Set.of("insufficient_funds"));
+
+    /** Delay of each retry after a soft decline (or gateway error), the list size is the max retries */
+    private List<Duration> softBackoff = new ArrayList<>(List.of(
+            Duration.ofHours(1), Duration.ofHours(2), Duration.ofHours(4)));
+
+    /** Days of month on which insufficient-funds retries run; a day past the month's end means its last day */
+    private List<Integer> paydays = new ArrayList<>(List.of(1, 15, 31));
+
+    /** Time of day of a payday retry */
+    private LocalTime paydayTime = LocalTime.of(10, 0);
+
+    /** A payday retry is at least this long after the decline */
+    private Duration paydayMinDelay = Duration.ofHours(12);
+
+    private int insufficientFundsMaxRetries = 3;
+}
@@ -0,0 +1,39 @@
+package vn.chiendt.skilio.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Extra limits applied when running on virtual threads (Java 21 + spring.threads.virtual.enabled).
+ * Tomcat, @Scheduled jobs and the checkout executor then run on virtual threads, so the number
+ * of threads no longer bounds how many of them reach the database at once. Only the primary Hikari
+ * pool is bounded; other DataSource beans keep their own limits.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfig {
+
+    /** Name of the Hikari pool auto-configured from spring.datasource */
+    private static final String PRIMARY_DATA_SOURCE = "dataSource";
+
+    @Bean
+    public static BeanPostProcessor boundedDataSourcePostProcessor(
+            @Value("${paylater.datasource.max-concurrent-connections}") int maxConcurrentConnections,
+            @Value("${paylater.datasource.acquire-timeout-ms}") long acquireTimeoutMs) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                // Chỉ bọc pool chính do Spring Boot tạo, các DataSource khác giữ giới hạn riêng
+                if (bean instanceof HikariDataSource dataSource && PRIMARY_DATA_SOURCE.equals(beanName)) {
+                    return new BoundedDataSource(dataSource, maxConcurrentConnections, acquireTimeoutMs);
+                }
+                return bean;
+            }
+        };
+    }
+}
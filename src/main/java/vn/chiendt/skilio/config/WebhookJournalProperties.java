@@ -0,0 +1,50 @@
+package vn.chiendt.skilio.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "paylater.webhook.journal")
+public class WebhookJournalProperties {
+
+    /** Ack webhooks once journaled and apply them in the background, instead of applying them in the request */
+    private boolean enabled = false;
+
+    /** Local directory of the journal segments, must survive a restart of the pod */
+    private String directory = "data/webhook-journal";
+
+    /** Size of one memory-mapped segment file */
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    /** Segments not yet applied; once reached, webhooks are refused (503) so the gateway redelivers later */
+    private int maxSegments = 64;
+
+    /** Longest the flusher idles; webhooks appended while an fsync runs share the next one */
+    private Duration flushInterval = Duration.ofMillis(2);
+
+    /** A webhook not fsynced within this time is refused (503) */
+    private Duration ackTimeout = Duration.ofSeconds(2);
+
+    private Consumer consumer = new Consumer();
+
+    @Getter
+    @Setter
+    public static class Consumer {
+
+        /** How often the applied position is saved; after a crash at most this much is applied again */
+        private Duration commitInterval = Duration.ofSeconds(1);
+
+        /** Journaled webhooks in flight at once; they reach the status writer together and share its groups */
+        private int window = 256;
+
+        /** Attempts to apply one event before it is logged and skipped */
+        private int maxAttempts = 5;
+
+        private Duration retryBackoff = Duration.ofMillis(500);
+    }
+}
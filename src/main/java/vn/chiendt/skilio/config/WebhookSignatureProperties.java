@@ -0,0 +1,23 @@
+package vn.chiendt.skilio.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "paylater.webhook.signature")
+public class WebhookSignatureProperties {
+
+    /** Largest difference between the signed timestamp and now, older (replayed) webhooks are rejected */
+    private Duration tolerance = Duration.ofMinutes(5);
+
+    /** Active HMAC secrets per gateway; while rotating, list the new secret next to the old one */
+    private Map<WebhookSource, List<String>> secrets = new HashMap<>();
+}
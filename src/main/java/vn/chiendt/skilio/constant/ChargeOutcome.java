@@ -0,0 +1,9 @@
+package vn.chiendt.skilio.constant;
+
+public enum ChargeOutcome {
+    SUCCEEDED,
+    // Gateway trả lời nhưng từ chối charge
+    DECLINED,
+    // Gateway lỗi / timeout, dùng làm tín hiệu giảm tốc độ charge
+    GATEWAY_ERROR
+}
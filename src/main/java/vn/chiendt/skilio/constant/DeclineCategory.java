@@ -0,0 +1,7 @@
+package vn.chiendt.skilio.constant;
+
+public enum DeclineCategory {
+    HARD,               // Thẻ bị khóa, mất, sai số... retry không bao giờ thành công
+    SOFT,               // Lỗi tạm thời, retry theo backoff
+    INSUFFICIENT_FUNDS  // Không đủ tiền, retry vào ngày nhận lương
+}
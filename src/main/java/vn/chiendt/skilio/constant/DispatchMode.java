@@ -0,0 +1,8 @@
+package vn.chiendt.skilio.constant;
+
+public enum DispatchMode {
+    // Toàn bộ charge trong ngày được claim ngay, chỉ giới hạn bởi số worker và semaphore của gateway
+    BURST,
+    // Charge được rải trong spread-window và đi qua token bucket thích ứng theo từng gateway
+    SHAPED
+}
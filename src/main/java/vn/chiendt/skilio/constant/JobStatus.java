@@ -0,0 +1,9 @@
+package vn.chiendt.skilio.constant;
+
+public enum JobStatus {
+    READY,
+    LEASED,
+    DONE,
+    FAILED,
+    CANCELLED
+}
@@ -0,0 +1,10 @@
+package vn.chiendt.skilio.constant;
+
+public enum JobType {
+    DAILY_CHARGE_RUN,
+    INSTALLMENT_CHARGE,
+    RETRY_RUN,
+    // Durable timers, fired by the in-memory timing wheel
+    INSTALLMENT_DUE,
+    TRANSACTION_RETRY
+}
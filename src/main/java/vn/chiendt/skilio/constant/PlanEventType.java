@@ -0,0 +1,11 @@
+package vn.chiendt.skilio.constant;
+
+public enum PlanEventType {
+    PLAN_CREATED,
+    PLAN_ACTIVATED,
+    PLAN_STATUS_CHANGED,
+    PLAN_CANCELLED,
+    TRANSACTION_SUCCEEDED,
+    TRANSACTION_FAILED,
+    TRANSACTION_REFUNDED
+}
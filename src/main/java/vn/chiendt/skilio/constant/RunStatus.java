@@ -0,0 +1,7 @@
+package vn.chiendt.skilio.constant;
+
+public enum RunStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
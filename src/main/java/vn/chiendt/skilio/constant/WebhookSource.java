@@ -0,0 +1,20 @@
+package vn.chiendt.skilio.constant;
+
+public enum WebhookSource {
+    STRIPE("Stripe-Signature"),
+    PAYPAL("PayPal-Transmission-Sig"),
+    GENERIC("X-Webhook-Signature");
+
+    private final String signatureHeader;
+
+    WebhookSource(String signatureHeader) {
+        this.signatureHeader = signatureHeader;
+    }
+
+    /**
+     * @return Header carrying the signature of this gateway's webhooks
+     */
+    public String getSignatureHeader() {
+        return signatureHeader;
+    }
+}
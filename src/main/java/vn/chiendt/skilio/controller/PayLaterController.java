@@ -2,10 +2,23 @@ package vn.chiendt.skilio.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import vn.chiendt.skilio.domain.dto.CheckoutResultDto;
+import vn.chiendt.skilio.domain.dto.CheckoutStatusDto;
+import vn.chiendt.skilio.domain.dto.PaylaterPlanCreation;
 import vn.chiendt.skilio.domain.dto.PaylaterPlanDto;
 import vn.chiendt.skilio.sevice.PaylaterPlansService;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -15,47 +28,124 @@ public class PayLaterController {
 
     private final PaylaterPlansService paylaterPlansService;
 
+    @Value("${paylater.checkout.async.retry-after-seconds}")
+    private long retryAfterSeconds;
+
     /**
      * Process PayLater checkout after order creation
      * POST /api/paylater/checkout
+     * With async=true the plan is returned as soon as it is stored (202 Accepted) and the
+     * first charge finishes in the background; poll the Location URL or pass a callbackUrl.
+     * When too many checkouts are in progress it answers 503 with Retry-After and the stored plan is cancelled.
      */
     @PostMapping("/checkout")
     public ResponseEntity<PaylaterPlanDto> processPayLaterCheckout(
             @RequestParam String orderId,
             @RequestParam Long userId,
-            @RequestParam String totalAmount,
-            @RequestParam String currency) {
+            @RequestParam BigDecimal totalAmount,
+            @RequestParam String currency,
+            @RequestParam(required = false) String productCode,
+            @RequestParam(required = false) Integer installmentsTotal,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestParam(required = false) String callbackUrl) {
         
-        log.info("Processing PayLater checkout for orderId: {}, userId: {}", orderId, userId);
+        log.info("Processing PayLater checkout for orderId: {}, userId: {}, async: {}", orderId, userId, async);
         
         try {
+            if (async) {
+                PaylaterPlanDto plan = paylaterPlansService.submitPayLaterCheckout(
+                    orderId, userId, totalAmount, currency, productCode, installmentsTotal, callbackUrl);
+                
+                URI statusUri = ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/api/paylater/checkout/{planId}/status")
+                        .buildAndExpand(plan.getId())
+                        .toUri();
+                return ResponseEntity.accepted().location(statusUri).body(plan);
+            }
+            
             PaylaterPlanDto plan = paylaterPlansService.processPayLaterCheckout(
-                orderId, userId, totalAmount, currency);
+                orderId, userId, totalAmount, currency, productCode, installmentsTotal);
             
             return ResponseEntity.ok(plan);
             
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid PayLater checkout request for orderId: {}: {}", orderId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (TaskRejectedException e) {
+            log.warn("Async PayLater checkout rejected for orderId: {}, too many in progress", orderId);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
         } catch (Exception e) {
             log.error("Error processing PayLater checkout", e);
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    /**
+     * Process PayLater checkout for a group of orders
+     * POST /api/paylater/checkout/batch
+     */
+    @PostMapping("/checkout/batch")
+    public ResponseEntity<List<CheckoutResultDto>> processPayLaterCheckoutBatch(
+            @RequestBody List<PaylaterPlanCreation> requests) {
+        
+        log.info("Processing batch PayLater checkout for {} orders", requests.size());
+        
+        try {
+            return ResponseEntity.ok(paylaterPlansService.processPayLaterCheckoutBatch(requests));
+            
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid batch PayLater checkout request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("Error processing batch PayLater checkout", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Get checkout status of a PayLater plan
+     * GET /api/paylater/checkout/{planId}/status
+     */
+    @GetMapping("/checkout/{planId}/status")
+    public ResponseEntity<CheckoutStatusDto> getCheckoutStatus(@PathVariable String planId) {
+        try {
+            CheckoutStatusDto status = paylaterPlansService.getCheckoutStatus(planId);
+            
+            if (status != null) {
+                return ResponseEntity.ok(status);
+            } else {
+                return ResponseEntity.notFound().build();
+            }
+            
+        } catch (Exception e) {
+            log.error("Error getting checkout status: {}", planId, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Get PayLater plan details
      * GET /api/paylater/plans/{planId}
+     * Returns a strong ETag; If-None-Match with the current ETag gets 304 from the plan cache.
      */
     @GetMapping("/plans/{planId}")
-    public ResponseEntity<PaylaterPlanDto> getPayLaterPlan(@PathVariable String planId) {
-        log.info("Getting PayLater plan: {}", planId);
+    public ResponseEntity<PaylaterPlanDto> getPayLaterPlan(
+            @PathVariable String planId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        log.debug("Getting PayLater plan: {}", planId);
         
         try {
-            PaylaterPlanDto plan = paylaterPlansService.getPaylaterPlan(planId);
+            PaylaterPlanCache.CachedPlan plan = paylaterPlansService.getCachedPaylaterPlan(planId);
             
-            if (plan != null) {
-                return ResponseEntity.ok(plan);
-            } else {
+            if (plan == null) {
                 return ResponseEntity.notFound().build();
             }
+            if (matchesETag(ifNoneMatch, plan.eTag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(plan.eTag()).build();
+            }
+            return ResponseEntity.ok().eTag(plan.eTag()).body(plan.plan());
             
         } catch (Exception e) {
             log.error("Error getting PayLater plan: {}", planId, e);
@@ -78,12 +168,31 @@ public class PayLaterController {
             paylaterPlansService.updatePlanStatus(planId, status);
             return ResponseEntity.ok().build();
             
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid PayLater plan status: {}", status);
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             log.error("Error updating PayLater plan status: {}", planId, e);
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    private boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Health check endpoint
      * GET /api/paylater/health
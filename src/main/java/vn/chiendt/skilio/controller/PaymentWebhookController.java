@@ -2,9 +2,15 @@ package vn.chiendt.skilio.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import vn.chiendt.skilio.constant.WebhookSource;
 import vn.chiendt.skilio.sevice.PaymentWebhookService;
+import vn.chiendt.skilio.sevice.webhook.WebhookJournal;
+import vn.chiendt.skilio.sevice.webhook.WebhookSignatureVerifier;
+
+import java.util.Map;
 
 @Slf4j
 @RestController
@@ -20,15 +26,24 @@ public class PaymentWebhookController {
      */
     @PostMapping("/stripe")
     public ResponseEntity<String> handleStripeWebhook(
-            @RequestBody String payload,
+            @RequestBody byte[] payload,
             @RequestHeader("Stripe-Signature") String signature) {
         
         log.info("Received Stripe webhook");
         
         try {
-            paymentWebhookService.handleStripeWebhook(payload, signature);
+            paymentWebhookService.receiveWebhook(WebhookSource.STRIPE, payload,
+                    Map.of(WebhookSource.STRIPE.getSignatureHeader(), signature));
             return ResponseEntity.ok("Webhook processed successfully");
             
+        } catch (WebhookSignatureVerifier.InvalidSignatureException e) {
+            log.warn("{}", e.getMessage());
+            return ResponseEntity.badRequest().body("Invalid webhook signature");
+            
+        } catch (WebhookJournal.JournalUnavailableException e) {
+            log.warn("Stripe webhook not journaled: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Webhook not accepted, retry later");
+            
         } catch (Exception e) {
             log.error("Error processing Stripe webhook", e);
             return ResponseEntity.badRequest().body("Webhook processing failed");
@@ -41,15 +56,28 @@ public class PaymentWebhookController {
      */
     @PostMapping("/paypal")
     public ResponseEntity<String> handlePayPalWebhook(
-            @RequestBody String payload,
-            @RequestHeader("PayPal-Transmission-Id") String transmissionId) {
+            @RequestBody byte[] payload,
+            @RequestHeader(WebhookSignatureVerifier.PAYPAL_TRANSMISSION_ID) String transmissionId,
+            @RequestHeader(WebhookSignatureVerifier.PAYPAL_TRANSMISSION_TIME) String transmissionTime,
+            @RequestHeader("PayPal-Transmission-Sig") String transmissionSig) {
         
         log.info("Received PayPal webhook");
         
         try {
-            paymentWebhookService.handlePayPalWebhook(payload, transmissionId);
+            paymentWebhookService.receiveWebhook(WebhookSource.PAYPAL, payload, Map.of(
+                    WebhookSignatureVerifier.PAYPAL_TRANSMISSION_ID, transmissionId,
+                    WebhookSignatureVerifier.PAYPAL_TRANSMISSION_TIME, transmissionTime,
+                    WebhookSource.PAYPAL.getSignatureHeader(), transmissionSig));
             return ResponseEntity.ok("Webhook processed successfully");
             
+        } catch (WebhookSignatureVerifier.InvalidSignatureException e) {
+            log.warn("{}", e.getMessage());
+            return ResponseEntity.badRequest().body("Invalid webhook signature");
+            
+        } catch (WebhookJournal.JournalUnavailableException e) {
+            log.warn("PayPal webhook not journaled: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Webhook not accepted, retry later");
+            
         } catch (Exception e) {
             log.error("Error processing PayPal webhook", e);
             return ResponseEntity.badRequest().body("Webhook processing failed");
@@ -62,15 +90,24 @@ public class PaymentWebhookController {
      */
     @PostMapping("/generic")
     public ResponseEntity<String> handleGenericWebhook(
-            @RequestBody String payload,
+            @RequestBody byte[] payload,
             @RequestHeader("X-Webhook-Signature") String signature) {
         
         log.info("Received generic payment webhook");
         
         try {
-            paymentWebhookService.handleGenericWebhook(payload, signature);
+            paymentWebhookService.receiveWebhook(WebhookSource.GENERIC, payload,
+                    Map.of(WebhookSource.GENERIC.getSignatureHeader(), signature));
             return ResponseEntity.ok("Webhook processed successfully");
             
+        } catch (WebhookSignatureVerifier.InvalidSignatureException e) {
+            log.warn("{}", e.getMessage());
+            return ResponseEntity.badRequest().body("Invalid webhook signature");
+            
+        } catch (WebhookJournal.JournalUnavailableException e) {
+            log.warn("generic webhook not journaled: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Webhook not accepted, retry later");
+            
         } catch (Exception e) {
             log.error("Error processing generic webhook", e);
             return ResponseEntity.badRequest().body("Webhook processing failed");
@@ -0,0 +1,52 @@
+package vn.chiendt.skilio.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.domain.dto.SchedulerRunDto;
+import vn.chiendt.skilio.sevice.SchedulerRunService;
+import vn.chiendt.skilio.sevice.scheduler.OverdueTracker;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/admin/scheduler")
+@RequiredArgsConstructor
+public class SchedulerAdminController {
+
+    private static final int MAX_LIMIT = 500;
+
+    private final SchedulerRunService schedulerRunService;
+    private final OverdueTracker overdueTracker;
+
+    /**
+     * Get scheduler run history, newest first
+     * GET /api/admin/scheduler/runs?type=DAILY_CHARGE_RUN&limit=50
+     */
+    @GetMapping("/runs")
+    public ResponseEntity<List<SchedulerRunDto>> getRuns(
+            @RequestParam(required = false) JobType type,
+            @RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(schedulerRunService.getRecentRuns(type, limit));
+        } catch (Exception e) {
+            log.error("Error getting scheduler runs", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Get the current overdue state, plans grouped by days overdue
+     * GET /api/admin/scheduler/overdue
+     */
+    @GetMapping("/overdue")
+    public ResponseEntity<OverdueTracker.Summary> getOverdue() {
+        return ResponseEntity.ok(overdueTracker.getSummary());
+    }
+}
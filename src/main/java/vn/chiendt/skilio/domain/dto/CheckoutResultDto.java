@@ -0,0 +1,17 @@
+package vn.chiendt.skilio.domain.dto;
+
+import lombok.*;
+
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class CheckoutResultDto {
+
+    private String orderId;
+    private String planId;
+    private String status;
+    private boolean charged;
+    private String message;
+}
@@ -0,0 +1,21 @@
+package vn.chiendt.skilio.domain.dto;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class CheckoutStatusDto {
+
+    private String planId;
+    private String orderId;
+    private String planStatus;
+    private String firstChargeStatus;
+    private String firstChargeId;
+
+    private LocalDateTime approvedAt;
+}
@@ -0,0 +1,9 @@
+package vn.chiendt.skilio.domain.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Keyset position (due_date, id) of a due installment, with its plan ID for sharding
+ */
+public record DueInstallmentKey(LocalDateTime dueDate, String id, String planId) {
+}
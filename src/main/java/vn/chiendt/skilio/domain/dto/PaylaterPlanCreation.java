@@ -17,4 +17,5 @@ public class PaylaterPlanCreation implements Serializable {
     private String principalAmount;
     private Currency currency;
     private Integer installmentsTotal;
+    private String productCode;
 }
@@ -20,6 +20,7 @@ public class PaylaterPlanDto {
     private String currency;
     private String status;
     private Integer installmentsTotal;
+    private String productCode;
 
     private LocalDateTime creationDate;
     private LocalDateTime approvedAt;
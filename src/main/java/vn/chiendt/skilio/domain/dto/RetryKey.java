@@ -0,0 +1,14 @@
+package vn.chiendt.skilio.domain.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Keyset position (next_retry_at, id) of a failed transaction waiting for retry
+ */
+public record RetryKey(LocalDateTime nextRetryAt, String id) {
+
+    /**
+     * Position before every key, for the first page
+     */
+    public static final RetryKey START = new RetryKey(LocalDateTime.of(1970, 1, 1, 0, 0), "");
+}
@@ -0,0 +1,29 @@
+package vn.chiendt.skilio.domain.dto;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class SchedulerRunDto {
+
+    private String id;
+    private String runType;
+    private String runKey;
+    private String status;
+    private LocalDateTime cursorDueDate;
+    private String cursorId;
+    private Long scanned;
+    private Long processed;
+    private Integer resumes;
+    private String owner;
+    private String lastError;
+
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime finishedAt;
+}
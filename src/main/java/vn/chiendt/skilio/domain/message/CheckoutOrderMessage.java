@@ -0,0 +1,24 @@
+package vn.chiendt.skilio.domain.message;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Order checkout event published by order-service when the customer picks PayLater
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class CheckoutOrderMessage {
+    private String orderId;
+    private Long userId;
+    private BigDecimal totalAmount;
+    private String currency;
+    private Integer installmentsTotal;
+    private String productCode;
+}
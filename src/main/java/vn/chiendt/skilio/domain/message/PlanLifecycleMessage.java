@@ -0,0 +1,33 @@
+package vn.chiendt.skilio.domain.message;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import vn.chiendt.skilio.constant.PlanEventType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Plan / installment transaction state change published to paylater-plan-events, keyed by plan ID
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PlanLifecycleMessage {
+    private PlanEventType eventType;
+    private String planId;
+    private String orderId;
+    private Long userId;
+    private String status;
+    private String transactionId;
+    private String paymentRef;
+    private BigDecimal amount;
+    private String currency;
+    private String message;
+    private LocalDateTime occurredAt;
+}
@@ -2,6 +2,10 @@ package vn.chiendt.skilio.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import vn.chiendt.skilio.constant.FeeType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "fee_rules")
@@ -13,7 +17,7 @@ import lombok.*;
 public class FeeRule {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedId
     private String id;
 
     @Column(nullable = false, length = 100)
@@ -11,21 +11,24 @@ import java.util.UUID;
 @Getter
 @Setter
 @Entity
-@Table(name = "installment")
+@Table(name = "installment", indexes = {
+        // Keyset scan of due installments (scheduler)
+        @Index(name = "idx_installment_due_date_id", columnList = "due_date, id")
+})
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 public class Installment extends AuditEntity{
 
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedId
     private String id;
 
     @Column(name = "plan_id", nullable = false)
     private String planId;
 
     @Column(name = "installment_number", nullable = false)
-    private Integer installmentNumber; // 1..3
+    private Integer installmentNumber; // 1..installmentsTotal
 
     @Column(name = "due_date", nullable = false)
     private LocalDateTime dueDate;
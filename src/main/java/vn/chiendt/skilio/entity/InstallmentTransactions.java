@@ -2,6 +2,9 @@ package vn.chiendt.skilio.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import vn.chiendt.skilio.constant.DeclineCategory;
 import vn.chiendt.skilio.constant.TransactionStatus;
 
 import java.math.BigDecimal;
@@ -14,11 +17,18 @@ import java.util.UUID;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "installment_tranctions")
+@Table(name = "installment_tranctions", indexes = {
+        // Installment đã được thanh toán chưa (scheduler, overdue tracker)
+        @Index(name = "idx_installment_tranctions_installment_status", columnList = "installment_id, status"),
+        // Chọn transaction tới hạn retry bằng một range scan
+        @Index(name = "idx_installment_tranctions_retry", columnList = "status, next_retry_at"),
+        // Tìm transaction theo mã giao dịch của cổng thanh toán (webhook)
+        @Index(name = "idx_installment_tranctions_payment_ref", columnList = "gateway_provider, payment_ref")
+})
 public class InstallmentTransactions {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedId
     private String id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -56,9 +66,20 @@ public class InstallmentTransactions {
     @Column(name = "gateway_provider", length = 50)
     private String gatewayProvider; // Stripe, Momo,...
 
+    @Column(name = "next_retry_at")
+    private LocalDateTime nextRetryAt; // FAILED: thời điểm sớm nhất được retry, null nếu hết lượt retry
+
+    @Column(name = "decline_code", length = 50)
+    private String declineCode; // FAILED: mã từ chối của cổng thanh toán, null nếu lỗi gateway
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "decline_category", length = 20)
+    private DeclineCategory declineCategory; // HARD, SOFT, INSUFFICIENT_FUNDS
+
     @Column(name = "message", columnDefinition = "TEXT")
     private String message; // Mô tả lỗi / ghi chú
 
+    @JdbcTypeCode(SqlTypes.JSON)
     @Column(name = "metadata", columnDefinition = "jsonb")
     private String metadata; // JSON lưu response, merchantRef,...
 
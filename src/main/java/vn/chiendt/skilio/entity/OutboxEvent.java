@@ -0,0 +1,38 @@
+package vn.chiendt.skilio.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import vn.chiendt.skilio.constant.PlanEventType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Event waiting to be published to Kafka, written in the same transaction as the state change.
+ * Time-ordered ids keep the relay's ORDER BY id in creation order.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "outbox_events")
+public class OutboxEvent {
+
+    @Id
+    @TimeOrderedId
+    private String id;
+
+    @Column(name = "aggregate_id", nullable = false, length = 36)
+    private String aggregateId; // planId, dùng làm Kafka key
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type", nullable = false, length = 50)
+    private PlanEventType eventType;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload; // PlanLifecycleMessage dạng JSON
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -21,7 +21,7 @@ import java.time.LocalDateTime;
 public class PaylaterPlans {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedId
     private String id;
 
     @Column(name = "user_id")
@@ -41,6 +41,9 @@ public class PaylaterPlans {
     @JdbcTypeCode(SqlTypes.NAMED_ENUM)
     private Currency currency;
 
+    @Column(name = "product_code", length = 50)
+    private String productCode;
+
     @Column(name = "installments_total")
     @Builder.Default
     private int installmentsTotal = 3;
@@ -0,0 +1,32 @@
+package vn.chiendt.skilio.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Gateway webhook event already applied, keyed by gateway provider and the gateway's event ID.
+ * The row is inserted in the transaction that applies the event, so a redelivered event is
+ * recognised even after a restart or on another replica.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "processed_webhook_events",
+        indexes = @Index(name = "idx_processed_webhook_events_processed_at", columnList = "processed_at"))
+public class ProcessedWebhookEvent {
+
+    @Id
+    @Column(name = "event_key", length = 200)
+    private String eventKey; // gatewayProvider:eventId
+
+    @Column(name = "event_type", length = 50)
+    private String eventType;
+
+    @Column(name = "processed_at", nullable = false)
+    private LocalDateTime processedAt;
+}
@@ -0,0 +1,71 @@
+package vn.chiendt.skilio.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import vn.chiendt.skilio.constant.JobStatus;
+import vn.chiendt.skilio.constant.JobType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Unit of scheduled work shared by all replicas. A pod leases READY jobs (or LEASED jobs whose
+ * lease expired) with SELECT ... FOR UPDATE SKIP LOCKED and completes them before the lease ends.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "scheduled_jobs",
+        indexes = {
+                @Index(name = "idx_scheduled_jobs_claim", columnList = "job_type, status, run_at"),
+                // Hủy timer theo installmentId / transactionId
+                @Index(name = "idx_scheduled_jobs_payload", columnList = "payload, job_type")
+        },
+        uniqueConstraints = @UniqueConstraint(name = "uk_scheduled_jobs_job_key", columnNames = "job_key"))
+public class ScheduledJob {
+
+    @Id
+    @TimeOrderedId
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "job_type", nullable = false, length = 50)
+    private JobType jobType;
+
+    @Column(name = "job_key", nullable = false, length = 200)
+    private String jobKey; // khóa idempotent, enqueue trùng key bị bỏ qua
+
+    @Column(name = "payload")
+    private String payload; // vd: installmentId, ngày chạy
+
+    @Column(name = "shard_key", length = 36)
+    private String shardKey; // vd: planId
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private JobStatus status;
+
+    @Column(name = "run_at", nullable = false)
+    private LocalDateTime runAt; // thời điểm sớm nhất được claim
+
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    @Column(name = "attempts", nullable = false)
+    @Builder.Default
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,73 @@
+package vn.chiendt.skilio.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.constant.RunStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Checkpoint and history of one scheduler run (daily charge run, retry run). The keyset cursor and
+ * counters are committed together with the work of each batch, so a run interrupted by a pod dying
+ * resumes after the last committed batch instead of scanning from the start.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "scheduler_runs",
+        indexes = @Index(name = "idx_scheduler_runs_type_started", columnList = "run_type, started_at"),
+        uniqueConstraints = @UniqueConstraint(name = "uk_scheduler_runs_run_key", columnNames = "run_key"))
+public class SchedulerRun {
+
+    @Id
+    @TimeOrderedId
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "run_type", nullable = false, length = 50)
+    private JobType runType;
+
+    @Column(name = "run_key", nullable = false, length = 200)
+    private String runKey; // = job key của job chạy run này
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private RunStatus status;
+
+    @Column(name = "cursor_due_date")
+    private LocalDateTime cursorDueDate;
+
+    @Column(name = "cursor_id", length = 36)
+    private String cursorId; // key cuối cùng đã xử lý xong
+
+    @Column(name = "scanned", nullable = false)
+    @Builder.Default
+    private Long scanned = 0L;
+
+    @Column(name = "processed", nullable = false)
+    @Builder.Default
+    private Long processed = 0L; // charge job đã queue / transaction đã retry
+
+    @Column(name = "resumes", nullable = false)
+    @Builder.Default
+    private Integer resumes = 0;
+
+    @Column(name = "owner", length = 100)
+    private String owner;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "started_at", nullable = false)
+    private LocalDateTime startedAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
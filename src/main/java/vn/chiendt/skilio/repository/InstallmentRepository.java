@@ -1,7 +1,98 @@
 package vn.chiendt.skilio.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import vn.chiendt.skilio.domain.dto.DueInstallmentKey;
 import vn.chiendt.skilio.entity.Installment;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 public interface InstallmentRepository extends JpaRepository<Installment, String> {
+
+    /**
+     * Find installments of a plan
+     * @param planId Plan ID
+     * @return Installments
+     */
+    List<Installment> findByPlanId(String planId);
+
+    /**
+     * Find one installment of a plan
+     * @param planId Plan ID
+     * @param installmentNumber Installment number, 1..installmentsTotal
+     * @return Installment
+     */
+    Optional<Installment> findByPlanIdAndInstallmentNumber(String planId, Integer installmentNumber);
+
+    /**
+     * First keyset page of installments due in [from, to), ordered by (dueDate, id)
+     * @param from Due date lower bound, inclusive
+     * @param to Due date upper bound, exclusive
+     * @param pageable Page size, always page 0
+     * @return Keys of due installments
+     */
+    @Query("SELECT new vn.chiendt.skilio.domain.dto.DueInstallmentKey(i.dueDate, i.id, i.planId) FROM Installment i " +
+            "WHERE i.dueDate >= :from AND i.dueDate < :to ORDER BY i.dueDate, i.id")
+    List<DueInstallmentKey> findFirstDueKeys(@Param("from") LocalDateTime from,
+                                             @Param("to") LocalDateTime to,
+                                             Pageable pageable);
+
+    /**
+     * Next keyset page of installments due in [from, to), after the given (dueDate, id)
+     * @param from Due date lower bound, inclusive
+     * @param to Due date upper bound, exclusive
+     * @param afterDueDate Due date of the last key of the previous page
+     * @param afterId ID of the last key of the previous page
+     * @param pageable Page size, always page 0
+     * @return Keys of due installments
+     */
+    @Query("SELECT new vn.chiendt.skilio.domain.dto.DueInstallmentKey(i.dueDate, i.id, i.planId) FROM Installment i " +
+            "WHERE i.dueDate < :to AND i.dueDate >= :from " +
+            "AND (i.dueDate > :afterDueDate OR (i.dueDate = :afterDueDate AND i.id > :afterId)) " +
+            "ORDER BY i.dueDate, i.id")
+    List<DueInstallmentKey> findDueKeysAfter(@Param("from") LocalDateTime from,
+                                             @Param("to") LocalDateTime to,
+                                             @Param("afterDueDate") LocalDateTime afterDueDate,
+                                             @Param("afterId") String afterId,
+                                             Pageable pageable);
+
+    /**
+     * Keyset page of unpaid installments of active plans due in [from, to), after the given key.
+     * Pass afterDueDate = from and afterId = "" for the first page.
+     * @param from Due date lower bound, inclusive
+     * @param to Due date upper bound, exclusive
+     * @param afterDueDate Due date of the last key of the previous page
+     * @param afterId ID of the last key of the previous page
+     * @param pageable Page size, always page 0
+     * @return Keys of overdue installments
+     */
+    @Query("SELECT new vn.chiendt.skilio.domain.dto.DueInstallmentKey(i.dueDate, i.id, i.planId) " +
+            "FROM Installment i, PaylaterPlans p WHERE p.id = i.planId " +
+            "AND i.dueDate < :to AND i.dueDate >= :from " +
+            "AND (i.dueDate > :afterDueDate OR (i.dueDate = :afterDueDate AND i.id > :afterId)) " +
+            "AND p.status IN (vn.chiendt.skilio.constant.PaylaterStatus.ACTIVE, vn.chiendt.skilio.constant.PaylaterStatus.PARTIALLY_PAID) " +
+            "AND NOT EXISTS (SELECT t.id FROM InstallmentTransactions t WHERE t.installment = i " +
+            "AND t.status = vn.chiendt.skilio.constant.TransactionStatus.SUCCESS) " +
+            "ORDER BY i.dueDate, i.id")
+    List<DueInstallmentKey> findUnpaidDueKeysAfter(@Param("from") LocalDateTime from,
+                                                   @Param("to") LocalDateTime to,
+                                                   @Param("afterDueDate") LocalDateTime afterDueDate,
+                                                   @Param("afterId") String afterId,
+                                                   Pageable pageable);
+
+    /**
+     * Of the given installments, those still unpaid with their plan still active
+     * @param ids Installment IDs
+     * @return IDs of installments still overdue
+     */
+    @Query("SELECT i.id FROM Installment i, PaylaterPlans p WHERE i.id IN :ids AND p.id = i.planId " +
+            "AND p.status IN (vn.chiendt.skilio.constant.PaylaterStatus.ACTIVE, vn.chiendt.skilio.constant.PaylaterStatus.PARTIALLY_PAID) " +
+            "AND NOT EXISTS (SELECT t.id FROM InstallmentTransactions t WHERE t.installment = i " +
+            "AND t.status = vn.chiendt.skilio.constant.TransactionStatus.SUCCESS)")
+    List<String> findStillUnpaidIds(@Param("ids") Collection<String> ids);
 }
@@ -1,11 +1,21 @@
 package vn.chiendt.skilio.repository;
 
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import vn.chiendt.skilio.constant.DeclineCategory;
+import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.domain.dto.RetryKey;
 import vn.chiendt.skilio.entity.InstallmentTransactions;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -34,6 +44,36 @@ public interface InstallmentTransactionsRepository extends JpaRepository<Install
      */
     @Query("SELECT t FROM InstallmentTransactions t WHERE t.installment.id = :installmentId ORDER BY t.attemptNumber DESC")
     Optional<InstallmentTransactions> findLatestTransactionByInstallmentId(@Param("installmentId") String installmentId);
+
+    /**
+     * Find statuses of the first installment transactions of a plan, latest attempt first
+     * @param planId Plan ID
+     * @param pageable Page, usually the first row only
+     * @return Transaction statuses
+     */
+    @Query("SELECT t.status FROM InstallmentTransactions t WHERE t.installment.planId = :planId " +
+            "AND t.installment.installmentNumber = 1 ORDER BY t.attemptNumber DESC")
+    List<TransactionStatus> findFirstInstallmentStatuses(@Param("planId") String planId, Pageable pageable);
+
+    /**
+     * Find transactions of the first installment of a plan, the successful charge first, then latest attempt first
+     * @param planId Plan ID
+     * @param pageable Page, usually the first row only
+     * @return Transactions
+     */
+    @Query("SELECT t FROM InstallmentTransactions t WHERE t.installment.planId = :planId " +
+            "AND t.installment.installmentNumber = 1 " +
+            "ORDER BY CASE WHEN t.status = vn.chiendt.skilio.constant.TransactionStatus.SUCCESS THEN 0 ELSE 1 END, " +
+            "t.attemptNumber DESC")
+    List<InstallmentTransactions> findFirstInstallmentTransactions(@Param("planId") String planId, Pageable pageable);
+    
+    /**
+     * Check whether an installment has a transaction in one of the given statuses
+     * @param installmentId Installment ID
+     * @param statuses Statuses
+     * @return True if such a transaction exists
+     */
+    boolean existsByInstallmentIdAndStatusIn(String installmentId, Collection<TransactionStatus> statuses);
     
     /**
      * Find successful transactions by installment ID
@@ -65,6 +105,19 @@ public interface InstallmentTransactionsRepository extends JpaRepository<Install
      * @return Transaction
      */
     Optional<InstallmentTransactions> findByGatewayProviderAndPaymentRef(String gatewayProvider, String paymentRef);
+
+    /**
+     * Row-lock (PESSIMISTIC_WRITE, in id order) the transactions of one gateway by payment reference, with their
+     * installment, in one query. Conditional updates of the same rows wait until the caller commits.
+     * @param gatewayProvider Gateway provider
+     * @param paymentRefs Payment references
+     * @return Transactions found
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM InstallmentTransactions t JOIN FETCH t.installment " +
+            "WHERE t.gatewayProvider = :gatewayProvider AND t.paymentRef IN :paymentRefs ORDER BY t.id")
+    List<InstallmentTransactions> lockByGatewayProviderAndPaymentRefIn(@Param("gatewayProvider") String gatewayProvider,
+                                                                     @Param("paymentRefs") Collection<String> paymentRefs);
     
     /**
      * Count transactions by installment ID and status
@@ -81,4 +134,178 @@ public interface InstallmentTransactionsRepository extends JpaRepository<Install
      */
     @Query("SELECT t FROM InstallmentTransactions t WHERE t.status = 'FAILED' AND t.attemptNumber < :maxAttempts")
     List<InstallmentTransactions> findTransactionsNeedingRetry(@Param("maxAttempts") int maxAttempts);
+
+    /**
+     * Keyset page of FAILED transactions with next retry in (after key, to], ordered by (nextRetryAt, id),
+     * read from the (status, next_retry_at) index without loading the rows.
+     * Pass RetryKey.START as the key for the first page.
+     * @param to Upper bound of the next retry time, inclusive
+     * @param afterRetryAt Next retry time of the last key of the previous page
+     * @param afterId ID of the last key of the previous page
+     * @param pageable Page size, always page 0
+     * @return Retry keys
+     */
+    @Query("SELECT new vn.chiendt.skilio.domain.dto.RetryKey(t.nextRetryAt, t.id) FROM InstallmentTransactions t " +
+            "WHERE t.status = vn.chiendt.skilio.constant.TransactionStatus.FAILED AND t.nextRetryAt <= :to " +
+            "AND (t.nextRetryAt > :afterRetryAt OR (t.nextRetryAt = :afterRetryAt AND t.id > :afterId)) " +
+            "ORDER BY t.nextRetryAt, t.id")
+    List<RetryKey> findRetryKeysAfter(@Param("to") LocalDateTime to,
+                                      @Param("afterRetryAt") LocalDateTime afterRetryAt,
+                                      @Param("afterId") String afterId,
+                                      Pageable pageable);
+
+    /**
+     * IDs of a plan's FAILED transactions that still have a retry coming
+     * @param planId Plan ID
+     * @return Transaction IDs
+     */
+    @Query("SELECT t.id FROM InstallmentTransactions t WHERE t.installment.planId = :planId " +
+            "AND t.status = vn.chiendt.skilio.constant.TransactionStatus.FAILED AND t.nextRetryAt IS NOT NULL")
+    List<String> findRetryScheduledIdsByPlanId(@Param("planId") String planId);
+
+    /**
+     * Drop the remaining retries of a plan's FAILED transactions (plan cancelled)
+     * @param planId Plan ID
+     * @param updatedAt Update time
+     * @return Number of transactions updated
+     */
+    @Modifying
+    @Query("UPDATE InstallmentTransactions t SET t.nextRetryAt = NULL, t.updatedAt = :updatedAt " +
+            "WHERE t.status = vn.chiendt.skilio.constant.TransactionStatus.FAILED AND t.nextRetryAt IS NOT NULL " +
+            "AND t.installment.id IN (SELECT i.id FROM Installment i WHERE i.planId = :planId)")
+    int cancelPlanRetries(@Param("planId") String planId, @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * Claim a due retry by moving its next retry time to the end of a lease. Only one caller wins;
+     * if the retry never completes, the transaction becomes due again when the lease ends.
+     * @param id Transaction ID
+     * @param expectedNextRetryAt Next retry time the caller read
+     * @param leaseUntil New next retry time
+     * @return 1 if claimed, 0 if the transaction changed or was claimed by someone else
+     */
+    @Modifying
+    @Query("UPDATE InstallmentTransactions t SET t.nextRetryAt = :leaseUntil WHERE t.id = :id " +
+            "AND t.status = vn.chiendt.skilio.constant.TransactionStatus.FAILED AND t.nextRetryAt = :expectedNextRetryAt")
+    int claimRetry(@Param("id") String id,
+                   @Param("expectedNextRetryAt") LocalDateTime expectedNextRetryAt,
+                   @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * Store the result of a claimed retry, only while the caller still holds the claim: a webhook or
+     * another worker that changed the transaction during the gateway call wins
+     * @param id Transaction ID
+     * @param leaseUntil Next retry time set by claimRetry
+     * @param status SUCCESS or FAILED
+     * @param attemptNumber Attempt just made
+     * @param paymentRef Gateway payment reference, null keeps the current one
+     * @param chargedAt Charge time, null keeps the current one
+     * @param message Message
+     * @param declineCode Gateway decline code when FAILED, null otherwise
+     * @param declineCategory Decline category when FAILED, null otherwise
+     * @param nextRetryAt Next retry time when FAILED, null if no retry is left or SUCCESS
+     * @param updatedAt Update time
+     * @return 1 if stored, 0 if the claim was lost
+     */
+    @Modifying
+    @Query("UPDATE InstallmentTransactions t SET t.status = :status, t.attemptNumber = :attemptNumber, " +
+            "t.paymentRef = COALESCE(:paymentRef, t.paymentRef), t.chargedAt = COALESCE(:chargedAt, t.chargedAt), " +
+            "t.message = :message, t.declineCode = :declineCode, t.declineCategory = :declineCategory, " +
+            "t.nextRetryAt = :nextRetryAt, t.updatedAt = :updatedAt " +
+            "WHERE t.id = :id AND t.status = vn.chiendt.skilio.constant.TransactionStatus.FAILED " +
+            "AND t.nextRetryAt = :leaseUntil")
+    int completeClaimedRetry(@Param("id") String id,
+                             @Param("leaseUntil") LocalDateTime leaseUntil,
+                             @Param("status") TransactionStatus status,
+                             @Param("attemptNumber") int attemptNumber,
+                             @Param("paymentRef") String paymentRef,
+                             @Param("chargedAt") LocalDateTime chargedAt,
+                             @Param("message") String message,
+                             @Param("declineCode") String declineCode,
+                             @Param("declineCategory") DeclineCategory declineCategory,
+                             @Param("nextRetryAt") LocalDateTime nextRetryAt,
+                             @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * Find a transaction with its installment loaded
+     * @param id Transaction ID
+     * @return Transaction
+     */
+    @EntityGraph(attributePaths = "installment")
+    Optional<InstallmentTransactions> findWithInstallmentById(String id);
+
+    /**
+     * Apply the gateway result to a transaction that is still PENDING
+     * @param id Transaction ID
+     * @param status New status
+     * @param paymentRef Gateway payment reference
+     * @param chargedAt Charge time
+     * @param message Message
+     * @param declineCode Gateway decline code when FAILED, null otherwise
+     * @param declineCategory Decline category when FAILED, null otherwise
+     * @param nextRetryAt Earliest retry time when FAILED, null otherwise
+     * @param updatedAt Update time
+     * @return Number of rows updated, 0 if the transaction was no longer PENDING
+     */
+    @Modifying
+    @Query("UPDATE InstallmentTransactions t SET t.status = :status, t.paymentRef = :paymentRef, t.chargedAt = :chargedAt, " +
+            "t.message = :message, t.declineCode = :declineCode, t.declineCategory = :declineCategory, " +
+            "t.nextRetryAt = :nextRetryAt, t.updatedAt = :updatedAt " +
+            "WHERE t.id = :id AND t.status = vn.chiendt.skilio.constant.TransactionStatus.PENDING")
+    int completePendingTransaction(@Param("id") String id,
+                                   @Param("status") TransactionStatus status,
+                                   @Param("paymentRef") String paymentRef,
+                                   @Param("chargedAt") LocalDateTime chargedAt,
+                                   @Param("message") String message,
+                                   @Param("declineCode") String declineCode,
+                                   @Param("declineCategory") DeclineCategory declineCategory,
+                                   @Param("nextRetryAt") LocalDateTime nextRetryAt,
+                                   @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * Hand a PENDING transaction that never reached the gateway over to the retry path, without
+     * counting the attempt: it becomes FAILED with the given retry time and one attempt less
+     * @param id Transaction ID
+     * @param message Message
+     * @param nextRetryAt Retry time
+     * @param updatedAt Update time
+     * @return Number of rows updated, 0 if the transaction was no longer PENDING
+     */
+    @Modifying
+    @Query("UPDATE InstallmentTransactions t SET t.status = vn.chiendt.skilio.constant.TransactionStatus.FAILED, " +
+            "t.attemptNumber = t.attemptNumber - 1, t.message = :message, t.nextRetryAt = :nextRetryAt, " +
+            "t.updatedAt = :updatedAt " +
+            "WHERE t.id = :id AND t.status = vn.chiendt.skilio.constant.TransactionStatus.PENDING")
+    int deferPendingTransaction(@Param("id") String id,
+                                @Param("message") String message,
+                                @Param("nextRetryAt") LocalDateTime nextRetryAt,
+                                @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * Record the gateway reference of a charge whose result could not be stored, so gateway webhooks
+     * and the pending sweep can still find and complete the transaction
+     * @param id Transaction ID
+     * @param paymentRef Gateway payment reference
+     * @param updatedAt Update time
+     * @return Number of rows updated, 0 if the transaction was no longer PENDING or already had a reference
+     */
+    @Modifying
+    @Query("UPDATE InstallmentTransactions t SET t.paymentRef = :paymentRef, t.updatedAt = :updatedAt " +
+            "WHERE t.id = :id AND t.status = vn.chiendt.skilio.constant.TransactionStatus.PENDING " +
+            "AND t.paymentRef IS NULL")
+    int recordPendingPaymentRef(@Param("id") String id,
+                                @Param("paymentRef") String paymentRef,
+                                @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * PENDING transactions charged at the gateway whose result was never stored, with their installment,
+     * oldest first
+     * @param before Only transactions last updated before this time
+     * @param pageable Page size
+     * @return Transactions
+     */
+    @Query("SELECT t FROM InstallmentTransactions t JOIN FETCH t.installment " +
+            "WHERE t.status = vn.chiendt.skilio.constant.TransactionStatus.PENDING AND t.paymentRef IS NOT NULL " +
+            "AND t.updatedAt < :before ORDER BY t.updatedAt")
+    List<InstallmentTransactions> findStalePendingWithPaymentRef(@Param("before") LocalDateTime before,
+                                                                 Pageable pageable);
 }
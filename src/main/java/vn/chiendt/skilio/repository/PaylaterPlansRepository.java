@@ -1,11 +1,15 @@
 package vn.chiendt.skilio.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import vn.chiendt.skilio.constant.PaylaterStatus;
 import vn.chiendt.skilio.entity.PaylaterPlans;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +22,14 @@ public interface PaylaterPlansRepository extends JpaRepository<PaylaterPlans, St
      * @return PayLater plan
      */
     Optional<PaylaterPlans> findByOrderId(String orderId);
+
+    /**
+     * Find order IDs that already have a PayLater plan
+     * @param orderIds Order IDs
+     * @return Order IDs having a plan
+     */
+    @Query("SELECT p.orderId FROM PaylaterPlans p WHERE p.orderId IN :orderIds")
+    List<String> findExistingOrderIds(@Param("orderIds") Collection<String> orderIds);
     
     /**
      * Find PayLater plans by user ID
@@ -56,4 +68,40 @@ public interface PaylaterPlansRepository extends JpaRepository<PaylaterPlans, St
      * @return Count
      */
     long countByUserIdAndStatus(Long userId, String status);
+
+    /**
+     * Activate a PENDING plan after its first installment was charged
+     * @param planId Plan ID
+     * @param firstChargeId Payment reference of the first charge
+     * @param approvedAt Approval time
+     * @return Number of rows updated, 0 if the plan is no longer PENDING
+     */
+    @Modifying
+    @Query("UPDATE PaylaterPlans p SET p.status = vn.chiendt.skilio.constant.PaylaterStatus.ACTIVE, " +
+            "p.firstChargeId = :firstChargeId, p.approvedAt = :approvedAt " +
+            "WHERE p.id = :planId AND p.status = vn.chiendt.skilio.constant.PaylaterStatus.PENDING")
+    int approvePlan(@Param("planId") String planId,
+                    @Param("firstChargeId") String firstChargeId,
+                    @Param("approvedAt") LocalDateTime approvedAt);
+
+    /**
+     * Update PayLater plan status
+     * @param planId Plan ID
+     * @param status New status
+     * @return Number of rows updated
+     */
+    @Modifying
+    @Query("UPDATE PaylaterPlans p SET p.status = :status WHERE p.id = :planId")
+    int updateStatus(@Param("planId") String planId, @Param("status") PaylaterStatus status);
+
+    /**
+     * Move an active plan to DEFAULTED
+     * @param planId Plan ID
+     * @return Number of rows updated, 0 if the plan is no longer ACTIVE / PARTIALLY_PAID
+     */
+    @Modifying
+    @Query("UPDATE PaylaterPlans p SET p.status = vn.chiendt.skilio.constant.PaylaterStatus.DEFAULTED " +
+            "WHERE p.id = :planId AND p.status IN (vn.chiendt.skilio.constant.PaylaterStatus.ACTIVE, " +
+            "vn.chiendt.skilio.constant.PaylaterStatus.PARTIALLY_PAID)")
+    int markDefaulted(@Param("planId") String planId);
 }
@@ -0,0 +1,41 @@
+package vn.chiendt.skilio.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import vn.chiendt.skilio.entity.ProcessedWebhookEvent;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ProcessedWebhookEventRepository extends JpaRepository<ProcessedWebhookEvent, String> {
+
+    /**
+     * Record several events as processed in one statement, skipping those that already are
+     * @param eventKeys gatewayProvider:eventId of each event, without duplicates
+     * @param eventTypes Event type of each event
+     * @param processedAt Processing time
+     * @return Keys recorded by this call
+     */
+    @Query(value = "INSERT INTO processed_webhook_events (event_key, event_type, processed_at) " +
+            "SELECT e.event_key, e.event_type, :processedAt " +
+            "FROM unnest(CAST(:eventKeys AS varchar[]), CAST(:eventTypes AS varchar[])) AS e(event_key, event_type) " +
+            "ON CONFLICT (event_key) DO NOTHING RETURNING event_key", nativeQuery = true)
+    List<String> insertAllIfAbsent(@Param("eventKeys") String[] eventKeys,
+                                   @Param("eventTypes") String[] eventTypes,
+                                   @Param("processedAt") LocalDateTime processedAt);
+
+    /**
+     * Delete up to limit events processed before the given time
+     * @param before Retention limit
+     * @param limit Maximum number of rows
+     * @return Number of rows deleted
+     */
+    @Modifying
+    @Query(value = "DELETE FROM processed_webhook_events WHERE event_key IN (SELECT event_key FROM processed_webhook_events " +
+            "WHERE processed_at < :before LIMIT :limit)", nativeQuery = true)
+    int deleteProcessedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
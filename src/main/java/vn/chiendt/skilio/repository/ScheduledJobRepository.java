@@ -0,0 +1,144 @@
+package vn.chiendt.skilio.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import vn.chiendt.skilio.constant.JobStatus;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.entity.ScheduledJob;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ScheduledJobRepository extends JpaRepository<ScheduledJob, String> {
+
+    /**
+     * Lock claimable jobs of a type: READY and due, or LEASED with an expired lease.
+     * Rows locked by another pod are skipped.
+     * @param jobType Job type
+     * @param now Current time
+     * @param limit Maximum number of jobs
+     * @return Locked jobs, earliest run_at first
+     */
+    @Query(value = "SELECT * FROM scheduled_jobs WHERE job_type = :jobType " +
+            "AND ((status = 'READY' AND run_at <= :now) OR (status = 'LEASED' AND lease_expires_at < :now)) " +
+            "ORDER BY run_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<ScheduledJob> lockClaimable(@Param("jobType") String jobType,
+                                     @Param("now") LocalDateTime now,
+                                     @Param("limit") int limit);
+
+    /**
+     * Lock the given jobs if they are claimable, rows locked by another pod are skipped
+     * @param ids Job IDs
+     * @param now Current time
+     * @return Locked jobs
+     */
+    @Query(value = "SELECT * FROM scheduled_jobs WHERE id IN (:ids) " +
+            "AND ((status = 'READY' AND run_at <= :now) OR (status = 'LEASED' AND lease_expires_at < :now)) " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<ScheduledJob> lockClaimableByIds(@Param("ids") Collection<String> ids, @Param("now") LocalDateTime now);
+
+    /**
+     * Find READY jobs of the given types due in (from, to]
+     * @param jobTypes Job types
+     * @param from Lower bound, exclusive
+     * @param to Upper bound, inclusive
+     * @param pageable Maximum number of jobs, always page 0
+     * @return Jobs, earliest run_at first
+     */
+    @Query("SELECT j FROM ScheduledJob j WHERE j.jobType IN :jobTypes " +
+            "AND j.status = vn.chiendt.skilio.constant.JobStatus.READY AND j.runAt > :from AND j.runAt <= :to " +
+            "ORDER BY j.runAt")
+    List<ScheduledJob> findReadyBetween(@Param("jobTypes") Collection<JobType> jobTypes,
+                                        @Param("from") LocalDateTime from,
+                                        @Param("to") LocalDateTime to,
+                                        Pageable pageable);
+
+    /**
+     * Cancel READY jobs of a type for a payload
+     * @param jobType Job type
+     * @param payload Payload
+     * @param now Update time
+     * @return Number of jobs cancelled
+     */
+    @Modifying
+    @Query("UPDATE ScheduledJob j SET j.status = vn.chiendt.skilio.constant.JobStatus.CANCELLED, j.updatedAt = :now " +
+            "WHERE j.payload = :payload AND j.jobType = :jobType AND j.status = vn.chiendt.skilio.constant.JobStatus.READY")
+    int cancelReady(@Param("jobType") JobType jobType, @Param("payload") String payload, @Param("now") LocalDateTime now);
+
+    /**
+     * Mark jobs DONE if they are still leased by the owner
+     * @param ids Job IDs
+     * @param owner Lease owner
+     * @param now Update time
+     * @return Number of jobs completed
+     */
+    @Modifying
+    @Query("UPDATE ScheduledJob j SET j.status = vn.chiendt.skilio.constant.JobStatus.DONE, j.updatedAt = :now " +
+            "WHERE j.id IN :ids AND j.leaseOwner = :owner AND j.status = vn.chiendt.skilio.constant.JobStatus.LEASED")
+    int complete(@Param("ids") Collection<String> ids, @Param("owner") String owner, @Param("now") LocalDateTime now);
+
+    /**
+     * Give a leased job back: READY again at runAt, or FAILED when it is out of attempts
+     * @param id Job ID
+     * @param owner Lease owner
+     * @param status READY or FAILED
+     * @param runAt Next run time
+     * @param error Error message
+     * @param now Update time
+     * @return Number of jobs updated, 0 if the lease was lost
+     */
+    @Modifying
+    @Query("UPDATE ScheduledJob j SET j.status = :status, j.runAt = :runAt, j.lastError = :error, j.updatedAt = :now " +
+            "WHERE j.id = :id AND j.leaseOwner = :owner AND j.status = vn.chiendt.skilio.constant.JobStatus.LEASED")
+    int release(@Param("id") String id,
+                @Param("owner") String owner,
+                @Param("status") JobStatus status,
+                @Param("runAt") LocalDateTime runAt,
+                @Param("error") String error,
+                @Param("now") LocalDateTime now);
+
+    /**
+     * Extend the lease of a job still held by the owner
+     * @param id Job ID
+     * @param owner Lease owner
+     * @param leaseExpiresAt New lease expiry
+     * @return Number of jobs updated, 0 if the lease was lost
+     */
+    @Modifying
+    @Query("UPDATE ScheduledJob j SET j.leaseExpiresAt = :leaseExpiresAt " +
+            "WHERE j.id = :id AND j.leaseOwner = :owner AND j.status = vn.chiendt.skilio.constant.JobStatus.LEASED")
+    int extendLease(@Param("id") String id,
+                    @Param("owner") String owner,
+                    @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    /**
+     * Extend the leases of the jobs still held by the owner
+     * @param ids Job IDs
+     * @param owner Lease owner
+     * @param leaseExpiresAt New lease expiry
+     * @return Number of jobs updated
+     */
+    @Modifying
+    @Query("UPDATE ScheduledJob j SET j.leaseExpiresAt = :leaseExpiresAt " +
+            "WHERE j.id IN :ids AND j.leaseOwner = :owner AND j.status = vn.chiendt.skilio.constant.JobStatus.LEASED")
+    int extendLeases(@Param("ids") Collection<String> ids,
+                     @Param("owner") String owner,
+                     @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    /**
+     * Delete up to limit DONE / CANCELLED jobs last updated before the given time
+     * @param before Retention limit
+     * @param limit Maximum number of rows
+     * @return Number of rows deleted
+     */
+    @Modifying
+    @Query(value = "DELETE FROM scheduled_jobs WHERE id IN (SELECT id FROM scheduled_jobs " +
+            "WHERE status IN ('DONE', 'CANCELLED') AND updated_at < :before LIMIT :limit)", nativeQuery = true)
+    int deleteDoneBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
@@ -0,0 +1,20 @@
+package vn.chiendt.skilio.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.entity.SchedulerRun;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface SchedulerRunRepository extends JpaRepository<SchedulerRun, String> {
+
+    Optional<SchedulerRun> findByRunKey(String runKey);
+
+    List<SchedulerRun> findAllByOrderByStartedAtDesc(Pageable pageable);
+
+    List<SchedulerRun> findByRunTypeOrderByStartedAtDesc(JobType runType, Pageable pageable);
+}
@@ -0,0 +1,31 @@
+package vn.chiendt.skilio.sevice;
+
+import vn.chiendt.skilio.constant.ChargeOutcome;
+import vn.chiendt.skilio.entity.InstallmentTransactions;
+
+import java.time.LocalDateTime;
+
+public interface InstallmentChargeService {
+
+    /**
+     * Create the PENDING transaction for a due installment, in its own short transaction
+     * @param installmentId Installment ID
+     * @return PENDING transaction, null if the installment is already paid, being charged or its plan is not active
+     */
+    InstallmentTransactions prepareCharge(String installmentId);
+
+    /**
+     * Charge a prepared transaction at its gateway (no database connection held) and store the result
+     * @param transaction PENDING transaction from prepareCharge
+     * @return SUCCEEDED, DECLINED, or GATEWAY_ERROR if the gateway call itself failed
+     */
+    ChargeOutcome charge(InstallmentTransactions transaction);
+
+    /**
+     * Defer a prepared transaction without calling the gateway (its circuit is open). The transaction
+     * goes to the retry path at retryAt and the skipped call does not count as an attempt.
+     * @param transaction PENDING transaction from prepareCharge
+     * @param retryAt Time to charge it
+     */
+    void defer(InstallmentTransactions transaction, LocalDateTime retryAt);
+}
@@ -0,0 +1,36 @@
+package vn.chiendt.skilio.sevice;
+
+import vn.chiendt.skilio.entity.Installment;
+import vn.chiendt.skilio.entity.PaylaterPlans;
+
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.List;
+
+public interface InstallmentScheduleService {
+
+    /**
+     * Resolve the compiled schedule template of a product
+     * @param productCode Product code, null for the default template
+     * @param installmentsTotal Requested number of installments, null to use the template count
+     * @return Compiled template
+     * @throws IllegalArgumentException if the product or the installment count is not offered
+     */
+    ScheduleTemplate resolveTemplate(String productCode, Integer installmentsTotal);
+
+    /**
+     * Build the installments of a saved plan. Installment #1 is due at startDate (charged at checkout),
+     * the rounding remainder goes to the last installment so the amounts add up to the principal exactly.
+     * @param plan Saved plan
+     * @param template Compiled template
+     * @param startDate Start of the schedule
+     * @return Installments, not saved
+     */
+    List<Installment> buildInstallments(PaylaterPlans plan, ScheduleTemplate template, LocalDateTime startDate);
+
+    /**
+     * Schedule template compiled once: due offsets from the start date and down payment in basis points
+     */
+    record ScheduleTemplate(String productCode, int count, Period[] dueOffsets, int downPaymentBasisPoints) {
+    }
+}
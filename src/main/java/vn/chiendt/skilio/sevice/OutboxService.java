@@ -0,0 +1,13 @@
+package vn.chiendt.skilio.sevice;
+
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+
+public interface OutboxService {
+
+    /**
+     * Store a plan lifecycle event in the outbox. Must be called inside the transaction
+     * that applies the state change, the relay publishes it once that transaction commits.
+     * @param message Event, planId is used as the Kafka key
+     */
+    void append(PlanLifecycleMessage message);
+}
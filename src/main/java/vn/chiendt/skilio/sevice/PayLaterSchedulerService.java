@@ -2,15 +2,17 @@ package vn.chiendt.skilio.sevice;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface PayLaterSchedulerService {
     
     /**
      * Schedule next installment payment
      * @param installmentId Installment ID
+     * @param planId Plan ID of the installment
      * @param dueDate Due date
      */
-    void scheduleNextInstallment(String installmentId, LocalDateTime dueDate);
+    void scheduleNextInstallment(String installmentId, String planId, LocalDateTime dueDate);
     
     /**
      * Schedule retry for failed transaction
@@ -20,14 +22,19 @@ public interface PayLaterSchedulerService {
     void scheduleRetry(String transactionId, LocalDateTime retryAfter);
     
     /**
-     * Process scheduled payments
+     * Queue today's scheduled payments run (once for the whole cluster)
      */
     void processScheduledPayments();
     
     /**
-     * Process retry payments
+     * Queue a retry payments run (once for the whole cluster)
      */
     void processRetryPayments();
+
+    /**
+     * Claim queued scheduler jobs leased to this instance and run them
+     */
+    void processJobs();
     
     /**
      * Cancel scheduled payment
@@ -36,13 +43,13 @@ public interface PayLaterSchedulerService {
     void cancelScheduledPayment(String installmentId);
     
     /**
-     * Get payments due today
-     * @return List of installment IDs due today
+     * Stream payments due today, read from the database in keyset pages
+     * @return Lazy stream of installment IDs due today, close it when done
      */
-    List<String> getPaymentsDueToday();
+    Stream<String> streamPaymentsDueToday();
     
     /**
-     * Get overdue payments
+     * Get overdue payments, from the in-memory overdue tracker
      * @return List of overdue installment IDs
      */
     List<String> getOverduePayments();
@@ -1,10 +1,14 @@
 package vn.chiendt.skilio.sevice;
 
+import vn.chiendt.skilio.domain.dto.CheckoutResultDto;
+import vn.chiendt.skilio.domain.dto.CheckoutStatusDto;
 import vn.chiendt.skilio.domain.dto.PaylaterPlanCreation;
 import vn.chiendt.skilio.domain.dto.PaylaterPlanDto;
 import vn.chiendt.skilio.entity.PaylaterPlans;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 public interface PaylaterPlansService {
 
@@ -14,6 +18,15 @@ public interface PaylaterPlansService {
      * @return
      */
     PaylaterPlanDto createPaylaterPlan(PaylaterPlanCreation request);
+
+    /**
+     * Process PayLater checkout for many orders. Plans are stored one transaction per chunk
+     * with batched inserts, first installments are charged concurrently.
+     * @param requests
+     * @return one result per order, in request order
+     * @throws CheckoutStorageException if a chunk could not be stored; the chunks stored before it are finished
+     */
+    List<CheckoutResultDto> processPayLaterCheckoutBatch(List<PaylaterPlanCreation> requests);
     
     /**
      * Process PayLater plan after checkout order
@@ -21,9 +34,33 @@ public interface PaylaterPlansService {
      * @param userId
      * @param totalAmount
      * @param currency
+     * @param productCode PayLater product (schedule template), null for the default
+     * @param installmentsTotal number of installments, null for the template count
      * @return
      */
-    PaylaterPlanDto processPayLaterCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency);
+    PaylaterPlanDto processPayLaterCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency,
+                                            String productCode, Integer installmentsTotal);
+
+    /**
+     * Store the PayLater plan and finish the first charge in the background
+     * @param orderId
+     * @param userId
+     * @param totalAmount
+     * @param currency
+     * @param productCode PayLater product (schedule template), null for the default
+     * @param installmentsTotal number of installments, null for the template count
+     * @param callbackUrl optional URL notified with the final checkout status
+     * @return stored plan, still PENDING
+     */
+    PaylaterPlanDto submitPayLaterCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency,
+                                           String productCode, Integer installmentsTotal, String callbackUrl);
+
+    /**
+     * Get checkout status of a PayLater plan
+     * @param planId
+     * @return status, null if the plan does not exist
+     */
+    CheckoutStatusDto getCheckoutStatus(String planId);
     
     /**
      * Get PayLater plan by ID
@@ -31,6 +68,13 @@ public interface PaylaterPlansService {
      * @return
      */
     PaylaterPlanDto getPaylaterPlan(String planId);
+
+    /**
+     * Get PayLater plan by ID together with its ETag, served from the plan cache
+     * @param planId
+     * @return cached plan, null if the plan does not exist
+     */
+    PaylaterPlanCache.CachedPlan getCachedPaylaterPlan(String planId);
     
     /**
      * Update PayLater plan status
@@ -38,4 +82,21 @@ public interface PaylaterPlansService {
      * @param status
      */
     void updatePlanStatus(String planId, String status);
+
+    /**
+     * Plans of a checkout batch could not be stored from the given order on, the orders before it were processed
+     */
+    class CheckoutStorageException extends IllegalStateException {
+
+        private final String orderId;
+
+        public CheckoutStorageException(String orderId, Throwable cause) {
+            super("Failed to store PayLater plans from orderId " + orderId, cause);
+            this.orderId = orderId;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package vn.chiendt.skilio.sevice;
+
+import java.math.BigDecimal;
+
+public interface PaymentService {
+
+    /**
+     * Charge a payment method through the payment gateway
+     * @param amount Amount to charge
+     * @param paymentMethodId Payment method ID
+     * @param currency Currency code
+     * @param idempotencyKey Key of this charge attempt, the gateway answers a repeated key with the
+     *                       original result instead of charging again
+     * @return Charge result
+     */
+    PaymentResult charge(BigDecimal amount, String paymentMethodId, String currency, String idempotencyKey);
+
+    /**
+     * @param transactionId Transaction ID
+     * @param attemptNumber Attempt number of the charge
+     * @return Idempotency key of one charge attempt of a transaction
+     */
+    static String idempotencyKey(String transactionId, int attemptNumber) {
+        return transactionId + ":" + attemptNumber;
+    }
+
+    /**
+     * Payment result class
+     */
+    class PaymentResult {
+        private boolean success;
+        private String transactionId;
+        private String errorCode;
+        private String errorMessage;
+
+        public static PaymentResult failed(String errorMessage) {
+            PaymentResult result = new PaymentResult();
+            result.setSuccess(false);
+            result.setErrorMessage(errorMessage);
+            return result;
+        }
+
+        // Getters and setters
+        public boolean isSuccess() { return success; }
+        public void setSuccess(boolean success) { this.success = success; }
+
+        public String getTransactionId() { return transactionId; }
+        public void setTransactionId(String transactionId) { this.transactionId = transactionId; }
+
+        public String getErrorCode() { return errorCode; }
+        public void setErrorCode(String errorCode) { this.errorCode = errorCode; }
+
+        public String getErrorMessage() { return errorMessage; }
+        public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
+    }
+}
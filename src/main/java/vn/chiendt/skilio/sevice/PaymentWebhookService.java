@@ -1,48 +1,88 @@
 package vn.chiendt.skilio.sevice;
 
+import vn.chiendt.skilio.constant.WebhookSource;
+import vn.chiendt.skilio.sevice.webhook.WebhookStatusCoalescer;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public interface PaymentWebhookService {
     
     /**
      * Handle Stripe webhook
-     * @param payload Webhook payload
+     * @param payload Raw webhook body
      * @param signature Stripe signature
      */
-    void handleStripeWebhook(String payload, String signature);
+    void handleStripeWebhook(byte[] payload, String signature);
     
     /**
      * Handle PayPal webhook
-     * @param payload Webhook payload
+     * @param payload Raw webhook body
      * @param transmissionId PayPal transmission ID
+     * @param transmissionTime PayPal transmission time
+     * @param transmissionSig PayPal transmission signature
      */
-    void handlePayPalWebhook(String payload, String transmissionId);
+    void handlePayPalWebhook(byte[] payload, String transmissionId, String transmissionTime, String transmissionSig);
     
     /**
      * Handle generic payment webhook
-     * @param payload Webhook payload
+     * @param payload Raw webhook body
      * @param signature Webhook signature
      */
-    void handleGenericWebhook(String payload, String signature);
+    void handleGenericWebhook(byte[] payload, String signature);
+
+    /**
+     * Accept a webhook: verify its signature, then append it to the webhook journal and return once it
+     * is on disk when the journal is enabled, otherwise apply it right away
+     * @param source Gateway
+     * @param payload Raw webhook body
+     * @param headers Signature headers of the gateway
+     * @throws vn.chiendt.skilio.sevice.webhook.WebhookSignatureVerifier.InvalidSignatureException if the
+     *         signature is missing, too old or invalid
+     */
+    void receiveWebhook(WebhookSource source, byte[] payload, Map<String, String> headers);
+
+    /**
+     * Apply a webhook of any gateway whose signature was verified when it was received
+     * @param source Gateway
+     * @param payload Raw webhook body
+     */
+    void handleWebhook(WebhookSource source, byte[] payload);
+
+    /**
+     * Queue the status update of a verified webhook without waiting for it to be applied.
+     * Updates are applied in the order they were submitted.
+     * @param source Gateway
+     * @param payload Raw webhook body
+     * @return Completed once the update is committed; with null right away if the event changes nothing
+     */
+    CompletableFuture<WebhookStatusCoalescer.Result> submitWebhook(WebhookSource source, byte[] payload);
     
     /**
      * Process payment success event
+     * @param eventId Gateway event ID, used to drop redeliveries
      * @param transactionId Transaction ID
      * @param gatewayProvider Gateway provider
      */
-    void processPaymentSuccess(String transactionId, String gatewayProvider);
+    void processPaymentSuccess(String eventId, String transactionId, String gatewayProvider);
     
     /**
      * Process payment failure event
+     * @param eventId Gateway event ID, used to drop redeliveries
      * @param transactionId Transaction ID
      * @param gatewayProvider Gateway provider
+     * @param declineCode Gateway decline code, null if the event has none
      * @param errorMessage Error message
      */
-    void processPaymentFailure(String transactionId, String gatewayProvider, String errorMessage);
+    void processPaymentFailure(String eventId, String transactionId, String gatewayProvider, String declineCode,
+                               String errorMessage);
     
     /**
      * Process refund event
+     * @param eventId Gateway event ID, used to drop redeliveries
      * @param transactionId Transaction ID
      * @param gatewayProvider Gateway provider
      * @param refundAmount Refund amount
      */
-    void processRefund(String transactionId, String gatewayProvider, String refundAmount);
+    void processRefund(String eventId, String transactionId, String gatewayProvider, String refundAmount);
 }
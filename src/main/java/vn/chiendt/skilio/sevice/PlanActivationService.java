@@ -0,0 +1,17 @@
+package vn.chiendt.skilio.sevice;
+
+import java.time.LocalDateTime;
+
+public interface PlanActivationService {
+
+    /**
+     * Activate a PENDING plan whose first installment was just charged, in the caller's transaction:
+     * the plan becomes ACTIVE, leaves the plan cache, PLAN_ACTIVATED is written to the outbox
+     * and installment #2 is scheduled. Call it from every path that marks the first installment SUCCESS.
+     * @param planId Plan ID
+     * @param firstChargeId Payment reference of the first charge
+     * @param approvedAt Approval time
+     * @return true if the plan was activated, false if it was no longer PENDING
+     */
+    boolean activate(String planId, String firstChargeId, LocalDateTime approvedAt);
+}
@@ -22,9 +22,10 @@ public interface RetryService {
     
     /**
      * Get transactions that need retry
-     * @return List of transaction IDs that need retry
+     * @param limit Maximum number of IDs returned
+     * @return IDs of transactions due for retry, earliest first
      */
-    List<String> getTransactionsNeedingRetry();
+    List<String> getTransactionsNeedingRetry(int limit);
     
     /**
      * Cancel retry for transaction
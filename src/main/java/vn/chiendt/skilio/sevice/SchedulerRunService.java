@@ -0,0 +1,47 @@
+package vn.chiendt.skilio.sevice;
+
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.domain.dto.SchedulerRunDto;
+import vn.chiendt.skilio.entity.SchedulerRun;
+
+import java.util.List;
+
+public interface SchedulerRunService {
+
+    /**
+     * Start a run, or resume it from its last checkpoint if it was interrupted
+     * @param runType Run type
+     * @param runKey Run key (job key of the job running it)
+     * @param owner Instance running it
+     * @return The run, status COMPLETED if it already finished (nothing to do)
+     */
+    SchedulerRun begin(JobType runType, String runKey, String owner);
+
+    /**
+     * Store the cursor and counters of a run. Joins the caller's transaction, so the checkpoint
+     * is committed together with the work of the batch.
+     * @param run Run with its cursor and counters advanced
+     */
+    void checkpoint(SchedulerRun run);
+
+    /**
+     * Mark a run COMPLETED
+     * @param run Run
+     */
+    void complete(SchedulerRun run);
+
+    /**
+     * Mark a run FAILED, it resumes from its checkpoint on the next attempt
+     * @param run Run
+     * @param error Error message
+     */
+    void fail(SchedulerRun run, String error);
+
+    /**
+     * Get the latest runs, newest first
+     * @param runType Run type, null for all
+     * @param limit Maximum number of runs
+     * @return Runs
+     */
+    List<SchedulerRunDto> getRecentRuns(JobType runType, int limit);
+}
@@ -0,0 +1,91 @@
+package vn.chiendt.skilio.sevice.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+import vn.chiendt.skilio.domain.dto.PaylaterPlanDto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache of PayLater plans keyed by plan ID, with a strong ETag per entry.
+ * Hit/miss/eviction metrics are published as cache.* meters with cache=paylaterPlans.
+ */
+@Slf4j
+@Component
+public class PaylaterPlanCache {
+
+    private static final String CACHE_NAME = "paylaterPlans";
+
+    private final Cache<String, CachedPlan> cache;
+    private final Counter invalidations;
+
+    public PaylaterPlanCache(MeterRegistry meterRegistry,
+                             @Value("${paylater.plan-cache.max-size}") long maxSize,
+                             @Value("${paylater.plan-cache.ttl}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        this.invalidations = Counter.builder("paylater.plan.cache.invalidations")
+                .description("Plan cache entries evicted because the plan changed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Get a plan from the cache, loading it on a miss
+     * @param planId Plan ID
+     * @param loader Loads the plan from the database, returns null if it does not exist
+     * @return Cached plan, null if the plan does not exist (not cached)
+     */
+    public CachedPlan get(String planId, Function<String, PaylaterPlanDto> loader) {
+        return cache.get(planId, id -> {
+            PaylaterPlanDto plan = loader.apply(id);
+            return plan == null ? null : new CachedPlan(plan, computeETag(plan));
+        });
+    }
+
+    /**
+     * Evict a plan now and again after the surrounding transaction commits,
+     * so a read racing with the update cannot put the old state back
+     * @param planId Plan ID
+     */
+    public void evict(String planId) {
+        cache.invalidate(planId);
+        invalidations.increment();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidate(planId);
+                }
+            });
+        }
+        log.debug("Evicted PayLater plan {} from cache", planId);
+    }
+
+    private String computeETag(PaylaterPlanDto plan) {
+        String state = plan.getId() + '|' + plan.getStatus() + '|' + plan.getPrincipalAmount() + '|'
+                + plan.getCurrency() + '|' + plan.getInstallmentsTotal() + '|' + plan.getApprovedAt();
+        return "\"" + DigestUtils.md5DigestAsHex(state.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * Plan with the strong ETag of its current state
+     */
+    public record CachedPlan(PaylaterPlanDto plan, String eTag) {
+    }
+}
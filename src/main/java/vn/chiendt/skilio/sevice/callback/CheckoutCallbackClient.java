@@ -0,0 +1,66 @@
+package vn.chiendt.skilio.sevice.callback;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import vn.chiendt.skilio.domain.dto.CheckoutStatusDto;
+
+import java.net.URI;
+import java.util.Set;
+
+/**
+ * Posts the final checkout status to the callback URL given by the caller of an async checkout
+ */
+@Slf4j
+@Component
+public class CheckoutCallbackClient {
+
+    private final RestClient restClient;
+    private final Set<String> allowedHosts;
+
+    public CheckoutCallbackClient(@Value("${paylater.checkout.callback.allowed-hosts}") Set<String> allowedHosts,
+                                  @Value("${paylater.checkout.callback.timeout-ms}") int timeoutMs) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+        this.restClient = RestClient.builder().requestFactory(requestFactory).build();
+        this.allowedHosts = allowedHosts;
+    }
+
+    /**
+     * Check the callback URL points to one of the configured hosts
+     * @param callbackUrl Callback URL
+     * @return True if the URL may be called
+     */
+    public boolean isAllowed(String callbackUrl) {
+        try {
+            URI uri = URI.create(callbackUrl);
+            String scheme = uri.getScheme();
+            return ("http".equals(scheme) || "https".equals(scheme)) && allowedHosts.contains(uri.getHost());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Notify the caller of the checkout outcome, failures are logged and not retried
+     * @param callbackUrl Callback URL
+     * @param status Checkout status
+     */
+    public void notify(String callbackUrl, CheckoutStatusDto status) {
+        try {
+            restClient.post()
+                    .uri(callbackUrl)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(status)
+                    .retrieve()
+                    .toBodilessEntity();
+            log.info("Checkout callback sent for planId: {} to {}", status.getPlanId(), callbackUrl);
+        } catch (Exception e) {
+            log.error("Checkout callback failed for planId: {} to {}", status.getPlanId(), callbackUrl, e);
+        }
+    }
+}
@@ -1,7 +1,20 @@
 package vn.chiendt.skilio.sevice.feign;
 
 import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import vn.chiendt.skilio.sevice.PaymentService;
+
+import java.math.BigDecimal;
 
 @FeignClient(name = "payment-service", url = "${url.payment-service}")
-public interface PaymentServiceFeignClient {
+public interface PaymentServiceFeignClient extends PaymentService {
+
+    @Override
+    @PostMapping("/api/payments/charge")
+    PaymentResult charge(@RequestParam("amount") BigDecimal amount,
+                         @RequestParam("paymentMethodId") String paymentMethodId,
+                         @RequestParam("currency") String currency,
+                         @RequestHeader("Idempotency-Key") String idempotencyKey);
 }
@@ -0,0 +1,197 @@
+package vn.chiendt.skilio.sevice.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.ChargeOutcome;
+import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
+import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.entity.Installment;
+import vn.chiendt.skilio.entity.InstallmentTransactions;
+import vn.chiendt.skilio.entity.PaylaterPlans;
+import vn.chiendt.skilio.repository.InstallmentRepository;
+import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.InstallmentChargeService;
+import vn.chiendt.skilio.sevice.OutboxService;
+import vn.chiendt.skilio.sevice.PaymentService;
+import vn.chiendt.skilio.sevice.scheduler.RetryClassifier;
+
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class InstallmentChargeServiceImpl implements InstallmentChargeService {
+
+    // Installment đã được trả hoặc đang được charge thì không tạo transaction mới
+    private static final Set<TransactionStatus> SETTLED_OR_IN_PROGRESS =
+            EnumSet.of(TransactionStatus.SUCCESS, TransactionStatus.PENDING);
+    private static final Set<PaylaterStatus> CHARGEABLE_PLAN_STATUSES =
+            EnumSet.of(PaylaterStatus.ACTIVE, PaylaterStatus.PARTIALLY_PAID);
+
+    private final InstallmentRepository installmentRepository;
+    private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final PaylaterPlansRepository paylaterPlansRepository;
+    private final PaymentService paymentService;
+    private final TransactionTemplate transactionTemplate;
+    private final OutboxService outboxService;
+    private final RetryClassifier retryClassifier;
+
+    @Override
+    public InstallmentTransactions prepareCharge(String installmentId) {
+        return transactionTemplate.execute(status -> {
+            Installment installment = installmentRepository.findById(installmentId).orElse(null);
+            if (installment == null) {
+                log.warn("Installment not found: {}", installmentId);
+                return null;
+            }
+            if (installmentTransactionsRepository.existsByInstallmentIdAndStatusIn(installmentId, SETTLED_OR_IN_PROGRESS)) {
+                log.debug("Installment {} already paid or being charged, skipping", installmentId);
+                return null;
+            }
+            PaylaterPlans plan = paylaterPlansRepository.findById(installment.getPlanId()).orElse(null);
+            if (plan == null || !CHARGEABLE_PLAN_STATUSES.contains(plan.getStatus())) {
+                log.info("Plan of installment {} is not active, skipping", installmentId);
+                return null;
+            }
+            // Charge bằng phương thức thanh toán mà khách đã dùng cho installment #1
+            List<InstallmentTransactions> firstCharges = installmentTransactionsRepository
+                    .findFirstInstallmentTransactions(plan.getId(), PageRequest.of(0, 1));
+            if (firstCharges.isEmpty()) {
+                log.warn("Plan {} has no first installment charge, installment {} not charged",
+                        plan.getId(), installmentId);
+                return null;
+            }
+            return installmentTransactionsRepository.save(createTransaction(installment, firstCharges.get(0)));
+        });
+    }
+
+    @Override
+    public ChargeOutcome charge(InstallmentTransactions transaction) {
+        PaymentService.PaymentResult chargeResult;
+        try {
+            chargeResult = paymentService.charge(
+                    transaction.getAmount(),
+                    transaction.getPaymentMethodId(),
+                    transaction.getInstallment().getCurrency(),
+                    PaymentService.idempotencyKey(transaction.getId(), transaction.getAttemptNumber()));
+        } catch (Exception e) {
+            // Timeout / 5xx: gateway có thể đã charge, retry phải dùng lại idempotency key của lần này
+            log.error("Payment processing failed for transaction: {}", transaction.getId(), e);
+            deferUnknownOutcome(transaction);
+            return ChargeOutcome.GATEWAY_ERROR;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        TransactionStatus newStatus = chargeResult.isSuccess() ? TransactionStatus.SUCCESS : TransactionStatus.FAILED;
+        String message = chargeResult.isSuccess()
+                ? "Installment charged by scheduler"
+                : "Scheduled charge failed: " + chargeResult.getErrorMessage();
+        // Hard decline không bao giờ được retry, thiếu tiền thì retry vào ngày nhận lương
+        RetryClassifier.Decision decision = chargeResult.isSuccess() ? null
+                : retryClassifier.decide(chargeResult.getErrorCode(), transaction.getAttemptNumber(), now);
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                int updated = installmentTransactionsRepository.completePendingTransaction(transaction.getId(),
+                        newStatus, chargeResult.getTransactionId(), chargeResult.isSuccess() ? now : null, message,
+                        decision == null ? null : decision.declineCode(),
+                        decision == null ? null : decision.category(),
+                        decision == null ? null : decision.nextRetryAt(), now);
+                if (updated == 0) {
+                    log.warn("Transaction {} is no longer PENDING, status {} not applied", transaction.getId(),
+                            newStatus);
+                    return;
+                }
+                outboxService.append(PlanLifecycleMessage.builder()
+                        .eventType(chargeResult.isSuccess()
+                                ? PlanEventType.TRANSACTION_SUCCEEDED : PlanEventType.TRANSACTION_FAILED)
+                        .planId(transaction.getInstallment().getPlanId())
+                        .transactionId(transaction.getId())
+                        .status(newStatus.name())
+                        .paymentRef(chargeResult.getTransactionId())
+                        .amount(transaction.getAmount())
+                        .currency(transaction.getInstallment().getCurrency())
+                        .message(message)
+                        .occurredAt(now)
+                        .build());
+            });
+        } catch (RuntimeException e) {
+            // Khách đã bị charge: giữ payment reference để webhook hoặc pending sweep hoàn tất transaction
+            recordPaymentRef(transaction, chargeResult);
+            throw e;
+        }
+
+        log.info("Installment {} charge {}: transaction {}", transaction.getInstallment().getId(),
+                newStatus, transaction.getId());
+        return chargeResult.isSuccess() ? ChargeOutcome.SUCCEEDED : ChargeOutcome.DECLINED;
+    }
+
+    @Override
+    public void defer(InstallmentTransactions transaction, LocalDateTime retryAt) {
+        Integer updated = transactionTemplate.execute(status -> installmentTransactionsRepository.deferPendingTransaction(
+                transaction.getId(), "Charge deferred, gateway " + transaction.getGatewayProvider() + " unavailable",
+                retryAt, LocalDateTime.now()));
+        if (updated == null || updated == 0) {
+            log.warn("Transaction {} is no longer PENDING, not deferred", transaction.getId());
+            return;
+        }
+        log.info("Installment {} charge deferred to {}: transaction {}", transaction.getInstallment().getId(),
+                retryAt, transaction.getId());
+    }
+
+    /**
+     * Hand a charge whose gateway call failed without an answer to the retry path without counting the
+     * attempt, so the retry sends the same idempotency key and cannot charge the customer twice
+     */
+    private void deferUnknownOutcome(InstallmentTransactions transaction) {
+        LocalDateTime now = LocalDateTime.now();
+        RetryClassifier.Decision decision = retryClassifier.decide(null, transaction.getAttemptNumber(), now);
+        try {
+            Integer updated = transactionTemplate.execute(status -> installmentTransactionsRepository
+                    .deferPendingTransaction(transaction.getId(),
+                            "Scheduled charge outcome unknown, retrying the same charge", decision.nextRetryAt(), now));
+            if (updated == null || updated == 0) {
+                log.warn("Transaction {} is no longer PENDING, not deferred", transaction.getId());
+            }
+        } catch (Exception e) {
+            log.error("Error deferring transaction {} after a gateway error", transaction.getId(), e);
+        }
+    }
+
+    /**
+     * Keep the gateway reference of a successful charge whose completion failed on the PENDING transaction,
+     * so a webhook or the pending sweep can complete it later
+     */
+    private void recordPaymentRef(InstallmentTransactions transaction, PaymentService.PaymentResult result) {
+        if (!result.isSuccess() || result.getTransactionId() == null) {
+            return;
+        }
+        try {
+            transactionTemplate.execute(status -> installmentTransactionsRepository.recordPendingPaymentRef(
+                    transaction.getId(), result.getTransactionId(), LocalDateTime.now()));
+        } catch (Exception e) {
+            log.error("Error recording payment reference {} for transaction {}", result.getTransactionId(),
+                    transaction.getId(), e);
+        }
+    }
+
+    private InstallmentTransactions createTransaction(Installment installment, InstallmentTransactions firstCharge) {
+        return InstallmentTransactions.builder()
+                .installment(installment)
+                .attemptNumber(1)
+                .status(TransactionStatus.PENDING)
+                .amount(installment.getPlannedAmount())
+                .paymentMethodId(firstCharge.getPaymentMethodId())
+                .gatewayProvider(firstCharge.getGatewayProvider())
+                .build();
+    }
+}
@@ -0,0 +1,116 @@
+package vn.chiendt.skilio.sevice.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import vn.chiendt.skilio.config.InstallmentScheduleProperties;
+import vn.chiendt.skilio.constant.Currency;
+import vn.chiendt.skilio.entity.Installment;
+import vn.chiendt.skilio.entity.PaylaterPlans;
+import vn.chiendt.skilio.sevice.InstallmentScheduleService;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class InstallmentScheduleServiceImpl implements InstallmentScheduleService {
+
+    // Số chữ số thập phân của từng loại tiền (JPY, VND: 0; USD, EUR: 2)
+    private static final Map<Currency, Integer> CURRENCY_SCALES = new EnumMap<>(Currency.class);
+
+    static {
+        for (Currency currency : Currency.values()) {
+            CURRENCY_SCALES.put(currency, java.util.Currency.getInstance(currency.name()).getDefaultFractionDigits());
+        }
+    }
+
+    private final InstallmentScheduleProperties properties;
+    private final ConcurrentMap<String, ScheduleTemplate> compiledTemplates = new ConcurrentHashMap<>();
+
+    @Override
+    public ScheduleTemplate resolveTemplate(String productCode, Integer installmentsTotal) {
+        String code = productCode == null ? properties.getDefaultTemplate() : productCode;
+        InstallmentScheduleProperties.Template template = properties.getTemplates().get(code);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown PayLater product: " + code);
+        }
+
+        int count = template.getCount();
+        if (installmentsTotal != null) {
+            if (installmentsTotal < properties.getMinInstallments() || installmentsTotal > properties.getMaxInstallments()) {
+                throw new IllegalArgumentException("Unsupported number of installments: " + installmentsTotal);
+            }
+            count = installmentsTotal;
+        }
+
+        int installmentCount = count;
+        return compiledTemplates.computeIfAbsent(code + ':' + count, key -> compile(code, template, installmentCount));
+    }
+
+    @Override
+    public List<Installment> buildInstallments(PaylaterPlans plan, ScheduleTemplate template, LocalDateTime startDate) {
+        // Chia theo đơn vị nhỏ nhất của tiền tệ (cent) để không mất phần dư khi làm tròn
+        int scale = CURRENCY_SCALES.get(plan.getCurrency());
+        long total = plan.getPrincipalAmount().setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+
+        int count = template.count();
+        long downPayment = total * template.downPaymentBasisPoints() / 10_000;
+        int evenParts = downPayment > 0 ? count - 1 : count;
+        long rest = total - downPayment;
+        long part = rest / evenParts;
+
+        List<Installment> installments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long amount;
+            if (i == 0 && downPayment > 0) {
+                amount = downPayment;
+            } else if (i == count - 1) {
+                // Installment cuối nhận phần dư
+                amount = rest - part * (evenParts - 1);
+            } else {
+                amount = part;
+            }
+
+            installments.add(Installment.builder()
+                    .planId(plan.getId())
+                    .installmentNumber(i + 1)
+                    .dueDate(startDate.plus(template.dueOffsets()[i]))
+                    .plannedAmount(BigDecimal.valueOf(amount, scale))
+                    .currency(plan.getCurrency().name())
+                    .createdAt(startDate)
+                    .updatedAt(startDate)
+                    .build());
+        }
+        return installments;
+    }
+
+    private ScheduleTemplate compile(String productCode, InstallmentScheduleProperties.Template template, int count) {
+        int downPaymentBasisPoints = template.getDownPaymentPercent().movePointRight(2).intValueExact();
+        if (downPaymentBasisPoints < 0 || downPaymentBasisPoints >= 10_000) {
+            throw new IllegalStateException("Invalid down payment percent for PayLater product: " + productCode);
+        }
+        if (count < 1 || (downPaymentBasisPoints > 0 && count < 2)) {
+            throw new IllegalStateException("Invalid installment count for PayLater product: " + productCode);
+        }
+
+        // Offsets tính từ ngày bắt đầu (interval * k) để tránh lệch ngày khi cộng tháng liên tiếp
+        Period[] dueOffsets = new Period[count];
+        for (int i = 0; i < count; i++) {
+            dueOffsets[i] = template.getInterval().multipliedBy(i);
+        }
+
+        log.info("Compiled PayLater schedule template {}: {} installments every {}, down payment {}%",
+                productCode, count, template.getInterval(), template.getDownPaymentPercent());
+        return new ScheduleTemplate(productCode, count, dueOffsets, downPaymentBasisPoints);
+    }
+}
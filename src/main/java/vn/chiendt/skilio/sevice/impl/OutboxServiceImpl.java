@@ -0,0 +1,48 @@
+package vn.chiendt.skilio.sevice.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.entity.OutboxEvent;
+import vn.chiendt.skilio.repository.OutboxEventRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
+
+import java.time.LocalDateTime;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboxServiceImpl implements OutboxService {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(PlanLifecycleMessage message) {
+        if (message.getOccurredAt() == null) {
+            message.setOccurredAt(LocalDateTime.now());
+        }
+
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing {} event for plan: {}", message.getEventType(), message.getPlanId(), e);
+            throw new RuntimeException("Failed to serialize plan event", e);
+        }
+
+        outboxEventRepository.save(OutboxEvent.builder()
+                .aggregateId(message.getPlanId())
+                .eventType(message.getEventType())
+                .payload(payload)
+                .createdAt(message.getOccurredAt())
+                .build());
+        log.debug("Queued {} event for plan {}", message.getEventType(), message.getPlanId());
+    }
+}
@@ -3,15 +3,23 @@ package vn.chiendt.skilio.sevice.impl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
 import vn.chiendt.skilio.domain.dto.PaylaterPlanDto;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
 import vn.chiendt.skilio.entity.Installment;
 import vn.chiendt.skilio.entity.InstallmentTransactions;
 import vn.chiendt.skilio.entity.PaylaterPlans;
 import vn.chiendt.skilio.repository.InstallmentRepository;
 import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
 import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
 import vn.chiendt.skilio.sevice.PayLaterPlanManagementService;
+import vn.chiendt.skilio.sevice.PayLaterSchedulerService;
+import vn.chiendt.skilio.sevice.RetryService;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
+import vn.chiendt.skilio.sevice.scheduler.OverdueTracker;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -28,6 +36,11 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
     private final PaylaterPlansRepository paylaterPlansRepository;
     private final InstallmentRepository installmentRepository;
     private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final PaylaterPlanCache paylaterPlanCache;
+    private final OutboxService outboxService;
+    private final OverdueTracker overdueTracker;
+    private final PayLaterSchedulerService payLaterSchedulerService;
+    private final RetryService retryService;
 
     @Override
     public List<PaylaterPlanDto> getUserPayLaterPlans(Long userId) {
@@ -72,6 +85,7 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
     }
 
     @Override
+    @Transactional
     public boolean cancelPayLaterPlan(String planId, String reason) {
         log.info("Canceling PayLater plan: {} reason: {}", planId, reason);
         
@@ -100,11 +114,24 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
             plan.setStatus(PaylaterStatus.CANCELLED);
             plan.setCanceledAt(LocalDateTime.now());
             
-            // TODO: Cancel any scheduled payments
+            // Hủy timer charge / retry và các lượt retry còn lại của plan
+            cancelScheduledCharges(planId);
+            
             // TODO: Process refunds if applicable
             // TODO: Send notification
             
             paylaterPlansRepository.save(plan);
+            outboxService.append(PlanLifecycleMessage.builder()
+                    .eventType(PlanEventType.PLAN_CANCELLED)
+                    .planId(planId)
+                    .orderId(plan.getOrderId())
+                    .userId(plan.getUserId())
+                    .status(plan.getStatus().name())
+                    .message(reason)
+                    .occurredAt(plan.getCanceledAt())
+                    .build());
+            paylaterPlanCache.evict(planId);
+            overdueTracker.removePlan(planId);
             
             log.info("PayLater plan cancelled successfully: {}", planId);
             return true;
@@ -115,6 +142,17 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
         }
     }
 
+    private void cancelScheduledCharges(String planId) {
+        for (Installment installment : installmentRepository.findByPlanId(planId)) {
+            payLaterSchedulerService.cancelScheduledPayment(installment.getId());
+        }
+        for (String transactionId : installmentTransactionsRepository.findRetryScheduledIdsByPlanId(planId)) {
+            retryService.cancelRetry(transactionId);
+        }
+        int retries = installmentTransactionsRepository.cancelPlanRetries(planId, LocalDateTime.now());
+        log.info("Cancelled scheduled charges and {} pending retries of plan {}", retries, planId);
+    }
+
     @Override
     public boolean pausePayLaterPlan(String planId, String reason) {
         log.info("Pausing PayLater plan: {} reason: {}", planId, reason);
@@ -234,7 +272,7 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
             PayLaterPlanSummary summary = new PayLaterPlanSummary();
             summary.setPlanId(planId);
             summary.setStatus(plan.getStatus().name());
-            summary.setTotalAmount(plan.getPrincipalAmount());
+            summary.setTotalAmount(plan.getPrincipalAmount().toString());
             summary.setTotalInstallments(plan.getInstallmentsTotal());
             
             // Calculate paid amount and installments
@@ -255,7 +293,7 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
             summary.setPaidInstallments(paidInstallments);
             summary.setRemainingInstallments(plan.getInstallmentsTotal() - paidInstallments);
             
-            BigDecimal remainingAmount = new BigDecimal(plan.getPrincipalAmount()).subtract(paidAmount);
+            BigDecimal remainingAmount = plan.getPrincipalAmount().subtract(paidAmount);
             summary.setRemainingAmount(remainingAmount.toString());
             
             // Find next due date and amount
@@ -288,6 +326,7 @@ public class PayLaterPlanManagementServiceImpl implements PayLaterPlanManagement
                 .currency(plan.getCurrency().name())
                 .status(plan.getStatus().name())
                 .installmentsTotal(plan.getInstallmentsTotal())
+                .productCode(plan.getProductCode())
                 .creationDate(plan.getCreationDate())
                 .approvedAt(plan.getApprovedAt())
                 .build();
@@ -1,21 +1,40 @@
 package vn.chiendt.skilio.sevice.impl;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import vn.chiendt.skilio.constant.TransactionStatus;
-import vn.chiendt.skilio.entity.Installment;
-import vn.chiendt.skilio.entity.InstallmentTransactions;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.config.ChargeDispatcherProperties;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.constant.RunStatus;
+import vn.chiendt.skilio.domain.dto.DueInstallmentKey;
+import vn.chiendt.skilio.domain.dto.RetryKey;
+import vn.chiendt.skilio.entity.ScheduledJob;
+import vn.chiendt.skilio.entity.SchedulerRun;
 import vn.chiendt.skilio.repository.InstallmentRepository;
 import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
 import vn.chiendt.skilio.sevice.PayLaterSchedulerService;
-import vn.chiendt.skilio.sevice.PaymentService;
+import vn.chiendt.skilio.sevice.RetryService;
+import vn.chiendt.skilio.sevice.SchedulerRunService;
+import vn.chiendt.skilio.sevice.scheduler.ChargeDispatcher;
+import vn.chiendt.skilio.sevice.scheduler.DurableTimerService;
+import vn.chiendt.skilio.sevice.scheduler.JobQueue;
+import vn.chiendt.skilio.sevice.scheduler.OverdueTracker;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -24,188 +43,282 @@ public class PayLaterSchedulerServiceImpl implements PayLaterSchedulerService {
 
     private final InstallmentRepository installmentRepository;
     private final InstallmentTransactionsRepository installmentTransactionsRepository;
-    private final PaymentService paymentService;
+    private final RetryService retryService;
+    private final ChargeDispatcher chargeDispatcher;
+    private final JobQueue jobQueue;
+    private final DurableTimerService durableTimerService;
+    private final OverdueTracker overdueTracker;
+    private final ChargeDispatcherProperties chargeDispatcherProperties;
+    private final SchedulerRunService schedulerRunService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${paylater.scheduler.scan-page-size}")
+    private int scanPageSize;
+
+    @Value("${paylater.jobs.charge-claim-size}")
+    private int chargeClaimSize;
+
+    @Value("${paylater.jobs.retry-delay}")
+    private Duration jobRetryDelay;
+
+    @PostConstruct
+    void registerTimerHandlers() {
+        durableTimerService.registerHandler(JobType.INSTALLMENT_DUE, this::chargeJobs);
+    }
 
     @Override
-    public void scheduleNextInstallment(String installmentId, LocalDateTime dueDate) {
-        log.info("Scheduling next installment: {} for date: {}", installmentId, dueDate);
-        
-        // TODO: Implement actual scheduling mechanism
-        // This could use Spring's @Scheduled, Quartz, or a message queue
-        
-        // For now, just log the scheduling
-        log.info("Installment {} scheduled for {}", installmentId, dueDate);
+    public void scheduleNextInstallment(String installmentId, String planId, LocalDateTime dueDate) {
+        // Cùng job key với daily run nên một installment chỉ bị charge một lần trong ngày đến hạn
+        if (durableTimerService.schedule(JobType.INSTALLMENT_DUE, "charge:" + installmentId + ":" + dueDate.toLocalDate(),
+                installmentId, planId, dueDate)) {
+            log.info("Installment {} scheduled for {}", installmentId, dueDate);
+        }
     }
 
     @Override
     public void scheduleRetry(String transactionId, LocalDateTime retryAfter) {
-        log.info("Scheduling retry for transaction: {} at {}", transactionId, retryAfter);
-        
-        // TODO: Implement actual retry scheduling mechanism
-        // This could use Spring's @Scheduled, Quartz, or a message queue
-        
-        // For now, just log the retry scheduling
-        log.info("Retry scheduled for transaction {} at {}", transactionId, retryAfter);
+        if (durableTimerService.schedule(JobType.TRANSACTION_RETRY, "retry:" + transactionId + ":" + retryAfter,
+                transactionId, null, retryAfter)) {
+            log.info("Retry scheduled for transaction {} at {}", transactionId, retryAfter);
+        }
     }
 
     @Override
     @Scheduled(cron = "0 0 9 * * ?") // Run daily at 9 AM
     public void processScheduledPayments() {
-        log.info("Processing scheduled payments...");
-        
+        // Mọi replica đều chạy cron này, job key theo ngày nên chỉ có một job được tạo
+        LocalDate today = LocalDate.now();
         try {
-            List<String> dueToday = getPaymentsDueToday();
-            log.info("Found {} payments due today", dueToday.size());
-            
-            for (String installmentId : dueToday) {
-                processInstallmentPayment(installmentId);
+            if (jobQueue.enqueue(JobType.DAILY_CHARGE_RUN, "daily-charge:" + today, today.toString(), null,
+                    LocalDateTime.now())) {
+                log.info("Queued scheduled payments run for {}", today);
             }
-            
         } catch (Exception e) {
-            log.error("Error processing scheduled payments", e);
+            log.error("Error queueing scheduled payments run for {}", today, e);
         }
     }
 
     @Override
     @Scheduled(cron = "0 */30 * * * ?") // Run every 30 minutes
     public void processRetryPayments() {
-        log.info("Processing retry payments...");
-        
+        LocalDateTime slot = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
         try {
-            List<InstallmentTransactions> retryTransactions = 
-                installmentTransactionsRepository.findTransactionsNeedingRetry(3);
-            
-            log.info("Found {} transactions needing retry", retryTransactions.size());
-            
-            for (InstallmentTransactions transaction : retryTransactions) {
-                processRetryTransaction(transaction);
+            if (jobQueue.enqueue(JobType.RETRY_RUN, "retry-run:" + slot, slot.toString(), null, LocalDateTime.now())) {
+                log.info("Queued retry payments run for {}", slot);
             }
-            
         } catch (Exception e) {
-            log.error("Error processing retry payments", e);
+            log.error("Error queueing retry payments run for {}", slot, e);
         }
     }
 
     @Override
-    public void cancelScheduledPayment(String installmentId) {
-        log.info("Canceling scheduled payment for installment: {}", installmentId);
-        
-        // TODO: Implement actual cancellation mechanism
-        // This could involve updating a scheduling table or canceling a scheduled job
-        
-        log.info("Scheduled payment canceled for installment: {}", installmentId);
+    @Scheduled(fixedDelayString = "${paylater.jobs.poll-interval-ms}")
+    public void processJobs() {
+        try {
+            for (ScheduledJob job : jobQueue.claim(JobType.DAILY_CHARGE_RUN, 1)) {
+                runJob(job, () -> queueDueInstallments(job));
+            }
+            for (ScheduledJob job : jobQueue.claim(JobType.RETRY_RUN, 1)) {
+                runJob(job, () -> runRetryPayments(job));
+            }
+            processChargeJobs();
+        } catch (Exception e) {
+            log.error("Error processing scheduled jobs", e);
+        }
     }
 
-    @Override
-    public List<String> getPaymentsDueToday() {
-        LocalDateTime startOfDay = LocalDateTime.now().withHour(0).withMinute(0).withSecond(0);
-        LocalDateTime endOfDay = LocalDateTime.now().withHour(23).withMinute(59).withSecond(59);
-        
-        // TODO: Query database for installments due today
-        // List<Installment> dueToday = installmentRepository.findByDueDateBetween(startOfDay, endOfDay);
-        
-        // For now, return empty list
-        return new ArrayList<>();
+    private void runJob(ScheduledJob job, Runnable work) {
+        log.info("Running {} job {} (attempt {})", job.getJobType(), job.getJobKey(), job.getAttempts());
+        try {
+            work.run();
+            jobQueue.complete(List.of(job));
+        } catch (Exception e) {
+            log.error("Error running {} job {}", job.getJobType(), job.getJobKey(), e);
+            jobQueue.fail(job, e.getMessage(), jobRetryDelay);
+        }
     }
 
-    @Override
-    public List<String> getOverduePayments() {
+    private void queueDueInstallments(ScheduledJob job) {
+        LocalDate dueDay = LocalDate.parse(job.getPayload());
+        SchedulerRun run = schedulerRunService.begin(JobType.DAILY_CHARGE_RUN, job.getJobKey(), jobQueue.getOwner());
+        if (run.getStatus() == RunStatus.COMPLETED) {
+            log.info("Scheduled payments run for {} already completed", dueDay);
+            return;
+        }
         LocalDateTime now = LocalDateTime.now();
-        
-        // TODO: Query database for overdue installments
-        // List<Installment> overdue = installmentRepository.findByDueDateBefore(now);
-        
-        // For now, return empty list
-        return new ArrayList<>();
+        DueInstallmentKey cursor = run.getCursorId() == null ? null
+                : new DueInstallmentKey(run.getCursorDueDate(), run.getCursorId(), null);
+
+        // Pod chết giữa chừng thì lần chạy sau tiếp tục sau cursor của checkpoint cuối cùng
+        try (Stream<DueInstallmentKey> dueInstallments =
+                     streamDueInstallments(dueDay.atStartOfDay(), dueDay.plusDays(1).atStartOfDay(), cursor)) {
+            List<JobQueue.JobRequest> batch = new ArrayList<>(scanPageSize);
+            DueInstallmentKey last = null;
+            for (DueInstallmentKey key : (Iterable<DueInstallmentKey>) dueInstallments::iterator) {
+                batch.add(new JobQueue.JobRequest("charge:" + key.id() + ":" + dueDay, key.id(), key.planId(),
+                        chargeRunAt(now)));
+                last = key;
+                if (batch.size() == scanPageSize) {
+                    flushChargeJobs(job, run, batch, last);
+                }
+            }
+            flushChargeJobs(job, run, batch, last);
+        } catch (RuntimeException e) {
+            schedulerRunService.fail(run, e.getMessage());
+            throw e;
+        }
+        schedulerRunService.complete(run);
+        log.info("Queued {} installment charges due {}", run.getProcessed(), dueDay);
     }
 
-    private void processInstallmentPayment(String installmentId) {
-        log.info("Processing payment for installment: {}", installmentId);
-        
-        try {
-            // TODO: Get installment from database
-            // Installment installment = installmentRepository.findById(installmentId).orElse(null);
-            // if (installment == null) {
-            //     log.warn("Installment not found: {}", installmentId);
-            //     return;
-            // }
-            
-            // TODO: Create new transaction
-            // InstallmentTransactions transaction = createTransaction(installment);
-            
-            // TODO: Process payment
-            // PaymentService.PaymentResult result = paymentService.charge(
-            //     transaction.getAmount(), 
-            //     transaction.getPaymentMethodId(), 
-            //     transaction.getInstallment().getCurrency()
-            // );
-            
-            // TODO: Update transaction status based on result
-            // if (result.isSuccess()) {
-            //     updateTransactionStatus(transaction.getId(), TransactionStatus.SUCCESS);
-            // } else {
-            //     updateTransactionStatus(transaction.getId(), TransactionStatus.FAILED);
-            //     scheduleRetry(transaction.getId(), LocalDateTime.now().plusHours(1));
-            // }
-            
-            log.info("Payment processed for installment: {}", installmentId);
-            
-        } catch (Exception e) {
-            log.error("Error processing payment for installment: {}", installmentId, e);
+    private LocalDateTime chargeRunAt(LocalDateTime runStart) {
+        if (!chargeDispatcherProperties.isShaped()) {
+            return runStart;
+        }
+        // Rải đều ngẫu nhiên trong cửa sổ thay vì dồn cả ngày vào 9h
+        long windowMs = chargeDispatcherProperties.getSpreadWindow().toMillis();
+        return windowMs > 0 ? runStart.plus(ThreadLocalRandom.current().nextLong(windowMs), ChronoUnit.MILLIS) : runStart;
+    }
+
+    private void flushChargeJobs(ScheduledJob job, SchedulerRun run, List<JobQueue.JobRequest> batch,
+                                 DueInstallmentKey last) {
+        if (batch.isEmpty()) {
+            return;
         }
+        // Charge job và checkpoint được commit cùng nhau
+        transactionTemplate.executeWithoutResult(status -> {
+            int added = jobQueue.enqueueAll(JobType.INSTALLMENT_CHARGE, batch);
+            run.setScanned(run.getScanned() + batch.size());
+            run.setProcessed(run.getProcessed() + added);
+            run.setCursorDueDate(last.dueDate());
+            run.setCursorId(last.id());
+            schedulerRunService.checkpoint(run);
+        });
+        batch.clear();
+        if (!jobQueue.extendLease(job)) {
+            throw new IllegalStateException("Lease lost while queueing installment charges");
+        }
+    }
+
+    private void processChargeJobs() {
+        // Mỗi replica claim một lô charge job, dispatcher charge song song theo shard
+        while (true) {
+            List<ScheduledJob> jobs = jobQueue.claim(JobType.INSTALLMENT_CHARGE, chargeClaimSize);
+            if (jobs.isEmpty()) {
+                return;
+            }
+            List<ScheduledJob> failed = chargeJobs(jobs);
+            // Charge lỗi (không phải decline) được trả lại queue để thử lại sau retry-delay
+            failed.forEach(job -> jobQueue.fail(job, "Installment charge failed", jobRetryDelay));
+            jobQueue.complete(failed.isEmpty() ? jobs : jobs.stream().filter(job -> !failed.contains(job)).toList());
+            if (jobs.size() < chargeClaimSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Charge the installments of leased jobs, extending their leases while the dispatcher runs
+     * @param jobs Leased INSTALLMENT_CHARGE or INSTALLMENT_DUE jobs
+     * @return Jobs whose charge ended in an error
+     */
+    private List<ScheduledJob> chargeJobs(List<ScheduledJob> jobs) {
+        ChargeDispatcher.RunSummary summary = chargeDispatcher.dispatch(jobs.stream()
+                        .map(job -> new DueInstallmentKey(job.getRunAt(), job.getPayload(), job.getShardKey())),
+                () -> jobQueue.extendLeases(jobs));
+        log.info("Processed {} installment charge jobs in {}, {} failed", summary.scanned(), summary.duration(),
+                summary.failedInstallments().size());
+        return jobs.stream().filter(job -> summary.failedInstallments().contains(job.getPayload())).toList();
     }
 
-    private void processRetryTransaction(InstallmentTransactions transaction) {
-        log.info("Processing retry for transaction: {}", transaction.getId());
-        
+    private void runRetryPayments(ScheduledJob job) {
+        log.info("Processing retry payments...");
+        SchedulerRun run = schedulerRunService.begin(JobType.RETRY_RUN, job.getJobKey(), jobQueue.getOwner());
+        if (run.getStatus() == RunStatus.COMPLETED) {
+            return;
+        }
+        Pageable page = PageRequest.of(0, scanPageSize);
+        LocalDateTime now = LocalDateTime.now();
+
         try {
-            // Increment attempt number
-            transaction.setAttemptNumber(transaction.getAttemptNumber() + 1);
-            
-            // Process payment
-            PaymentService.PaymentResult result = paymentService.charge(
-                transaction.getAmount(), 
-                transaction.getPaymentMethodId(), 
-                transaction.getInstallment().getCurrency()
-            );
-            
-            if (result.isSuccess()) {
-                transaction.setStatus(TransactionStatus.SUCCESS);
-                transaction.setChargedAt(LocalDateTime.now());
-                transaction.setPaymentRef(result.getTransactionId());
-                log.info("Retry successful for transaction: {}", transaction.getId());
-            } else {
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setMessage(result.getErrorMessage());
-                log.warn("Retry failed for transaction: {}", transaction.getId());
-                
-                // Schedule next retry if not exceeded max attempts
-                if (transaction.getAttemptNumber() < 3) {
-                    scheduleRetry(transaction.getId(), LocalDateTime.now().plusHours(2));
+            List<RetryKey> retryKeys;
+            do {
+                // Keyset trên (next_retry_at, id) chỉ đọc index; cursor lưu key của transaction cuối đã xử lý
+                retryKeys = run.getCursorId() == null
+                        ? installmentTransactionsRepository.findRetryKeysAfter(now, RetryKey.START.nextRetryAt(),
+                        RetryKey.START.id(), page)
+                        : installmentTransactionsRepository.findRetryKeysAfter(now, run.getCursorDueDate(),
+                        run.getCursorId(), page);
+                if (!retryKeys.isEmpty()) {
+                    RetryKey last = retryKeys.get(retryKeys.size() - 1);
+                    run.setCursorDueDate(last.nextRetryAt());
+                    run.setCursorId(last.id());
                 }
-            }
-            
-            // TODO: Save transaction to database
-            // installmentTransactionsRepository.save(transaction);
-            
-        } catch (Exception e) {
-            log.error("Error processing retry for transaction: {}", transaction.getId(), e);
+                for (RetryKey key : retryKeys) {
+                    processRetryTransaction(key.id());
+                }
+                if (!retryKeys.isEmpty()) {
+                    run.setScanned(run.getScanned() + retryKeys.size());
+                    run.setProcessed(run.getProcessed() + retryKeys.size());
+                    schedulerRunService.checkpoint(run);
+                    if (!jobQueue.extendLease(job)) {
+                        throw new IllegalStateException("Lease lost while processing retry payments");
+                    }
+                }
+            } while (retryKeys.size() == scanPageSize);
+        } catch (RuntimeException e) {
+            log.error("Error processing retry payments", e);
+            schedulerRunService.fail(run, e.getMessage());
+            throw e;
         }
+        schedulerRunService.complete(run);
+        log.info("Processed {} transactions needing retry", run.getProcessed());
+    }
+
+    @Override
+    public void cancelScheduledPayment(String installmentId) {
+        int cancelled = durableTimerService.cancel(JobType.INSTALLMENT_DUE, installmentId)
+                + jobQueue.cancel(JobType.INSTALLMENT_CHARGE, installmentId);
+        log.info("Canceled {} scheduled payments for installment: {}", cancelled, installmentId);
+    }
+
+    @Override
+    public Stream<String> streamPaymentsDueToday() {
+        LocalDate today = LocalDate.now();
+        return streamDueInstallments(today.atStartOfDay(), today.plusDays(1).atStartOfDay(), null)
+                .map(DueInstallmentKey::id);
     }
 
-    private InstallmentTransactions createTransaction(Installment installment) {
-        return InstallmentTransactions.builder()
-                .installment(installment)
-                .attemptNumber(1)
-                .status(TransactionStatus.PENDING)
-                .amount(installment.getPlannedAmount())
-                .paymentMethodId("default_payment_method") // TODO: Get from user preferences
-                .gatewayProvider("stripe") // TODO: Make configurable
-                .build();
+    private Stream<DueInstallmentKey> streamDueInstallments(LocalDateTime from, LocalDateTime to,
+                                                            DueInstallmentKey after) {
+        Pageable page = PageRequest.of(0, scanPageSize);
+        // Mỗi page là một query ngắn trên index (due_date, id), tiếp tục từ key cuối của page trước
+        return Stream.iterate(
+                        after == null
+                                ? installmentRepository.findFirstDueKeys(from, to, page)
+                                : installmentRepository.findDueKeysAfter(from, to, after.dueDate(), after.id(), page),
+                        keys -> !keys.isEmpty(),
+                        keys -> {
+                            if (keys.size() < scanPageSize) {
+                                return List.<DueInstallmentKey>of();
+                            }
+                            DueInstallmentKey last = keys.get(keys.size() - 1);
+                            return installmentRepository.findDueKeysAfter(from, to, last.dueDate(), last.id(), page);
+                        })
+                .flatMap(List::stream);
     }
 
-    private void updateTransactionStatus(String transactionId, TransactionStatus status) {
-        // TODO: Update transaction status in database
-        log.info("Updating transaction {} status to {}", transactionId, status);
+    @Override
+    public List<String> getOverduePayments() {
+        return overdueTracker.getOverdueInstallmentIds();
+    }
+
+    private void processRetryTransaction(String transactionId) {
+        // Cùng đường với timer và retry dispatcher: claim, circuit breaker của gateway, lưu kết quả
+        try {
+            retryService.processRetry(transactionId);
+        } catch (Exception e) {
+            log.error("Error processing retry for transaction: {}", transactionId, e);
+        }
     }
 }
@@ -1,71 +1,101 @@
 package vn.chiendt.skilio.sevice.impl;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import vn.chiendt.skilio.constant.Currency;
 import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
 import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.domain.dto.CheckoutResultDto;
+import vn.chiendt.skilio.domain.dto.CheckoutStatusDto;
 import vn.chiendt.skilio.domain.dto.PaylaterPlanCreation;
 import vn.chiendt.skilio.domain.dto.PaylaterPlanDto;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
 import vn.chiendt.skilio.entity.Installment;
 import vn.chiendt.skilio.entity.InstallmentTransactions;
 import vn.chiendt.skilio.entity.PaylaterPlans;
 import vn.chiendt.skilio.repository.InstallmentRepository;
+import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.InstallmentScheduleService;
+import vn.chiendt.skilio.sevice.InstallmentScheduleService.ScheduleTemplate;
+import vn.chiendt.skilio.sevice.OutboxService;
 import vn.chiendt.skilio.sevice.PaylaterPlansService;
-import vn.chiendt.skilio.sevice.feign.PaymentServiceFeignClient;
+import vn.chiendt.skilio.sevice.PaymentService;
+import vn.chiendt.skilio.sevice.PlanActivationService;
+import vn.chiendt.skilio.sevice.RetryService;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
+import vn.chiendt.skilio.sevice.callback.CheckoutCallbackClient;
+import vn.chiendt.skilio.sevice.scheduler.RetryClassifier;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PaylaterPlansServiceImpl implements PaylaterPlansService {
 
+    private final PaylaterPlansRepository paylaterPlansRepository;
     private final InstallmentRepository installmentRepository;
-    private final PaymentServiceFeignClient paymentService;
+    private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final PaymentService paymentService;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor checkoutExecutor;
+    private final CheckoutCallbackClient checkoutCallbackClient;
+    private final PaylaterPlanCache paylaterPlanCache;
+    private final InstallmentScheduleService installmentScheduleService;
+    private final OutboxService outboxService;
+    private final PlanActivationService planActivationService;
+    private final RetryService retryService;
+    private final RetryClassifier retryClassifier;
+
+    @Value("${paylater.checkout.batch.chunk-size}")
+    private int batchChunkSize;
+
+    @Value("${paylater.checkout.batch.max-orders}")
+    private int batchMaxOrders;
+
+    @Value("${paylater.checkout.async.max-in-flight}")
+    private int asyncMaxInFlight;
+
+    private Semaphore asyncCheckoutPermits;
+
+    @PostConstruct
+    void initAsyncCheckoutPermits() {
+        asyncCheckoutPermits = new Semaphore(asyncMaxInFlight);
+    }
 
     @Override
-    @Transactional
-    public PaylaterPlanDto processPayLaterCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency) {
+    public PaylaterPlanDto processPayLaterCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency,
+                                                   String productCode, Integer installmentsTotal) {
         log.info("Processing PayLater checkout for orderId: {}, userId: {}, amount: {}", orderId, userId, totalAmount);
         
+        ScheduleTemplate template = installmentScheduleService.resolveTemplate(productCode, installmentsTotal);
         try {
-            // 1. Tạo PayLaterPlan
-            PaylaterPlans plan = createPayLaterPlan(orderId, userId, totalAmount, currency);
-            
-            // 2. Sinh 3 installments
-            List<Installment> installments = createInstallments(plan);
-            
-            // 3. Tạo transaction đầu tiên (installment #1)
-            Installment firstInstallment = installments.get(0);
-            InstallmentTransactions firstTransaction = createFirstTransaction(firstInstallment);
+            // Phase 1: lưu plan, installments và transaction đầu tiên (PENDING) rồi commit ngay
+            CheckoutDraft draft = transactionTemplate.execute(status ->
+                    persistCheckout(orderId, userId, totalAmount, currency, template));
             
-            // 4. Gọi PaymentService.charge()
-            boolean paymentSuccess = processFirstPayment(firstTransaction, plan);
-            
-            if (paymentSuccess) {
-                // 5a. Nếu thành công → mark PAID, lên lịch #2
-                updateTransactionStatus(firstTransaction.getId(), TransactionStatus.SUCCESS);
-                updatePlanStatus(plan.getId(), PaylaterStatus.ACTIVE);
-                scheduleNextInstallment(installments.get(1));
-                
-                log.info("PayLater plan created successfully. PlanId: {}", plan.getId());
-                return convertToDto(plan);
-            } else {
-                // 5b. Nếu fail → mark FAILED, trigger retry
-                updateTransactionStatus(firstTransaction.getId(), TransactionStatus.FAILED);
-                updatePlanStatus(plan.getId(), PaylaterStatus.PENDING);
-                scheduleRetry(firstTransaction);
-                
-                log.warn("PayLater plan creation failed. PlanId: {}, will retry", plan.getId());
-                return convertToDto(plan);
-            }
+            // Phase 2 + 3: charge rồi cập nhật trạng thái
+            return convertToDto(chargeAndComplete(draft));
             
         } catch (Exception e) {
             log.error("Error processing PayLater checkout for orderId: {}", orderId, e);
@@ -73,41 +103,206 @@ public class PaylaterPlansServiceImpl implements PaylaterPlansService {
         }
     }
 
-    private PaylaterPlans createPayLaterPlan(String orderId, Long userId, BigDecimal totalAmount, String currency) {
+    @Override
+    public PaylaterPlanDto submitPayLaterCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency,
+                                                  String productCode, Integer installmentsTotal, String callbackUrl) {
+        log.info("Submitting async PayLater checkout for orderId: {}, userId: {}, amount: {}", orderId, userId, totalAmount);
+        
+        if (callbackUrl != null && !checkoutCallbackClient.isAllowed(callbackUrl)) {
+            throw new IllegalArgumentException("Callback URL is not allowed: " + callbackUrl);
+        }
+        ScheduleTemplate template = installmentScheduleService.resolveTemplate(productCode, installmentsTotal);
+        
+        // Giữ chỗ trước khi ghi gì vào DB: hết chỗ thì caller nhận 503, không để lại plan hay event nào
+        if (!asyncCheckoutPermits.tryAcquire()) {
+            throw new TaskRejectedException("Too many async checkouts in progress");
+        }
+        CheckoutDraft draft;
+        try {
+            draft = transactionTemplate.execute(status ->
+                    persistCheckout(orderId, userId, totalAmount, currency, template));
+        } catch (Exception e) {
+            asyncCheckoutPermits.release();
+            log.error("Error storing PayLater checkout for orderId: {}", orderId, e);
+            throw new RuntimeException("Failed to process PayLater checkout", e);
+        }
+        
+        try {
+            checkoutExecutor.execute(() -> {
+                try {
+                    finishCheckout(draft, callbackUrl);
+                } finally {
+                    asyncCheckoutPermits.release();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            // Batch checkout cũng dùng executor nên hiếm khi vẫn bị từ chối: hủy plan vừa lưu để caller gửi lại sau
+            asyncCheckoutPermits.release();
+            abandonCheckout(draft, "Checkout rejected, too many checkouts in progress");
+            throw e;
+        }
+        
+        log.info("PayLater plan {} accepted, first charge running in background", draft.plan().getId());
+        return convertToDto(draft.plan());
+    }
+
+    @Override
+    public CheckoutStatusDto getCheckoutStatus(String planId) {
+        PaylaterPlans plan = paylaterPlansRepository.findById(planId).orElse(null);
+        if (plan == null) {
+            return null;
+        }
+        
+        List<TransactionStatus> firstChargeStatuses =
+                installmentTransactionsRepository.findFirstInstallmentStatuses(planId, PageRequest.of(0, 1));
+        
+        return CheckoutStatusDto.builder()
+                .planId(plan.getId())
+                .orderId(plan.getOrderId())
+                .planStatus(plan.getStatus().name())
+                .firstChargeStatus(firstChargeStatuses.isEmpty() ? null : firstChargeStatuses.get(0).name())
+                .firstChargeId(plan.getFirstChargeId())
+                .approvedAt(plan.getApprovedAt())
+                .build();
+    }
+
+    private void abandonCheckout(CheckoutDraft draft, String reason) {
+        PaylaterPlans plan = draft.plan();
+        log.warn("PayLater plan {} abandoned before its first charge: {}", plan.getId(), reason);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                installmentTransactionsRepository.completePendingTransaction(draft.firstTransaction().getId(),
+                        TransactionStatus.FAILED, null, null, reason, null, null, null, now);
+                plan.setStatus(PaylaterStatus.CANCELLED);
+                plan.setCanceledAt(now);
+                paylaterPlansRepository.save(plan);
+                outboxService.append(PlanLifecycleMessage.builder()
+                        .eventType(PlanEventType.PLAN_CANCELLED)
+                        .planId(plan.getId())
+                        .orderId(plan.getOrderId())
+                        .userId(plan.getUserId())
+                        .status(plan.getStatus().name())
+                        .message(reason)
+                        .occurredAt(now)
+                        .build());
+            });
+            paylaterPlanCache.evict(plan.getId());
+        } catch (Exception e) {
+            log.error("Error cancelling abandoned PayLater plan {}", plan.getId(), e);
+        }
+    }
+
+    private void finishCheckout(CheckoutDraft draft, String callbackUrl) {
+        String planId = draft.plan().getId();
+        try {
+            chargeAndComplete(draft);
+        } catch (Exception e) {
+            log.error("Error finishing async PayLater checkout for planId: {}", planId, e);
+        }
+        
+        if (callbackUrl != null) {
+            CheckoutStatusDto status = getCheckoutStatus(planId);
+            if (status != null) {
+                checkoutCallbackClient.notify(callbackUrl, status);
+            }
+        }
+    }
+
+    private PaylaterPlans chargeAndComplete(CheckoutDraft draft) {
+        // Phase 2: gọi PaymentService.charge() khi không giữ connection nào
+        PaymentService.PaymentResult result = processFirstPayment(draft.firstTransaction());
+        
+        // Phase 3: cập nhật trạng thái trong một transaction ngắn
+        try {
+            return transactionTemplate.execute(status -> completeCheckout(draft, result));
+        } catch (RuntimeException e) {
+            recordPaymentRef(draft.firstTransaction(), result);
+            throw e;
+        }
+    }
+
+    /**
+     * Plan rows committed by phase 1 of the checkout, carried to the charge and completion phases
+     */
+    private record CheckoutDraft(PaylaterPlans plan, List<Installment> installments,
+                                 InstallmentTransactions firstTransaction) {
+    }
+
+    private CheckoutDraft persistCheckout(String orderId, Long userId, BigDecimal totalAmount, String currency,
+                                          ScheduleTemplate template) {
+        // 1. Tạo PayLaterPlan
+        PaylaterPlans plan = paylaterPlansRepository.save(
+                createPayLaterPlan(orderId, userId, totalAmount, currency, template));
+        outboxService.append(planEvent(PlanEventType.PLAN_CREATED, plan));
+        
+        // 2. Sinh installments theo template
+        List<Installment> installments = installmentRepository.saveAll(createInstallments(plan, template));
+        
+        // 3. Tạo transaction đầu tiên (installment #1) ở trạng thái PENDING
+        InstallmentTransactions firstTransaction =
+                installmentTransactionsRepository.save(createFirstTransaction(installments.get(0)));
+        
+        return new CheckoutDraft(plan, installments, firstTransaction);
+    }
+
+    private PaylaterPlans completeCheckout(CheckoutDraft draft, PaymentService.PaymentResult result) {
+        PaylaterPlans plan = draft.plan();
+        InstallmentTransactions firstTransaction = draft.firstTransaction();
+        LocalDateTime now = LocalDateTime.now();
+        
+        if (result == null) {
+            // Timeout / 5xx không phải là bị từ chối: retry lại đúng lần charge này với cùng idempotency key
+            deferFirstPayment(firstTransaction, now);
+            log.warn("PayLater plan {} first charge outcome unknown, will retry", plan.getId());
+        } else if (result.isSuccess()) {
+            // 5a. Nếu thành công → mark PAID, lên lịch #2
+            String message = "First installment charged at checkout";
+            // Transaction đã bị webhook cập nhật trước thì việc kích hoạt plan cũng đã xảy ra ở đó
+            if (updateTransactionStatus(firstTransaction, TransactionStatus.SUCCESS,
+                    result.getTransactionId(), now, message, null)) {
+                outboxService.append(transactionEvent(PlanEventType.TRANSACTION_SUCCEEDED, plan, firstTransaction,
+                        result.getTransactionId(), message));
+                if (planActivationService.activate(plan.getId(), result.getTransactionId(), now)) {
+                    plan.setStatus(PaylaterStatus.ACTIVE);
+                    plan.setFirstChargeId(result.getTransactionId());
+                    plan.setApprovedAt(now);
+                }
+            }
+            
+            log.info("PayLater plan created successfully. PlanId: {}", plan.getId());
+        } else {
+            // 5b. Nếu fail → mark FAILED, plan vẫn PENDING, trigger retry
+            String message = "First charge failed: " + result.getErrorMessage();
+            RetryClassifier.Decision decision = retryClassifier.decide(result.getErrorCode(),
+                    firstTransaction.getAttemptNumber(), now);
+            if (updateTransactionStatus(firstTransaction, TransactionStatus.FAILED, null, null, message, decision)) {
+                outboxService.append(transactionEvent(PlanEventType.TRANSACTION_FAILED, plan, firstTransaction,
+                        null, message));
+            }
+            scheduleRetry(firstTransaction, decision);
+            
+            log.warn("PayLater plan creation failed. PlanId: {}, will retry", plan.getId());
+        }
+        return plan;
+    }
+
+    private PaylaterPlans createPayLaterPlan(String orderId, Long userId, BigDecimal totalAmount, String currency,
+                                             ScheduleTemplate template) {
         return PaylaterPlans.builder()
                 .userId(userId)
                 .orderId(orderId)
                 .principalAmount(totalAmount)
                 .currency(Currency.valueOf(currency))
                 .status(PaylaterStatus.PENDING)
-                .installmentsTotal(3)
+                .productCode(template.productCode())
+                .installmentsTotal(template.count())
                 .creationDate(LocalDateTime.now())
                 .build();
     }
 
-    private List<Installment> createInstallments(PaylaterPlans plan) {
-        List<Installment> installments = new ArrayList<>();
-        BigDecimal principalAmount = new BigDecimal(plan.getPrincipalAmount());
-        BigDecimal installmentAmount = principalAmount.divide(BigDecimal.valueOf(3), 2, BigDecimal.ROUND_HALF_UP);
-        
-        for (int i = 1; i <= 3; i++) {
-            LocalDateTime dueDate = LocalDateTime.now().plusMonths(i);
-            
-            Installment installment = Installment.builder()
-                    .planId(plan.getId())
-                    .installmentNumber(i)
-                    .dueDate(dueDate)
-                    .plannedAmount(installmentAmount)
-                    .currency(plan.getCurrency().name())
-                    .build();
-            
-            installments.add(installment);
-        }
-        
-        // TODO: Save installments to database
-        // installments = installmentRepository.saveAll(installments);
-        
-        return installments;
+    private List<Installment> createInstallments(PaylaterPlans plan, ScheduleTemplate template) {
+        return installmentScheduleService.buildInstallments(plan, template, plan.getCreationDate());
     }
 
     private InstallmentTransactions createFirstTransaction(Installment installment) {
@@ -120,59 +315,64 @@ public class PaylaterPlansServiceImpl implements PaylaterPlansService {
                 .gatewayProvider("stripe") // TODO: Make configurable
                 .build();
         
-        // TODO: Save transaction to database
-        // transaction = installmentTransactionsRepository.save(transaction);
-        
         return transaction;
     }
 
-    private boolean processFirstPayment(InstallmentTransactions transaction, PaylaterPlans plan) {
+    /**
+     * @return Gateway result, null if the call failed and it is unknown whether the customer was charged
+     */
+    private PaymentService.PaymentResult processFirstPayment(InstallmentTransactions transaction) {
         try {
-            // TODO: Call actual PaymentService.charge()
-            // PaymentResult result = paymentService.charge(transaction.getAmount(), transaction.getPaymentMethodId());
-            
-            // For now, simulate payment processing
-            boolean success = simulatePaymentProcessing();
-            
-            if (success) {
-                transaction.setChargedAt(LocalDateTime.now());
-                transaction.setPaymentRef("txn_" + UUID.randomUUID().toString());
-                plan.setFirstChargeId(transaction.getPaymentRef());
-                plan.setApprovedAt(LocalDateTime.now());
-            }
-            
-            return success;
+            return paymentService.charge(
+                transaction.getAmount(),
+                transaction.getPaymentMethodId(),
+                transaction.getInstallment().getCurrency(),
+                PaymentService.idempotencyKey(transaction.getId(), transaction.getAttemptNumber())
+            );
             
         } catch (Exception e) {
             log.error("Payment processing failed for transaction: {}", transaction.getId(), e);
-            return false;
+            return null;
         }
     }
 
-    private boolean simulatePaymentProcessing() {
-        // TODO: Replace with actual payment service call
-        // Simulate 90% success rate for demo
-        return Math.random() > 0.1;
-    }
-
-    private void updateTransactionStatus(String transactionId, TransactionStatus status) {
-        // TODO: Update transaction status in database
-        log.info("Updating transaction {} status to {}", transactionId, status);
-    }
-
-    private void updatePlanStatus(String planId, PaylaterStatus status) {
-        // TODO: Update plan status in database
-        log.info("Updating plan {} status to {}", planId, status);
+    private boolean updateTransactionStatus(InstallmentTransactions transaction, TransactionStatus status,
+                                            String paymentRef, LocalDateTime chargedAt, String message,
+                                            RetryClassifier.Decision decision) {
+        log.info("Updating transaction {} status to {}", transaction.getId(), status);
+        LocalDateTime now = LocalDateTime.now();
+        int updated = installmentTransactionsRepository.completePendingTransaction(
+                transaction.getId(), status, paymentRef, chargedAt, message,
+                decision == null ? null : decision.declineCode(), decision == null ? null : decision.category(),
+                decision == null ? null : decision.nextRetryAt(), now);
+        if (updated == 0) {
+            log.warn("Transaction {} is no longer PENDING, status {} not applied", transaction.getId(), status);
+            return false;
+        }
+        return true;
     }
 
-    private void scheduleNextInstallment(Installment installment) {
-        // TODO: Schedule next installment payment
-        log.info("Scheduling next installment {} for plan {}", installment.getInstallmentNumber(), installment.getPlanId());
+    private void deferFirstPayment(InstallmentTransactions transaction, LocalDateTime now) {
+        // Soft backoff như lỗi gateway; attempt không tăng nên retry dùng lại key của lần charge này
+        RetryClassifier.Decision decision = retryClassifier.decide(null, transaction.getAttemptNumber(), now);
+        int updated = installmentTransactionsRepository.deferPendingTransaction(transaction.getId(),
+                "First charge outcome unknown, retrying the same charge", decision.nextRetryAt(), now);
+        if (updated == 0) {
+            log.warn("Transaction {} is no longer PENDING, not deferred", transaction.getId());
+            return;
+        }
+        scheduleRetry(transaction, decision);
     }
 
-    private void scheduleRetry(InstallmentTransactions transaction) {
-        // TODO: Schedule retry mechanism
+    private void scheduleRetry(InstallmentTransactions transaction, RetryClassifier.Decision decision) {
+        if (decision.nextRetryAt() == null) {
+            log.info("Transaction {} declined ({}, {}), not retrying", transaction.getId(),
+                    decision.category(), decision.declineCode());
+            return;
+        }
         log.info("Scheduling retry for transaction {}", transaction.getId());
+        retryService.scheduleRetry(transaction.getId(), decision.nextRetryAt(),
+                retryClassifier.maxRetries(decision.category()));
     }
 
     @Override
@@ -181,16 +381,274 @@ public class PaylaterPlansServiceImpl implements PaylaterPlansService {
         throw new UnsupportedOperationException("Not implemented yet");
     }
 
+    @Override
+    public List<CheckoutResultDto> processPayLaterCheckoutBatch(List<PaylaterPlanCreation> requests) {
+        log.info("Processing batch PayLater checkout for {} orders", requests.size());
+
+        if (requests.size() > batchMaxOrders) {
+            throw new IllegalArgumentException("Batch checkout accepts at most " + batchMaxOrders + " orders");
+        }
+
+        Map<String, CheckoutResultDto> results = new HashMap<>();
+        List<ChunkCharges> chunks = new ArrayList<>();
+        CheckoutStorageException storageFailure = null;
+
+        // Mỗi chunk: một transaction lưu plans/installments/transactions, commit xong thì charge song song
+        for (int from = 0; from < requests.size(); from += batchChunkSize) {
+            List<PaylaterPlanCreation> chunk = requests.subList(from, Math.min(from + batchChunkSize, requests.size()));
+            Map<String, String> rejections = new HashMap<>();
+
+            List<CheckoutDraft> drafts;
+            try {
+                drafts = transactionTemplate.execute(status -> persistCheckouts(buildNewPlans(chunk, rejections)));
+            } catch (Exception e) {
+                // Không lưu tiếp các chunk sau: caller retry từ order này, các order đã lưu bị bỏ qua như duplicate
+                log.error("Error storing PayLater checkout chunk of {} orders", chunk.size(), e);
+                storageFailure = new CheckoutStorageException(chunk.get(0).getOrderId(), e);
+                break;
+            }
+            rejections.forEach((orderId, reason) -> results.putIfAbsent(orderId, rejectedResult(orderId, reason)));
+
+            List<CompletableFuture<PaymentService.PaymentResult>> charges = new ArrayList<>(drafts.size());
+            for (CheckoutDraft draft : drafts) {
+                CompletableFuture<PaymentService.PaymentResult> charge;
+                try {
+                    charge = CompletableFuture.supplyAsync(
+                            () -> processFirstPayment(draft.firstTransaction()), checkoutExecutor);
+                } catch (RejectedExecutionException e) {
+                    // Plan đã commit: charge ngay trên thread gọi, batch chậm lại thay vì bỏ order
+                    charge = CompletableFuture.completedFuture(processFirstPayment(draft.firstTransaction()));
+                }
+                charges.add(charge);
+            }
+            chunks.add(new ChunkCharges(drafts, charges));
+        }
+
+        // Chờ kết quả charge của từng chunk, cập nhật trạng thái trong một transaction ngắn
+        for (ChunkCharges chunk : chunks) {
+            List<PaymentService.PaymentResult> chargeResults = new ArrayList<>(chunk.charges().size());
+            for (CompletableFuture<PaymentService.PaymentResult> charge : chunk.charges()) {
+                chargeResults.add(charge.join());
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (int i = 0; i < chunk.drafts().size(); i++) {
+                        completeCheckout(chunk.drafts().get(i), chargeResults.get(i));
+                    }
+                });
+                for (int i = 0; i < chunk.drafts().size(); i++) {
+                    results.put(chunk.drafts().get(i).plan().getOrderId(),
+                            chargedResult(chunk.drafts().get(i).plan(), chargeResults.get(i)));
+                }
+            } catch (Exception e) {
+                // Các order đã được charge: một order lỗi không được làm mất kết quả của cả chunk
+                log.warn("Error completing PayLater checkout chunk of {} orders, completing them one by one",
+                        chunk.drafts().size(), e);
+                for (int i = 0; i < chunk.drafts().size(); i++) {
+                    CheckoutDraft draft = chunk.drafts().get(i);
+                    results.put(draft.plan().getOrderId(), completeSingle(draft, chargeResults.get(i)));
+                }
+            }
+        }
+
+        if (storageFailure != null) {
+            throw storageFailure;
+        }
+
+        List<CheckoutResultDto> orderedResults = new ArrayList<>(results.size());
+        Set<String> seenOrderIds = new HashSet<>();
+        for (PaylaterPlanCreation request : requests) {
+            if (seenOrderIds.add(request.getOrderId())) {
+                orderedResults.add(results.get(request.getOrderId()));
+            }
+        }
+
+        log.info("Batch PayLater checkout finished for {} orders", orderedResults.size());
+        return orderedResults;
+    }
+
+    private CheckoutResultDto completeSingle(CheckoutDraft draft, PaymentService.PaymentResult chargeResult) {
+        PaylaterPlans plan = draft.plan();
+        // Transaction của chunk đã rollback, trạng thái plan trong bộ nhớ không còn đúng
+        plan.setStatus(PaylaterStatus.PENDING);
+        plan.setFirstChargeId(null);
+        plan.setApprovedAt(null);
+        try {
+            transactionTemplate.executeWithoutResult(status -> completeCheckout(draft, chargeResult));
+            return chargedResult(plan, chargeResult);
+        } catch (Exception e) {
+            log.error("Error completing PayLater checkout for orderId: {}", plan.getOrderId(), e);
+            recordPaymentRef(draft.firstTransaction(), chargeResult);
+            return CheckoutResultDto.builder()
+                    .orderId(plan.getOrderId())
+                    .planId(plan.getId())
+                    .status(PaylaterStatus.PENDING.name())
+                    .message("Failed to update checkout status")
+                    .build();
+        }
+    }
+
+    private CheckoutResultDto chargedResult(PaylaterPlans plan, PaymentService.PaymentResult chargeResult) {
+        return CheckoutResultDto.builder()
+                .orderId(plan.getOrderId())
+                .planId(plan.getId())
+                .status(plan.getStatus().name())
+                .charged(chargeResult != null && chargeResult.isSuccess())
+                .message(chargeResult == null ? "First charge outcome unknown, retrying"
+                        : chargeResult.isSuccess() ? null : chargeResult.getErrorMessage())
+                .build();
+    }
+
+    /**
+     * Keep the gateway reference of a successful charge whose completion failed on the PENDING transaction,
+     * so a webhook or the pending sweep can complete it later
+     */
+    private void recordPaymentRef(InstallmentTransactions transaction, PaymentService.PaymentResult result) {
+        if (result == null || !result.isSuccess() || result.getTransactionId() == null) {
+            return;
+        }
+        try {
+            transactionTemplate.execute(status -> installmentTransactionsRepository.recordPendingPaymentRef(
+                    transaction.getId(), result.getTransactionId(), LocalDateTime.now()));
+        } catch (Exception e) {
+            log.error("Error recording payment reference {} for transaction {}", result.getTransactionId(),
+                    transaction.getId(), e);
+        }
+    }
+
+    /**
+     * Drafts of one committed chunk with their in-flight first charges, same order
+     */
+    private record ChunkCharges(List<CheckoutDraft> drafts,
+                                List<CompletableFuture<PaymentService.PaymentResult>> charges) {
+    }
+
+    private List<PaylaterPlans> buildNewPlans(List<PaylaterPlanCreation> requests, Map<String, String> rejections) {
+        // Skip orders that already have a plan (redelivered events, duplicates inside the batch)
+        Set<String> orderIds = new HashSet<>();
+        for (PaylaterPlanCreation request : requests) {
+            orderIds.add(request.getOrderId());
+        }
+        Set<String> processedOrderIds = new HashSet<>(paylaterPlansRepository.findExistingOrderIds(orderIds));
+
+        List<PaylaterPlans> plans = new ArrayList<>(requests.size());
+        for (PaylaterPlanCreation request : requests) {
+            if (!processedOrderIds.add(request.getOrderId())) {
+                log.warn("PayLater plan already exists for orderId: {}, skipping", request.getOrderId());
+                rejections.put(request.getOrderId(), "PayLater plan already exists");
+                continue;
+            }
+            try {
+                ScheduleTemplate template = installmentScheduleService.resolveTemplate(
+                        request.getProductCode(), request.getInstallmentsTotal());
+                plans.add(createPayLaterPlan(request.getOrderId(), request.getUserId(),
+                        new BigDecimal(request.getPrincipalAmount()), request.getCurrency().name(), template));
+            } catch (Exception e) {
+                log.warn("Invalid PayLater checkout request for orderId: {}", request.getOrderId(), e);
+                rejections.put(request.getOrderId(), "Invalid checkout request");
+            }
+        }
+        return plans;
+    }
+
+    private List<CheckoutDraft> persistCheckouts(List<PaylaterPlans> plans) {
+        // Plans are persisted first so their ids are assigned before building installments;
+        // every table is flushed at commit as JDBC batches (hibernate.jdbc.batch_size)
+        paylaterPlansRepository.saveAll(plans);
+        for (PaylaterPlans plan : plans) {
+            outboxService.append(planEvent(PlanEventType.PLAN_CREATED, plan));
+        }
+
+        List<List<Installment>> planInstallments = new ArrayList<>(plans.size());
+        List<Installment> installments = new ArrayList<>(plans.size() * 3);
+        for (PaylaterPlans plan : plans) {
+            ScheduleTemplate template = installmentScheduleService.resolveTemplate(
+                    plan.getProductCode(), plan.getInstallmentsTotal());
+            List<Installment> created = createInstallments(plan, template);
+            planInstallments.add(created);
+            installments.addAll(created);
+        }
+        installmentRepository.saveAll(installments);
+
+        List<InstallmentTransactions> firstTransactions = new ArrayList<>(plans.size());
+        for (List<Installment> created : planInstallments) {
+            firstTransactions.add(createFirstTransaction(created.get(0)));
+        }
+        installmentTransactionsRepository.saveAll(firstTransactions);
+
+        List<CheckoutDraft> drafts = new ArrayList<>(plans.size());
+        for (int i = 0; i < plans.size(); i++) {
+            drafts.add(new CheckoutDraft(plans.get(i), planInstallments.get(i), firstTransactions.get(i)));
+        }
+        return drafts;
+    }
+
+    private CheckoutResultDto rejectedResult(String orderId, String message) {
+        return CheckoutResultDto.builder()
+                .orderId(orderId)
+                .message(message)
+                .build();
+    }
+
     @Override
     public PaylaterPlanDto getPaylaterPlan(String planId) {
-        // TODO: Implement based on requirements
-        throw new UnsupportedOperationException("Not implemented yet");
+        PaylaterPlanCache.CachedPlan cachedPlan = getCachedPaylaterPlan(planId);
+        return cachedPlan == null ? null : cachedPlan.plan();
     }
 
     @Override
+    public PaylaterPlanCache.CachedPlan getCachedPaylaterPlan(String planId) {
+        return paylaterPlanCache.get(planId, id -> paylaterPlansRepository.findById(id)
+                .map(this::convertToDto)
+                .orElse(null));
+    }
+
+    @Override
+    @Transactional
     public void updatePlanStatus(String planId, String status) {
-        // TODO: Implement based on requirements
-        throw new UnsupportedOperationException("Not implemented yet");
+        PaylaterStatus newStatus = PaylaterStatus.valueOf(status.toUpperCase());
+        
+        int updated = paylaterPlansRepository.updateStatus(planId, newStatus);
+        paylaterPlanCache.evict(planId);
+        
+        if (updated == 0) {
+            log.warn("PayLater plan not found: {}", planId);
+            return;
+        }
+        outboxService.append(PlanLifecycleMessage.builder()
+                .eventType(PlanEventType.PLAN_STATUS_CHANGED)
+                .planId(planId)
+                .status(newStatus.name())
+                .build());
+        log.info("PayLater plan {} status updated to {}", planId, newStatus);
+    }
+
+    private PlanLifecycleMessage planEvent(PlanEventType eventType, PaylaterPlans plan) {
+        return PlanLifecycleMessage.builder()
+                .eventType(eventType)
+                .planId(plan.getId())
+                .orderId(plan.getOrderId())
+                .userId(plan.getUserId())
+                .status(plan.getStatus().name())
+                .amount(plan.getPrincipalAmount())
+                .currency(plan.getCurrency().name())
+                .build();
+    }
+
+    private PlanLifecycleMessage transactionEvent(PlanEventType eventType, PaylaterPlans plan,
+                                                  InstallmentTransactions transaction, String paymentRef, String message) {
+        return PlanLifecycleMessage.builder()
+                .eventType(eventType)
+                .planId(plan.getId())
+                .orderId(plan.getOrderId())
+                .userId(plan.getUserId())
+                .transactionId(transaction.getId())
+                .paymentRef(paymentRef)
+                .amount(transaction.getAmount())
+                .currency(plan.getCurrency().name())
+                .message(message)
+                .build();
     }
 
     private PaylaterPlanDto convertToDto(PaylaterPlans plan) {
@@ -202,6 +660,7 @@ public class PaylaterPlansServiceImpl implements PaylaterPlansService {
                 .currency(plan.getCurrency().name())
                 .status(plan.getStatus().name())
                 .installmentsTotal(plan.getInstallmentsTotal())
+                .productCode(plan.getProductCode())
                 .creationDate(plan.getCreationDate())
                 .approvedAt(plan.getApprovedAt())
                 .build();
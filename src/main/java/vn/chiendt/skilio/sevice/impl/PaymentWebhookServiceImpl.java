@@ -2,170 +2,229 @@ package vn.chiendt.skilio.sevice.impl;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
-import vn.chiendt.skilio.constant.TransactionStatus;
-import vn.chiendt.skilio.entity.InstallmentTransactions;
-import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.constant.WebhookSource;
 import vn.chiendt.skilio.sevice.PaymentWebhookService;
+import vn.chiendt.skilio.sevice.webhook.StatusUpdate;
+import vn.chiendt.skilio.sevice.webhook.WebhookDeduplicator;
+import vn.chiendt.skilio.sevice.webhook.WebhookEvent;
+import vn.chiendt.skilio.sevice.webhook.WebhookEventExtractor;
+import vn.chiendt.skilio.sevice.webhook.WebhookJournal;
+import vn.chiendt.skilio.sevice.webhook.WebhookSignatureVerifier;
+import vn.chiendt.skilio.sevice.webhook.WebhookStatusCoalescer;
 
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PaymentWebhookServiceImpl implements PaymentWebhookService {
 
-    private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final ObjectProvider<WebhookJournal> webhookJournal;
+    private final WebhookDeduplicator webhookDeduplicator;
+    private final WebhookEventExtractor webhookEventExtractor;
+    private final WebhookSignatureVerifier webhookSignatureVerifier;
+    private final WebhookStatusCoalescer webhookStatusCoalescer;
 
     @Override
-    public void handleStripeWebhook(String payload, String signature) {
-        log.info("Processing Stripe webhook with signature: {}", signature);
-        
-        try {
-            // TODO: Verify Stripe signature
-            // StripeWebhook.constructEvent(payload, signature, webhookSecret);
-            
-            // TODO: Parse Stripe webhook event
-            // Event event = StripeWebhook.constructEvent(payload, signature, webhookSecret);
-            
-            // For now, simulate webhook processing
-            log.info("Stripe webhook processed successfully");
-            
-        } catch (Exception e) {
-            log.error("Error processing Stripe webhook", e);
-            throw new RuntimeException("Failed to process Stripe webhook", e);
+    public void receiveWebhook(WebhookSource source, byte[] payload, Map<String, String> headers) {
+        // Kiểm tra chữ ký lúc nhận, trước khi ack; consumer của journal không kiểm tra lại
+        webhookSignatureVerifier.verify(source, payload, headers);
+        WebhookJournal journal = webhookJournal.getIfAvailable();
+        if (journal == null) {
+            handleWebhook(source, payload);
+            return;
         }
+        // Ack ngay khi đã fsync vào journal, consumer nền apply theo thứ tự
+        long sequence = journal.append(source, headers, payload);
+        log.debug("Journaled {} webhook {}", source, sequence);
     }
 
     @Override
-    public void handlePayPalWebhook(String payload, String transmissionId) {
-        log.info("Processing PayPal webhook with transmission ID: {}", transmissionId);
+    public void handleWebhook(WebhookSource source, byte[] payload) {
+        log.info("Processing {} webhook", source);
         
+        StatusUpdate update;
         try {
-            // TODO: Verify PayPal webhook signature
-            // PayPalWebhook.verifyWebhook(payload, transmissionId, webhookSecret);
-            
-            // TODO: Parse PayPal webhook event
-            // PayPalWebhookEvent event = PayPalWebhook.parseEvent(payload);
-            
-            // For now, simulate webhook processing
-            log.info("PayPal webhook processed successfully");
-            
+            update = toStatusUpdate(source, payload);
         } catch (Exception e) {
-            log.error("Error processing PayPal webhook", e);
-            throw new RuntimeException("Failed to process PayPal webhook", e);
+            log.error("Error processing {} webhook", source, e);
+            throw new RuntimeException("Failed to process " + source + " webhook", e);
+        }
+        if (update == null) {
+            return;
+        }
+        switch (update.status()) {
+            case SUCCESS -> processPaymentSuccess(update.eventId(), update.paymentRef(), update.gatewayProvider());
+            case FAILED -> processPaymentFailure(update.eventId(), update.paymentRef(), update.gatewayProvider(),
+                    update.declineCode(), update.errorMessage());
+            case REFUNDED -> processRefund(update.eventId(), update.paymentRef(), update.gatewayProvider(),
+                    update.refundAmount().toPlainString());
+            default -> throw new IllegalStateException("Not a webhook status transition: " + update.status());
+        }
+        
+        log.info("{} webhook processed successfully", source);
+    }
+
+    @Override
+    public CompletableFuture<WebhookStatusCoalescer.Result> submitWebhook(WebhookSource source, byte[] payload) {
+        StatusUpdate update = toStatusUpdate(source, payload);
+        if (update == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (webhookDeduplicator.isDuplicate(update.gatewayProvider(), update.eventId())) {
+            return CompletableFuture.completedFuture(WebhookStatusCoalescer.Result.DUPLICATE);
         }
+        return webhookStatusCoalescer.submit(update);
     }
 
     @Override
-    public void handleGenericWebhook(String payload, String signature) {
-        log.info("Processing generic payment webhook with signature: {}", signature);
-        
+    public void handleStripeWebhook(byte[] payload, String signature) {
+        webhookSignatureVerifier.verifyStripe(payload, signature);
+        handleWebhook(WebhookSource.STRIPE, payload);
+    }
+
+    @Override
+    public void handlePayPalWebhook(byte[] payload, String transmissionId, String transmissionTime,
+                                    String transmissionSig) {
+        webhookSignatureVerifier.verifyPayPal(payload, transmissionId, transmissionTime, transmissionSig);
+        handleWebhook(WebhookSource.PAYPAL, payload);
+    }
+
+    @Override
+    public void handleGenericWebhook(byte[] payload, String signature) {
+        webhookSignatureVerifier.verifyGeneric(payload, signature);
+        handleWebhook(WebhookSource.GENERIC, payload);
+    }
+
+    /**
+     * Status transition requested by a webhook, null for event types that change nothing
+     */
+    private StatusUpdate toStatusUpdate(WebhookSource source, byte[] payload) {
+        WebhookEvent event;
         try {
-            // TODO: Verify generic webhook signature
-            // GenericWebhook.verifySignature(payload, signature, webhookSecret);
-            
-            // TODO: Parse generic webhook event
-            // GenericWebhookEvent event = GenericWebhook.parseEvent(payload);
-            
-            // For now, simulate webhook processing
-            log.info("Generic payment webhook processed successfully");
-            
-        } catch (Exception e) {
-            log.error("Error processing generic webhook", e);
-            throw new RuntimeException("Failed to process generic webhook", e);
+            event = webhookEventExtractor.extract(source, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable " + source + " webhook payload", e);
         }
+        String gateway = gatewayProvider(source);
+        String eventType = String.valueOf(event.eventType());
+        StatusUpdate update = switch (source) {
+            case STRIPE -> switch (eventType) {
+                case "payment_intent.succeeded" -> StatusUpdate.success(event.eventId(), gateway, event.paymentRef());
+                case "payment_intent.payment_failed" -> StatusUpdate.failure(event.eventId(), gateway,
+                        event.paymentRef(), event.errorCode(), event.errorMessage());
+                case "charge.refunded" -> StatusUpdate.refund(event.eventId(), gateway, event.paymentRef(),
+                        new BigDecimal(stripeAmount(event)));
+                default -> null;
+            };
+            case PAYPAL -> switch (eventType) {
+                case "PAYMENT.CAPTURE.COMPLETED" -> StatusUpdate.success(event.eventId(), gateway, event.paymentRef());
+                case "PAYMENT.CAPTURE.DENIED", "PAYMENT.CAPTURE.DECLINED" -> StatusUpdate.failure(event.eventId(),
+                        gateway, event.paymentRef(), event.errorCode(), event.errorMessage());
+                case "PAYMENT.CAPTURE.REFUNDED" -> StatusUpdate.refund(event.eventId(), gateway, event.paymentRef(),
+                        new BigDecimal(event.amount()));
+                default -> null;
+            };
+            case GENERIC -> switch (eventType) {
+                case "payment_succeeded" -> StatusUpdate.success(event.eventId(), gateway, event.paymentRef());
+                case "payment_failed" -> StatusUpdate.failure(event.eventId(), gateway, event.paymentRef(),
+                        event.errorCode(), event.errorMessage());
+                case "refund" -> StatusUpdate.refund(event.eventId(), gateway, event.paymentRef(),
+                        new BigDecimal(event.amount()));
+                default -> null;
+            };
+        };
+        if (update == null) {
+            log.info("Ignoring {} event {} of type {}", source, event.eventId(), eventType);
+        }
+        return update;
     }
 
     @Override
-    public void processPaymentSuccess(String transactionId, String gatewayProvider) {
+    public void processPaymentSuccess(String eventId, String transactionId, String gatewayProvider) {
         log.info("Processing payment success for transaction: {} from gateway: {}", 
                 transactionId, gatewayProvider);
         
         try {
-            // Find transaction by payment reference
-            InstallmentTransactions transaction = installmentTransactionsRepository
-                .findByGatewayProviderAndPaymentRef(gatewayProvider, transactionId)
-                .orElse(null);
-            
-            if (transaction == null) {
-                log.warn("Transaction not found for payment reference: {}", transactionId);
+            if (webhookDeduplicator.isDuplicate(gatewayProvider, eventId)) {
                 return;
             }
+
+            // Gộp với các webhook khác thành một transaction, chờ tới khi commit
+            WebhookStatusCoalescer.Result result = webhookStatusCoalescer.apply(
+                    StatusUpdate.success(eventId, gatewayProvider, transactionId));
             
-            // Update transaction status
-            transaction.setStatus(TransactionStatus.SUCCESS);
-            transaction.setChargedAt(LocalDateTime.now());
-            transaction.setMessage("Payment successful via webhook");
-            
-            // Save transaction
-            installmentTransactionsRepository.save(transaction);
-            
-            log.info("Payment success processed for transaction: {}", transaction.getId());
+            log.info("Payment success for transaction: {} {}", transactionId, result);
             
         } catch (Exception e) {
             log.error("Error processing payment success for transaction: {}", transactionId, e);
+            throw new RuntimeException("Failed to process payment success", e);
         }
     }
 
     @Override
-    public void processPaymentFailure(String transactionId, String gatewayProvider, String errorMessage) {
+    public void processPaymentFailure(String eventId, String transactionId, String gatewayProvider,
+                                      String declineCode, String errorMessage) {
         log.info("Processing payment failure for transaction: {} from gateway: {}", 
                 transactionId, gatewayProvider);
         
         try {
-            // Find transaction by payment reference
-            InstallmentTransactions transaction = installmentTransactionsRepository
-                .findByGatewayProviderAndPaymentRef(gatewayProvider, transactionId)
-                .orElse(null);
-            
-            if (transaction == null) {
-                log.warn("Transaction not found for payment reference: {}", transactionId);
+            if (webhookDeduplicator.isDuplicate(gatewayProvider, eventId)) {
                 return;
             }
+
+            // Gộp với các webhook khác thành một transaction, chờ tới khi commit
+            WebhookStatusCoalescer.Result result = webhookStatusCoalescer.apply(
+                    StatusUpdate.failure(eventId, gatewayProvider, transactionId, declineCode, errorMessage));
             
-            // Update transaction status
-            transaction.setStatus(TransactionStatus.FAILED);
-            transaction.setMessage("Payment failed via webhook: " + errorMessage);
-            
-            // Save transaction
-            installmentTransactionsRepository.save(transaction);
-            
-            log.info("Payment failure processed for transaction: {}", transaction.getId());
+            log.info("Payment failure for transaction: {} {}", transactionId, result);
             
         } catch (Exception e) {
             log.error("Error processing payment failure for transaction: {}", transactionId, e);
+            throw new RuntimeException("Failed to process payment failure", e);
         }
     }
 
     @Override
-    public void processRefund(String transactionId, String gatewayProvider, String refundAmount) {
+    public void processRefund(String eventId, String transactionId, String gatewayProvider, String refundAmount) {
         log.info("Processing refund for transaction: {} from gateway: {} amount: {}", 
                 transactionId, gatewayProvider, refundAmount);
         
         try {
-            // Find transaction by payment reference
-            InstallmentTransactions transaction = installmentTransactionsRepository
-                .findByGatewayProviderAndPaymentRef(gatewayProvider, transactionId)
-                .orElse(null);
-            
-            if (transaction == null) {
-                log.warn("Transaction not found for payment reference: {}", transactionId);
+            if (webhookDeduplicator.isDuplicate(gatewayProvider, eventId)) {
                 return;
             }
+
+            // Gộp với các webhook khác thành một transaction, chờ tới khi commit
+            WebhookStatusCoalescer.Result result = webhookStatusCoalescer.apply(
+                    StatusUpdate.refund(eventId, gatewayProvider, transactionId, new BigDecimal(refundAmount)));
             
-            // Update transaction status
-            transaction.setStatus(TransactionStatus.REFUNDED);
-            transaction.setRefundAmount(new java.math.BigDecimal(refundAmount));
-            transaction.setMessage("Refund processed via webhook");
-            
-            // Save transaction
-            installmentTransactionsRepository.save(transaction);
-            
-            log.info("Refund processed for transaction: {}", transaction.getId());
+            log.info("Refund for transaction: {} {}", transactionId, result);
             
         } catch (Exception e) {
             log.error("Error processing refund for transaction: {}", transactionId, e);
+            throw new RuntimeException("Failed to process refund", e);
+        }
+    }
+
+    private static String gatewayProvider(WebhookSource source) {
+        return source.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String stripeAmount(WebhookEvent event) {
+        if (event.amount() == null || event.currency() == null) {
+            return event.amount();
         }
+        // Stripe gửi số tiền theo đơn vị nhỏ nhất của tiền tệ (VND không có phần lẻ)
+        int fractionDigits = Currency.getInstance(event.currency().toUpperCase(Locale.ROOT)).getDefaultFractionDigits();
+        return new BigDecimal(event.amount()).movePointLeft(Math.max(fractionDigits, 0)).toPlainString();
     }
 }
@@ -0,0 +1,64 @@
+package vn.chiendt.skilio.sevice.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.entity.PaylaterPlans;
+import vn.chiendt.skilio.repository.InstallmentRepository;
+import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
+import vn.chiendt.skilio.sevice.PayLaterSchedulerService;
+import vn.chiendt.skilio.sevice.PlanActivationService;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
+
+import java.time.LocalDateTime;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PlanActivationServiceImpl implements PlanActivationService {
+
+    private final PaylaterPlansRepository paylaterPlansRepository;
+    private final InstallmentRepository installmentRepository;
+    private final PaylaterPlanCache paylaterPlanCache;
+    private final OutboxService outboxService;
+    // Scheduler → RetryService → activation: lấy lazy để không tạo vòng phụ thuộc
+    private final ObjectProvider<PayLaterSchedulerService> payLaterSchedulerService;
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean activate(String planId, String firstChargeId, LocalDateTime approvedAt) {
+        // Checkout, retry và webhook có thể cùng báo thành công: chỉ một bên chuyển được plan khỏi PENDING
+        if (paylaterPlansRepository.approvePlan(planId, firstChargeId, approvedAt) == 0) {
+            log.debug("Plan {} is no longer PENDING, not activated", planId);
+            return false;
+        }
+        paylaterPlanCache.evict(planId);
+
+        PaylaterPlans plan = paylaterPlansRepository.findById(planId)
+                .orElseThrow(() -> new IllegalStateException("PayLater plan not found: " + planId));
+        outboxService.append(PlanLifecycleMessage.builder()
+                .eventType(PlanEventType.PLAN_ACTIVATED)
+                .planId(planId)
+                .orderId(plan.getOrderId())
+                .userId(plan.getUserId())
+                .status(PaylaterStatus.ACTIVE.name())
+                .amount(plan.getPrincipalAmount())
+                .currency(plan.getCurrency().name())
+                .build());
+
+        installmentRepository.findByPlanIdAndInstallmentNumber(planId, 2).ifPresent(next -> {
+            log.info("Scheduling next installment {} for plan {}", next.getInstallmentNumber(), planId);
+            payLaterSchedulerService.getObject().scheduleNextInstallment(next.getId(), planId, next.getDueDate());
+        });
+
+        log.info("PayLater plan {} activated, first charge {}", planId, firstChargeId);
+        return true;
+    }
+}
@@ -1,27 +1,80 @@
 package vn.chiendt.skilio.sevice.impl;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.ChargeOutcome;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
 import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.domain.dto.RetryKey;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.entity.Installment;
 import vn.chiendt.skilio.entity.InstallmentTransactions;
+import vn.chiendt.skilio.entity.PaylaterPlans;
+import vn.chiendt.skilio.entity.ScheduledJob;
 import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
 import vn.chiendt.skilio.sevice.PaymentService;
+import vn.chiendt.skilio.sevice.PlanActivationService;
 import vn.chiendt.skilio.sevice.RetryService;
 import vn.chiendt.skilio.sevice.feign.PaymentServiceFeignClient;
+import vn.chiendt.skilio.sevice.scheduler.DurableTimerService;
+import vn.chiendt.skilio.sevice.scheduler.GatewayCircuitBreaker;
+import vn.chiendt.skilio.sevice.scheduler.RetryClassifier;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class RetryServiceImpl implements RetryService {
 
+    private static final Set<PaylaterStatus> RETRYABLE_PLAN_STATUSES =
+            EnumSet.of(PaylaterStatus.ACTIVE, PaylaterStatus.PARTIALLY_PAID);
+
     private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final PaylaterPlansRepository paylaterPlansRepository;
     private final PaymentServiceFeignClient paymentService;
+    private final DurableTimerService durableTimerService;
+    private final TransactionTemplate transactionTemplate;
+    private final GatewayCircuitBreaker gatewayCircuitBreaker;
+    private final RetryClassifier retryClassifier;
+    private final PlanActivationService planActivationService;
+    private final OutboxService outboxService;
+
+    @Value("${paylater.retry.claim-lease}")
+    private Duration claimLease;
+
+    @PostConstruct
+    void registerTimerHandler() {
+        durableTimerService.registerHandler(JobType.TRANSACTION_RETRY, this::processRetryJobs);
+    }
+
+    private List<ScheduledJob> processRetryJobs(List<ScheduledJob> jobs) {
+        List<ScheduledJob> failed = new ArrayList<>();
+        for (ScheduledJob job : jobs) {
+            try {
+                processRetry(job.getPayload());
+            } catch (Exception e) {
+                log.error("Error processing retry timer for transaction: {}", job.getPayload(), e);
+                failed.add(job);
+            }
+        }
+        return failed;
+    }
 
     @Override
     public void scheduleRetry(String transactionId, LocalDateTime retryAfter, int maxRetries) {
@@ -29,11 +82,14 @@ public class RetryServiceImpl implements RetryService {
                 transactionId, retryAfter, maxRetries);
         
         try {
-            // TODO: Implement actual retry scheduling mechanism
-            // This could use Spring's @Scheduled, Quartz, or a message queue
-            
-            // For now, just log the retry scheduling
-            log.info("Retry scheduled for transaction: {} at {}", transactionId, retryAfter);
+            if (getRetryCount(transactionId) >= maxRetries) {
+                log.info("Transaction {} has reached {} retries, not scheduling", transactionId, maxRetries);
+                return;
+            }
+            if (durableTimerService.schedule(JobType.TRANSACTION_RETRY, "retry:" + transactionId + ":" + retryAfter,
+                    transactionId, null, retryAfter)) {
+                log.info("Retry scheduled for transaction: {} at {}", transactionId, retryAfter);
+            }
             
         } catch (Exception e) {
             log.error("Error scheduling retry for transaction: {}", transactionId, e);
@@ -46,7 +102,7 @@ public class RetryServiceImpl implements RetryService {
         
         try {
             Optional<InstallmentTransactions> transactionOpt = 
-                installmentTransactionsRepository.findById(transactionId);
+                installmentTransactionsRepository.findWithInstallmentById(transactionId);
             
             if (transactionOpt.isEmpty()) {
                 log.warn("Transaction not found for retry: {}", transactionId);
@@ -56,42 +112,55 @@ public class RetryServiceImpl implements RetryService {
             InstallmentTransactions transaction = transactionOpt.get();
             
             // Check if transaction can be retried
-            if (!canRetry(transactionId)) {
+            LocalDateTime now = LocalDateTime.now();
+            if (!canRetry(transaction, now)) {
                 log.warn("Transaction {} cannot be retried", transactionId);
                 return false;
             }
             
-            // Increment retry count
-            transaction.setAttemptNumber(transaction.getAttemptNumber() + 1);
+            // Timer, retry dispatcher và retry run có thể cùng chọn một transaction: chỉ một bên claim được
+            LocalDateTime leaseUntil = now.plus(claimLease);
+            Integer claimed = transactionTemplate.execute(status -> installmentTransactionsRepository.claimRetry(
+                    transactionId, transaction.getNextRetryAt(), leaseUntil));
+            if (claimed == null || claimed == 0) {
+                log.debug("Retry of transaction {} was claimed by another worker", transactionId);
+                return false;
+            }
             
-            // Process payment
-            PaymentService.PaymentResult result = paymentService.charge(
-                transaction.getAmount(), 
-                transaction.getPaymentMethodId(), 
-                transaction.getInstallment().getCurrency()
-            );
-            
-            if (result.isSuccess()) {
-                // Update transaction status
-                transaction.setStatus(TransactionStatus.SUCCESS);
-                transaction.setChargedAt(LocalDateTime.now());
-                transaction.setPaymentRef(result.getTransactionId());
-                transaction.setMessage("Payment successful via retry");
-                
-                log.info("Retry successful for transaction: {}", transactionId);
-                
-            } else {
-                // Update transaction status
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setMessage("Payment failed via retry: " + result.getErrorMessage());
-                
-                log.warn("Retry failed for transaction: {}", transactionId);
+            // Gateway đang lỗi: lùi retry đến khi circuit half-open, không tăng attemptNumber
+            String gateway = transaction.getGatewayProvider();
+            if (!gatewayCircuitBreaker.tryAcquire(gateway)) {
+                LocalDateTime deferUntil = gatewayCircuitBreaker.deferUntil(gateway);
+                transactionTemplate.execute(status -> installmentTransactionsRepository.claimRetry(
+                        transactionId, leaseUntil, deferUntil));
+                log.info("Gateway {} circuit open, retry of transaction {} deferred to {}",
+                        gateway, transactionId, deferUntil);
+                return false;
             }
             
-            // Save transaction
-            installmentTransactionsRepository.save(transaction);
+            // Process payment
+            int attemptNumber = transaction.getAttemptNumber() + 1;
+            PaymentService.PaymentResult result = null;
+            ChargeOutcome outcome = ChargeOutcome.GATEWAY_ERROR;
+            long startNanos = System.nanoTime();
+            try {
+                result = paymentService.charge(
+                    transaction.getAmount(), 
+                    transaction.getPaymentMethodId(), 
+                    transaction.getInstallment().getCurrency(),
+                    PaymentService.idempotencyKey(transactionId, attemptNumber)
+                );
+                outcome = result.isSuccess() ? ChargeOutcome.SUCCEEDED : ChargeOutcome.DECLINED;
+            } catch (Exception e) {
+                log.error("Payment processing failed for transaction: {}", transactionId, e);
+            } finally {
+                gatewayCircuitBreaker.onResult(gateway, outcome, System.nanoTime() - startNanos);
+            }
             
-            return result.isSuccess();
+            if (result == null) {
+                return deferUnknownOutcome(transaction, leaseUntil);
+            }
+            return completeRetry(transaction, attemptNumber, leaseUntil, result);
             
         } catch (Exception e) {
             log.error("Error processing retry for transaction: {}", transactionId, e);
@@ -99,20 +168,91 @@ public class RetryServiceImpl implements RetryService {
         }
     }
 
+    /**
+     * Timeout / 5xx: the gateway may have charged, so the attempt is not counted and the next retry sends
+     * the same idempotency key. The retry is moved to the next backoff time instead of waiting for the lease.
+     */
+    private boolean deferUnknownOutcome(InstallmentTransactions transaction, LocalDateTime leaseUntil) {
+        LocalDateTime now = LocalDateTime.now();
+        // attemptNumber = 0 khi lần charge đầu đã bị defer
+        LocalDateTime retryAt = retryClassifier.decide(null, Math.max(transaction.getAttemptNumber(), 1), now)
+                .nextRetryAt();
+        LocalDateTime nextRetryAt = retryAt != null ? retryAt : leaseUntil;
+        Integer moved = transactionTemplate.execute(status -> installmentTransactionsRepository.claimRetry(
+                transaction.getId(), leaseUntil, nextRetryAt));
+        if (moved == null || moved == 0) {
+            log.warn("Transaction {} changed while retrying, not deferred", transaction.getId());
+        } else {
+            log.warn("Retry outcome of transaction {} unknown, retrying the same charge at {}",
+                    transaction.getId(), nextRetryAt);
+        }
+        return false;
+    }
+
+    private boolean completeRetry(InstallmentTransactions transaction, int attemptNumber, LocalDateTime leaseUntil,
+                                  PaymentService.PaymentResult result) {
+        LocalDateTime now = LocalDateTime.now();
+        TransactionStatus newStatus = result.isSuccess() ? TransactionStatus.SUCCESS : TransactionStatus.FAILED;
+        String message = result.isSuccess()
+                ? "Payment successful via retry"
+                : "Payment failed via retry: " + result.getErrorMessage();
+        // Hard decline dừng retry ngay, không đợi hết lượt
+        RetryClassifier.Decision decision = result.isSuccess() ? null
+                : retryClassifier.decide(result.getErrorCode(), attemptNumber, now);
+        Installment installment = transaction.getInstallment();
+
+        Boolean applied = transactionTemplate.execute(status -> {
+            // Chỉ ghi khi vẫn giữ lease: webhook đã commit trong lúc gọi gateway thì giữ kết quả của webhook
+            int updated = installmentTransactionsRepository.completeClaimedRetry(transaction.getId(), leaseUntil,
+                    newStatus, attemptNumber, result.getTransactionId(), result.isSuccess() ? now : null, message,
+                    decision == null ? null : decision.declineCode(), decision == null ? null : decision.category(),
+                    decision == null ? null : decision.nextRetryAt(), now);
+            if (updated == 0) {
+                return false;
+            }
+            outboxService.append(PlanLifecycleMessage.builder()
+                    .eventType(result.isSuccess()
+                            ? PlanEventType.TRANSACTION_SUCCEEDED : PlanEventType.TRANSACTION_FAILED)
+                    .planId(installment.getPlanId())
+                    .transactionId(transaction.getId())
+                    .status(newStatus.name())
+                    .paymentRef(result.getTransactionId())
+                    .amount(transaction.getAmount())
+                    .currency(installment.getCurrency())
+                    .message(message)
+                    .occurredAt(now)
+                    .build());
+            // Installment #1 trả được qua retry thì plan mới được kích hoạt
+            if (result.isSuccess() && installment.getInstallmentNumber() == 1) {
+                planActivationService.activate(installment.getPlanId(), result.getTransactionId(), now);
+            }
+            return true;
+        });
+        if (!Boolean.TRUE.equals(applied)) {
+            log.warn("Transaction {} changed while retrying, status {} not applied", transaction.getId(), newStatus);
+            return false;
+        }
+
+        if (result.isSuccess()) {
+            log.info("Retry successful for transaction: {}", transaction.getId());
+        } else {
+            log.warn("Retry failed for transaction: {} ({}, next retry at {})", transaction.getId(),
+                    decision.category(), decision.nextRetryAt());
+        }
+        return result.isSuccess();
+    }
+
     @Override
-    public List<String> getTransactionsNeedingRetry() {
+    public List<String> getTransactionsNeedingRetry(int limit) {
         log.debug("Getting transactions that need retry");
         
         try {
-            List<InstallmentTransactions> retryTransactions = 
-                installmentTransactionsRepository.findTransactionsNeedingRetry(3);
-            
-            List<String> transactionIds = new ArrayList<>();
-            for (InstallmentTransactions transaction : retryTransactions) {
-                if (canRetry(transaction.getId())) {
-                    transactionIds.add(transaction.getId());
-                }
-            }
+            // Một range query trên (status, next_retry_at), backoff đã được tính khi transaction FAILED
+            List<String> transactionIds = installmentTransactionsRepository.findRetryKeysAfter(LocalDateTime.now(),
+                            RetryKey.START.nextRetryAt(), RetryKey.START.id(), PageRequest.of(0, limit))
+                    .stream()
+                    .map(RetryKey::id)
+                    .toList();
             
             log.debug("Found {} transactions needing retry", transactionIds.size());
             return transactionIds;
@@ -128,10 +268,8 @@ public class RetryServiceImpl implements RetryService {
         log.info("Canceling retry for transaction: {}", transactionId);
         
         try {
-            // TODO: Implement actual retry cancellation mechanism
-            // This could involve updating a scheduling table or canceling a scheduled job
-            
-            log.info("Retry canceled for transaction: {}", transactionId);
+            int cancelled = durableTimerService.cancel(JobType.TRANSACTION_RETRY, transactionId);
+            log.info("Canceled {} scheduled retries for transaction: {}", cancelled, transactionId);
             
         } catch (Exception e) {
             log.error("Error canceling retry for transaction: {}", transactionId, e);
@@ -152,7 +290,8 @@ public class RetryServiceImpl implements RetryService {
             }
             
             InstallmentTransactions transaction = transactionOpt.get();
-            return transaction.getAttemptNumber() - 1; // Subtract 1 because attemptNumber includes the first attempt
+            // Subtract 1 because attemptNumber includes the first attempt (0 when the first charge was deferred)
+            return Math.max(0, transaction.getAttemptNumber() - 1);
             
         } catch (Exception e) {
             log.error("Error getting retry count for transaction: {}", transactionId, e);
@@ -166,41 +305,14 @@ public class RetryServiceImpl implements RetryService {
         
         try {
             Optional<InstallmentTransactions> transactionOpt = 
-                installmentTransactionsRepository.findById(transactionId);
+                installmentTransactionsRepository.findWithInstallmentById(transactionId);
             
             if (transactionOpt.isEmpty()) {
                 log.warn("Transaction not found: {}", transactionId);
                 return false;
             }
             
-            InstallmentTransactions transaction = transactionOpt.get();
-            
-            // Check if transaction is in failed status
-            if (transaction.getStatus() != TransactionStatus.FAILED) {
-                log.debug("Transaction {} is not in failed status: {}", transactionId, transaction.getStatus());
-                return false;
-            }
-            
-            // Check if retry count is within limits
-            int retryCount = getRetryCount(transactionId);
-            if (retryCount >= 3) { // Max 3 retries
-                log.debug("Transaction {} has exceeded max retry count: {}", transactionId, retryCount);
-                return false;
-            }
-            
-            // Check if enough time has passed since last attempt
-            LocalDateTime lastAttempt = transaction.getUpdatedAt();
-            LocalDateTime now = LocalDateTime.now();
-            long hoursSinceLastAttempt = java.time.Duration.between(lastAttempt, now).toHours();
-            
-            if (hoursSinceLastAttempt < 1) { // Wait at least 1 hour between retries
-                log.debug("Transaction {} retry too soon: {} hours since last attempt", 
-                        transactionId, hoursSinceLastAttempt);
-                return false;
-            }
-            
-            log.debug("Transaction {} can be retried", transactionId);
-            return true;
+            return canRetry(transactionOpt.get(), LocalDateTime.now());
             
         } catch (Exception e) {
             log.error("Error checking if transaction can be retried: {}", transactionId, e);
@@ -208,6 +320,36 @@ public class RetryServiceImpl implements RetryService {
         }
     }
 
+    private boolean canRetry(InstallmentTransactions transaction, LocalDateTime now) {
+        // Check if transaction is in failed status
+        if (transaction.getStatus() != TransactionStatus.FAILED) {
+            log.debug("Transaction {} is not in failed status: {}", transaction.getId(), transaction.getStatus());
+            return false;
+        }
+        
+        // Plan đã hủy, default hoặc hoàn tất thì không charge nữa; installment #1 được retry khi plan còn PENDING
+        Installment installment = transaction.getInstallment();
+        PaylaterStatus planStatus = paylaterPlansRepository.findById(installment.getPlanId())
+                .map(PaylaterPlans::getStatus)
+                .orElse(null);
+        boolean planChargeable = RETRYABLE_PLAN_STATUSES.contains(planStatus)
+                || (planStatus == PaylaterStatus.PENDING && installment.getInstallmentNumber() == 1);
+        if (!planChargeable) {
+            log.debug("Plan of transaction {} is {}, not retrying", transaction.getId(), planStatus);
+            return false;
+        }
+        
+        // next_retry_at = null khi đã hết lượt retry
+        LocalDateTime nextRetryAt = transaction.getNextRetryAt();
+        if (nextRetryAt == null || nextRetryAt.isAfter(now)) {
+            log.debug("Transaction {} is not due for retry, next retry at {}", transaction.getId(), nextRetryAt);
+            return false;
+        }
+        
+        log.debug("Transaction {} can be retried", transaction.getId());
+        return true;
+    }
+
     @Override
     public LocalDateTime getNextRetryTime(String transactionId) {
         log.debug("Getting next retry time for transaction: {}", transactionId);
@@ -221,15 +363,7 @@ public class RetryServiceImpl implements RetryService {
                 return null;
             }
             
-            InstallmentTransactions transaction = transactionOpt.get();
-            
-            // Calculate next retry time based on retry count
-            int retryCount = getRetryCount(transactionId);
-            LocalDateTime lastAttempt = transaction.getUpdatedAt();
-            
-            // Exponential backoff: 1 hour, 2 hours, 4 hours
-            int hoursToWait = (int) Math.pow(2, retryCount);
-            LocalDateTime nextRetryTime = lastAttempt.plusHours(hoursToWait);
+            LocalDateTime nextRetryTime = transactionOpt.get().getNextRetryAt();
             
             log.debug("Next retry time for transaction {}: {}", transactionId, nextRetryTime);
             return nextRetryTime;
@@ -0,0 +1,117 @@
+package vn.chiendt.skilio.sevice.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.constant.RunStatus;
+import vn.chiendt.skilio.domain.dto.SchedulerRunDto;
+import vn.chiendt.skilio.entity.SchedulerRun;
+import vn.chiendt.skilio.repository.SchedulerRunRepository;
+import vn.chiendt.skilio.sevice.SchedulerRunService;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SchedulerRunServiceImpl implements SchedulerRunService {
+
+    private final SchedulerRunRepository schedulerRunRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public SchedulerRun begin(JobType runType, String runKey, String owner) {
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            SchedulerRun run = schedulerRunRepository.findByRunKey(runKey).orElse(null);
+            if (run == null) {
+                return schedulerRunRepository.save(SchedulerRun.builder()
+                        .runType(runType)
+                        .runKey(runKey)
+                        .status(RunStatus.RUNNING)
+                        .owner(owner)
+                        .startedAt(now)
+                        .updatedAt(now)
+                        .build());
+            }
+            if (run.getStatus() == RunStatus.COMPLETED) {
+                return run;
+            }
+            log.info("Resuming {} run {} after {} (scanned={}, processed={}), previous owner {}",
+                    runType, runKey, run.getCursorId(), run.getScanned(), run.getProcessed(), run.getOwner());
+            run.setStatus(RunStatus.RUNNING);
+            run.setResumes(run.getResumes() + 1);
+            run.setOwner(owner);
+            run.setUpdatedAt(now);
+            return schedulerRunRepository.save(run);
+        });
+    }
+
+    @Override
+    public void checkpoint(SchedulerRun run) {
+        run.setUpdatedAt(LocalDateTime.now());
+        schedulerRunRepository.save(run);
+    }
+
+    @Override
+    public void complete(SchedulerRun run) {
+        LocalDateTime now = LocalDateTime.now();
+        run.setStatus(RunStatus.COMPLETED);
+        run.setUpdatedAt(now);
+        run.setFinishedAt(now);
+        schedulerRunRepository.save(run);
+        log.info("{} run {} completed: scanned={}, processed={}, resumes={}",
+                run.getRunType(), run.getRunKey(), run.getScanned(), run.getProcessed(), run.getResumes());
+    }
+
+    @Override
+    public void fail(SchedulerRun run, String error) {
+        try {
+            // Đọc lại bản đã commit: cursor trong bộ nhớ có thể đi trước checkpoint cuối cùng
+            SchedulerRun stored = schedulerRunRepository.findById(run.getId()).orElse(run);
+            if (!Objects.equals(stored.getOwner(), run.getOwner())) {
+                // Instance khác đã tiếp quản run này
+                return;
+            }
+            stored.setStatus(RunStatus.FAILED);
+            stored.setLastError(error);
+            stored.setUpdatedAt(LocalDateTime.now());
+            schedulerRunRepository.save(stored);
+        } catch (Exception e) {
+            log.error("Failed to mark {} run {} as failed", run.getRunType(), run.getRunKey(), e);
+        }
+    }
+
+    @Override
+    public List<SchedulerRunDto> getRecentRuns(JobType runType, int limit) {
+        PageRequest page = PageRequest.of(0, limit);
+        List<SchedulerRun> runs = runType == null
+                ? schedulerRunRepository.findAllByOrderByStartedAtDesc(page)
+                : schedulerRunRepository.findByRunTypeOrderByStartedAtDesc(runType, page);
+        return runs.stream().map(this::toDto).toList();
+    }
+
+    private SchedulerRunDto toDto(SchedulerRun run) {
+        return SchedulerRunDto.builder()
+                .id(run.getId())
+                .runType(run.getRunType().name())
+                .runKey(run.getRunKey())
+                .status(run.getStatus().name())
+                .cursorDueDate(run.getCursorDueDate())
+                .cursorId(run.getCursorId())
+                .scanned(run.getScanned())
+                .processed(run.getProcessed())
+                .resumes(run.getResumes())
+                .owner(run.getOwner())
+                .lastError(run.getLastError())
+                .startedAt(run.getStartedAt())
+                .updatedAt(run.getUpdatedAt())
+                .finishedAt(run.getFinishedAt())
+                .build();
+    }
+}
@@ -3,13 +3,83 @@ package vn.chiendt.skilio.sevice.kafka;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.constant.Currency;
+import vn.chiendt.skilio.domain.dto.CheckoutResultDto;
+import vn.chiendt.skilio.domain.dto.PaylaterPlanCreation;
+import vn.chiendt.skilio.domain.message.CheckoutOrderMessage;
+import vn.chiendt.skilio.sevice.PaylaterPlansService;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j(topic = "ORDER-CONSUMER")
 public class CheckoutOrderConsumer {
 
+    private final PaylaterPlansService paylaterPlansService;
+
+    /**
+     * Consume a batch of checkout events, create their PayLater plans with batched inserts and charge first installments
+     * @param messages Checkout events of one poll, null for records that could not be deserialized
+     * @throws BatchListenerFailedException if plans could not be stored; offsets before the failed event are
+     *         committed and the batch is redelivered from it
+     */
+    @KafkaListener(
+            topics = "${paylater.checkout.kafka.topic}",
+            groupId = "${paylater.checkout.kafka.group-id}",
+            containerFactory = "checkoutBatchContainerFactory")
+    public void consume(List<CheckoutOrderMessage> messages) {
+        log.info("Received {} checkout order events", messages.size());
+
+        List<PaylaterPlanCreation> requests = new ArrayList<>(messages.size());
+        for (CheckoutOrderMessage message : messages) {
+            if (message == null || message.getOrderId() == null) {
+                log.warn("Skipping invalid checkout order event: {}", message);
+                continue;
+            }
+            try {
+                requests.add(toPlanCreation(message));
+            } catch (Exception e) {
+                log.warn("Skipping invalid checkout order event for orderId: {}", message.getOrderId(), e);
+            }
+        }
+
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        List<CheckoutResultDto> results;
+        try {
+            results = paylaterPlansService.processPayLaterCheckoutBatch(requests);
+        } catch (PaylaterPlansService.CheckoutStorageException e) {
+            throw new BatchListenerFailedException(e.getMessage(), e, indexOf(messages, e.getOrderId()));
+        }
+        long charged = results.stream().filter(CheckoutResultDto::isCharged).count();
+        log.info("Processed {} checkout order events, {} plans charged", messages.size(), charged);
+    }
 
+    private static int indexOf(List<CheckoutOrderMessage> messages, String orderId) {
+        for (int i = 0; i < messages.size(); i++) {
+            CheckoutOrderMessage message = messages.get(i);
+            if (message != null && orderId.equals(message.getOrderId())) {
+                return i;
+            }
+        }
+        // Không tìm thấy thì redeliver cả batch, các order đã lưu bị bỏ qua như duplicate
+        return 0;
+    }
 
+    private PaylaterPlanCreation toPlanCreation(CheckoutOrderMessage message) {
+        PaylaterPlanCreation request = new PaylaterPlanCreation();
+        request.setOrderId(message.getOrderId());
+        request.setUserId(message.getUserId());
+        request.setPrincipalAmount(message.getTotalAmount().toPlainString());
+        request.setCurrency(Currency.valueOf(message.getCurrency().toUpperCase()));
+        request.setInstallmentsTotal(message.getInstallmentsTotal());
+        request.setProductCode(message.getProductCode());
+        return request;
+    }
 }
@@ -0,0 +1,123 @@
+package vn.chiendt.skilio.sevice.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.entity.OutboxEvent;
+import vn.chiendt.skilio.repository.OutboxEventRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Drains the outbox to Kafka. Each batch transaction first takes a PostgreSQL advisory lock, so only
+ * one instance relays at a time and a plan's events are never sent by two replicas out of order; the
+ * others skip the run. The batch is sent without waiting per record (the producer batches and
+ * compresses them) and deleted in the same transaction once every send is acknowledged.
+ * Delivery is at least once: consumers dedupe on the event-id header.
+ */
+@Component
+@Slf4j(topic = "OUTBOX-RELAY")
+public class PlanEventOutboxRelay {
+
+    public static final String EVENT_ID_HEADER = "event-id";
+    public static final String EVENT_TYPE_HEADER = "event-type";
+    // Khóa advisory chung của mọi replica cho outbox relay
+    private static final long RELAY_LOCK_KEY = 0x6f7574626f78L;
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaTemplate<String, String> outboxKafkaTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter publishedEvents;
+    private final String topic;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long sendTimeoutMs;
+
+    public PlanEventOutboxRelay(OutboxEventRepository outboxEventRepository,
+                                @Qualifier("outboxKafkaTemplate") KafkaTemplate<String, String> outboxKafkaTemplate,
+                                TransactionTemplate transactionTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${paylater.outbox.topic}") String topic,
+                                @Value("${paylater.outbox.relay.batch-size}") int batchSize,
+                                @Value("${paylater.outbox.relay.max-batches-per-run}") int maxBatchesPerRun,
+                                @Value("${paylater.outbox.relay.send-timeout-ms}") long sendTimeoutMs) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxKafkaTemplate = outboxKafkaTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.publishedEvents = Counter.builder("paylater.outbox.published")
+                .description("Outbox events published to Kafka")
+                .register(meterRegistry);
+        this.topic = topic;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
+    /**
+     * Publish outbox batches until the outbox is drained or the per-run limit is reached
+     */
+    @Scheduled(fixedDelayString = "${paylater.outbox.relay.interval-ms}")
+    public void relay() {
+        try {
+            for (int i = 0; i < maxBatchesPerRun; i++) {
+                Integer published = transactionTemplate.execute(status -> publishBatch());
+                if (published == null || published < batchSize) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            // Batch rolled back, rows are unlocked and picked up again on the next run
+            log.error("Error relaying outbox events to topic: {}", topic, e);
+        }
+    }
+
+    private int publishBatch() {
+        if (!outboxEventRepository.tryAdvisoryXactLock(RELAY_LOCK_KEY)) {
+            log.debug("Another instance is relaying outbox events");
+            return 0;
+        }
+        List<OutboxEvent> events = outboxEventRepository.lockNextBatch(batchSize);
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        List<CompletableFuture<SendResult<String, String>>> sends = new ArrayList<>(events.size());
+        List<String> ids = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            ProducerRecord<String, String> record =
+                    new ProducerRecord<>(topic, event.getAggregateId(), event.getPayload());
+            record.headers().add(EVENT_ID_HEADER, event.getId().getBytes(StandardCharsets.UTF_8));
+            record.headers().add(EVENT_TYPE_HEADER, event.getEventType().name().getBytes(StandardCharsets.UTF_8));
+            sends.add(outboxKafkaTemplate.send(record));
+            ids.add(event.getId());
+        }
+
+        try {
+            CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while publishing outbox events", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RuntimeException("Failed to publish outbox events", e);
+        }
+
+        outboxEventRepository.deleteAllByIdInBatch(ids);
+        publishedEvents.increment(events.size());
+        log.debug("Published {} outbox events to {}", events.size(), topic);
+        return events.size();
+    }
+}
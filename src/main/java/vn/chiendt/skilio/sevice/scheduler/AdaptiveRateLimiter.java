@@ -0,0 +1,102 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import vn.chiendt.skilio.config.ChargeDispatcherProperties;
+import vn.chiendt.skilio.constant.ChargeOutcome;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose rate adapts to the gateway (AIMD). Healthy charges raise the rate linearly with time
+ * up to the configured maximum, a gateway error or a charge slower than the latency target cuts it by a
+ * factor (at most once per cooldown). Callers reserve a token and sleep off the debt outside the lock,
+ * with a random jitter so waiting workers do not hit the gateway in lockstep.
+ */
+public final class AdaptiveRateLimiter {
+
+    private final double maxRate;
+    private final double minRate;
+    private final double burstSeconds;
+    private final double decreaseFactor;
+    private final double additiveIncrease;
+    private final long jitterNanos;
+    private final long latencyTargetNanos;
+    private final long decreaseCooldownNanos;
+
+    // guarded by this
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastIncreaseNanos;
+    private long lastDecreaseNanos;
+
+    public AdaptiveRateLimiter(double maxRate, ChargeDispatcherProperties.RateLimit config) {
+        this.maxRate = maxRate;
+        this.minRate = Math.min(config.getMinRate(), maxRate);
+        this.burstSeconds = config.getBurstSeconds();
+        this.decreaseFactor = config.getDecreaseFactor();
+        this.additiveIncrease = config.getAdditiveIncrease();
+        this.jitterNanos = config.getJitter().toNanos();
+        this.latencyTargetNanos = config.getLatencyTarget().toNanos();
+        this.decreaseCooldownNanos = config.getDecreaseCooldown().toNanos();
+
+        long now = System.nanoTime();
+        this.rate = maxRate;
+        this.tokens = capacity();
+        this.lastRefillNanos = now;
+        this.lastIncreaseNanos = now;
+        this.lastDecreaseNanos = now - decreaseCooldownNanos;
+    }
+
+    /**
+     * Take one token, sleeping until it is available
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill(System.nanoTime());
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * 1_000_000_000L);
+        }
+        if (waitNanos > 0) {
+            long jitter = jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0;
+            TimeUnit.NANOSECONDS.sleep(waitNanos + jitter);
+        }
+    }
+
+    /**
+     * Feed back the result of one charge
+     * @param outcome Charge outcome
+     * @param latencyNanos Duration of the gateway call
+     */
+    public synchronized void onResult(ChargeOutcome outcome, long latencyNanos) {
+        long now = System.nanoTime();
+        refill(now);
+        if (outcome == ChargeOutcome.GATEWAY_ERROR || latencyNanos > latencyTargetNanos) {
+            if (now - lastDecreaseNanos >= decreaseCooldownNanos) {
+                rate = Math.max(minRate, rate * decreaseFactor);
+                tokens = Math.min(tokens, capacity());
+                lastDecreaseNanos = now;
+            }
+        } else {
+            rate = Math.min(maxRate, rate + additiveIncrease * (now - lastIncreaseNanos) / 1_000_000_000.0);
+        }
+        lastIncreaseNanos = now;
+    }
+
+    /**
+     * @return Current charges per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity(), tokens + rate * (now - lastRefillNanos) / 1_000_000_000.0);
+        lastRefillNanos = now;
+    }
+
+    private double capacity() {
+        return Math.max(1, rate * burstSeconds);
+    }
+}
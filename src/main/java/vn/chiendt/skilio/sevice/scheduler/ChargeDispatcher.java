@@ -0,0 +1,329 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.config.ChargeDispatcherProperties;
+import vn.chiendt.skilio.constant.ChargeOutcome;
+import vn.chiendt.skilio.domain.dto.DueInstallmentKey;
+import vn.chiendt.skilio.entity.InstallmentTransactions;
+import vn.chiendt.skilio.sevice.InstallmentChargeService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Charges due installments in parallel. Installments are routed to a shard by hash of plan ID and
+ * each shard is drained by workers-per-shard workers, so two due installments of one plan can still be
+ * charged concurrently; InstallmentChargeService.prepareCharge only guards each installment against a
+ * second charge. Every gateway call holds a permit of that gateway's semaphore.
+ * Shard queues are bounded, so the scan waits for the workers instead of buffering the whole day.
+ * In SHAPED mode every charge also takes a token from its gateway's adaptive rate limiter, which
+ * slows down on gateway errors and slow charges and speeds back up while the gateway is healthy.
+ * While a gateway's circuit is open its charges are deferred to the retry path instead of being sent.
+ * Installments that end in an error rather than a gateway answer are reported in the run summary so the
+ * caller can hand them to another attempt.
+ */
+@Component
+@Slf4j(topic = "CHARGE-DISPATCHER")
+public class ChargeDispatcher {
+
+    // Đánh dấu hết dữ liệu cho từng worker
+    private static final DueInstallmentKey END_OF_RUN = new DueInstallmentKey(null, null, null);
+
+    private final InstallmentChargeService installmentChargeService;
+    private final Executor chargeDispatchExecutor;
+    private final ChargeDispatcherProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final GatewayCircuitBreaker gatewayCircuitBreaker;
+
+    private final Map<String, Semaphore> gatewayPermits = new ConcurrentHashMap<>();
+    private final Map<String, AdaptiveRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter skipped;
+    private final Counter errors;
+    private final Counter deferred;
+    private volatile RunProgress currentRun = new RunProgress();
+
+    public ChargeDispatcher(InstallmentChargeService installmentChargeService,
+                            @Qualifier("chargeDispatchExecutor") Executor chargeDispatchExecutor,
+                            ChargeDispatcherProperties properties,
+                            MeterRegistry meterRegistry,
+                            GatewayCircuitBreaker gatewayCircuitBreaker) {
+        this.installmentChargeService = installmentChargeService;
+        this.chargeDispatchExecutor = chargeDispatchExecutor;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.gatewayCircuitBreaker = gatewayCircuitBreaker;
+
+        this.succeeded = outcomeCounter("succeeded");
+        this.failed = outcomeCounter("failed");
+        this.skipped = outcomeCounter("skipped");
+        this.errors = outcomeCounter("error");
+        this.deferred = outcomeCounter("deferred");
+        Gauge.builder("paylater.dispatch.in.flight", inFlight, AtomicInteger::get)
+                .description("Gateway charges in progress")
+                .register(meterRegistry);
+        Gauge.builder("paylater.dispatch.run.scanned", this, dispatcher -> dispatcher.currentRun.scanned.get())
+                .description("Due installments read by the current (or last) run")
+                .register(meterRegistry);
+        Gauge.builder("paylater.dispatch.run.completed", this, dispatcher -> dispatcher.currentRun.completed())
+                .description("Due installments finished by the current (or last) run")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Charge all given due installments and wait until every one is finished
+     * @param dueInstallments Due installments, consumed once
+     * @param heartbeat Called every progress-log-interval while the run is going, e.g. to extend job leases
+     * @return Run totals
+     */
+    public RunSummary dispatch(Stream<DueInstallmentKey> dueInstallments, Runnable heartbeat) {
+        RunProgress progress = new RunProgress();
+        currentRun = progress;
+
+        int shardCount = properties.getShards();
+        int workersPerShard = properties.getWorkersPerShard();
+        List<BlockingQueue<DueInstallmentKey>> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayBlockingQueue<>(properties.getShardQueueCapacity()));
+        }
+
+        CountDownLatch workersDone = new CountDownLatch(properties.totalWorkers());
+        List<BlockingQueue<DueInstallmentKey>> startedWorkers = new ArrayList<>(properties.totalWorkers());
+        try {
+            for (BlockingQueue<DueInstallmentKey> shard : shards) {
+                for (int w = 0; w < workersPerShard; w++) {
+                    chargeDispatchExecutor.execute(() -> runWorker(shard, progress, workersDone));
+                    startedWorkers.add(shard);
+                }
+            }
+
+            long nextLog = System.nanoTime() + properties.getProgressLogInterval().toNanos();
+            Iterator<DueInstallmentKey> iterator = dueInstallments.iterator();
+            while (iterator.hasNext()) {
+                DueInstallmentKey key = iterator.next();
+                shards.get(shardOf(key.planId(), shardCount)).put(key);
+                progress.scanned.incrementAndGet();
+                if (System.nanoTime() - nextLog > 0) {
+                    logProgress(progress, shards);
+                    beat(heartbeat);
+                    nextLog = System.nanoTime() + properties.getProgressLogInterval().toNanos();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Charge dispatch interrupted after {} due installments", progress.scanned.get());
+        } finally {
+            // Mỗi worker đã start nhận một END_OF_RUN sau phần việc còn lại trong shard của nó
+            for (BlockingQueue<DueInstallmentKey> shard : startedWorkers) {
+                putUninterruptibly(shard, END_OF_RUN);
+            }
+        }
+
+        awaitWorkers(workersDone, progress, shards, heartbeat);
+        RunSummary summary = progress.summary();
+        log.info("Charge dispatch finished: {}", summary);
+        return summary;
+    }
+
+    private void runWorker(BlockingQueue<DueInstallmentKey> shard, RunProgress progress, CountDownLatch workersDone) {
+        try {
+            while (true) {
+                DueInstallmentKey key = shard.take();
+                if (key == END_OF_RUN) {
+                    return;
+                }
+                chargeInstallment(key.id(), progress);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workersDone.countDown();
+        }
+    }
+
+    private void chargeInstallment(String installmentId, RunProgress progress) throws InterruptedException {
+        InstallmentTransactions transaction;
+        try {
+            transaction = installmentChargeService.prepareCharge(installmentId);
+        } catch (Exception e) {
+            log.error("Error preparing charge for installment: {}", installmentId, e);
+            recordError(progress, installmentId);
+            return;
+        }
+        if (transaction == null) {
+            record(progress.skipped, skipped);
+            return;
+        }
+
+        String gateway = transaction.getGatewayProvider();
+        if (!gatewayCircuitBreaker.tryAcquire(gateway)) {
+            // Gateway đang lỗi: chuyển sang retry lúc circuit half-open, không tính là một lần charge
+            try {
+                installmentChargeService.defer(transaction, gatewayCircuitBreaker.deferUntil(gateway));
+                record(progress.deferred, deferred);
+            } catch (Exception e) {
+                log.error("Error deferring charge of installment: {}", installmentId, e);
+                recordError(progress, installmentId);
+            }
+            return;
+        }
+        Semaphore permits = gatewayPermits.computeIfAbsent(gateway,
+                provider -> new Semaphore(properties.gatewayLimit(provider), true));
+        AdaptiveRateLimiter rateLimiter = properties.isShaped() ? rateLimiters.computeIfAbsent(gateway, this::newRateLimiter) : null;
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+        permits.acquire();
+        inFlight.incrementAndGet();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        ChargeOutcome outcome = ChargeOutcome.GATEWAY_ERROR;
+        try {
+            outcome = installmentChargeService.charge(transaction);
+            if (outcome == ChargeOutcome.SUCCEEDED) {
+                record(progress.succeeded, succeeded);
+            } else {
+                record(progress.failed, failed);
+            }
+        } catch (Exception e) {
+            log.error("Error charging installment: {}", installmentId, e);
+            recordError(progress, installmentId);
+        } finally {
+            long latencyNanos = sample.stop(Timer.builder("paylater.dispatch.charge.duration")
+                    .tag("gateway", gateway)
+                    .register(meterRegistry));
+            inFlight.decrementAndGet();
+            permits.release();
+            if (rateLimiter != null) {
+                rateLimiter.onResult(outcome, latencyNanos);
+            }
+            gatewayCircuitBreaker.onResult(gateway, outcome, latencyNanos);
+        }
+    }
+
+    private AdaptiveRateLimiter newRateLimiter(String gateway) {
+        ChargeDispatcherProperties.RateLimit config = properties.getRateLimit();
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(config.gatewayRate(gateway), config);
+        Gauge.builder("paylater.dispatch.rate.limit", rateLimiter, AdaptiveRateLimiter::getRate)
+                .description("Current adaptive charge rate per second")
+                .tag("gateway", gateway)
+                .register(meterRegistry);
+        return rateLimiter;
+    }
+
+    private void awaitWorkers(CountDownLatch workersDone, RunProgress progress,
+                              List<BlockingQueue<DueInstallmentKey>> shards, Runnable heartbeat) {
+        try {
+            while (!workersDone.await(properties.getProgressLogInterval().toMillis(), TimeUnit.MILLISECONDS)) {
+                logProgress(progress, shards);
+                beat(heartbeat);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for charge workers");
+        }
+    }
+
+    private void logProgress(RunProgress progress, List<BlockingQueue<DueInstallmentKey>> shards) {
+        int queued = 0;
+        for (BlockingQueue<DueInstallmentKey> shard : shards) {
+            queued += shard.size();
+        }
+        log.info("Charge dispatch progress: scanned={}, completed={}, queued={}, inFlight={}, elapsed={}s",
+                progress.scanned.get(), progress.completed(), queued, inFlight.get(),
+                (System.nanoTime() - progress.startNanos) / 1_000_000_000);
+    }
+
+    private static void beat(Runnable heartbeat) {
+        try {
+            heartbeat.run();
+        } catch (Exception e) {
+            log.error("Error in charge dispatch heartbeat", e);
+        }
+    }
+
+    private Counter outcomeCounter(String outcome) {
+        return Counter.builder("paylater.dispatch.charges")
+                .description("Due installments handled by the charge dispatcher")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static void record(AtomicLong runCount, Counter counter) {
+        runCount.incrementAndGet();
+        counter.increment();
+    }
+
+    private void recordError(RunProgress progress, String installmentId) {
+        progress.failedInstallments.add(installmentId);
+        record(progress.errors, errors);
+    }
+
+    private static int shardOf(String planId, int shardCount) {
+        int hash = planId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    private static void putUninterruptibly(BlockingQueue<DueInstallmentKey> queue, DueInstallmentKey key) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(key);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class RunProgress {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong deferred = new AtomicLong();
+        private final Set<String> failedInstallments = ConcurrentHashMap.newKeySet();
+
+        private long completed() {
+            return succeeded.get() + failed.get() + skipped.get() + errors.get() + deferred.get();
+        }
+
+        private RunSummary summary() {
+            return new RunSummary(scanned.get(), succeeded.get(), failed.get(), skipped.get(), errors.get(),
+                    deferred.get(), Duration.ofNanos(System.nanoTime() - startNanos), Set.copyOf(failedInstallments));
+        }
+    }
+
+    /**
+     * Totals of one dispatch run, with the IDs of the installments that ended in an error
+     */
+    public record RunSummary(long scanned, long succeeded, long failed, long skipped, long errors, long deferred,
+                             Duration duration, Set<String> failedInstallments) {
+    }
+}
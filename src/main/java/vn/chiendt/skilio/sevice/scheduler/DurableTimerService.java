@@ -0,0 +1,297 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.entity.ScheduledJob;
+import vn.chiendt.skilio.repository.ScheduledJobRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Durable one-shot timers. Every timer is a READY row of scheduled_jobs with run_at = fire time, so timers
+ * survive restarts and are fired by exactly one replica (the one that leases the row). Timers due within the
+ * near horizon are also kept in an in-memory hierarchical timing wheel, which fires them on time instead of
+ * waiting for a poll; startup and the periodic reload only read that window. A poll for overdue rows covers
+ * timers another replica scheduled, timers whose wheel lives in a pod that died, and handler failures.
+ */
+@Slf4j(topic = "DURABLE-TIMER")
+@Component
+public class DurableTimerService {
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final JobQueue jobQueue;
+    private final ScheduledJobRepository scheduledJobRepository;
+    private final Duration tick;
+    private final Duration nearHorizon;
+    private final Duration overdueGrace;
+    private final Duration retryDelay;
+    private final int maxLoaded;
+    private final int fireBatchSize;
+
+    private final Map<JobType, Function<List<ScheduledJob>, List<ScheduledJob>>> handlers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "timer-wheel"));
+    private final ExecutorService firer = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "timer-fire"));
+
+    // guarded by this
+    private final TimingWheel<TimerRef> wheel;
+    private final Map<String, TimingWheel.Timer<TimerRef>> timersByPayload = new HashMap<>();
+    private LocalDateTime loadedUntil;
+
+    public DurableTimerService(JobQueue jobQueue,
+                               ScheduledJobRepository scheduledJobRepository,
+                               @Value("${paylater.timers.tick}") Duration tick,
+                               @Value("${paylater.timers.wheel-size}") int wheelSize,
+                               @Value("${paylater.timers.levels}") int levels,
+                               @Value("${paylater.timers.near-horizon}") Duration nearHorizon,
+                               @Value("${paylater.timers.overdue-grace}") Duration overdueGrace,
+                               @Value("${paylater.jobs.retry-delay}") Duration retryDelay,
+                               @Value("${paylater.timers.max-loaded}") int maxLoaded,
+                               @Value("${paylater.timers.fire-batch-size}") int fireBatchSize) {
+        this.jobQueue = jobQueue;
+        this.scheduledJobRepository = scheduledJobRepository;
+        this.tick = tick;
+        this.nearHorizon = nearHorizon;
+        this.overdueGrace = overdueGrace;
+        this.retryDelay = retryDelay;
+        this.maxLoaded = maxLoaded;
+        this.fireBatchSize = fireBatchSize;
+        this.wheel = new TimingWheel<>(tick.toMillis(), wheelSize, levels, System.currentTimeMillis());
+        if (wheel.horizonMs() < nearHorizon.toMillis()) {
+            throw new IllegalStateException("paylater.timers.near-horizon " + nearHorizon
+                    + " is beyond the timing wheel horizon of " + wheel.horizonMs() + " ms");
+        }
+    }
+
+    /**
+     * Register the handler that runs fired timers of a type. The handler runs on the timer thread and returns
+     * the jobs it could not finish; those are released for another attempt and the rest are completed. If it
+     * throws, every job is released.
+     * @param jobType Timer type
+     * @param handler Handler for a batch of leased timer jobs, returns the failed jobs
+     */
+    public void registerHandler(JobType jobType, Function<List<ScheduledJob>, List<ScheduledJob>> handler) {
+        handlers.put(jobType, handler);
+    }
+
+    /**
+     * Schedule a timer. Joins the caller's transaction, so the timer exists only if the caller commits.
+     * @param jobType Timer type, must have a registered handler
+     * @param jobKey Idempotency key, scheduling the same key twice keeps the first timer
+     * @param payload Payload handed to the handler, also used to cancel the timer
+     * @param shardKey Shard key, may be null
+     * @param fireAt Fire time
+     * @return True if the timer was added, false if the key already exists
+     */
+    public boolean schedule(JobType jobType, String jobKey, String payload, String shardKey, LocalDateTime fireAt) {
+        String id = jobQueue.schedule(jobType, jobKey, payload, shardKey, fireAt);
+        if (id == null) {
+            log.debug("Timer {} already exists", jobKey);
+            return false;
+        }
+        TimerRef ref = new TimerRef(id, jobType, payload);
+        synchronized (this) {
+            // Sau loadedUntil thì lần reload tiếp theo sẽ nạp timer này vào wheel
+            if (loadedUntil != null && !fireAt.isAfter(loadedUntil)) {
+                addToWheel(ref, fireAt);
+            }
+        }
+        log.debug("Scheduled {} timer {} at {}", jobType, jobKey, fireAt);
+        return true;
+    }
+
+    /**
+     * Cancel the pending timers of a type for a payload. A timer already fired is not affected.
+     * @param jobType Timer type
+     * @param payload Payload the timer was scheduled with
+     * @return Number of timers cancelled
+     */
+    public int cancel(JobType jobType, String payload) {
+        synchronized (this) {
+            TimingWheel.Timer<TimerRef> timer = timersByPayload.remove(payloadKey(jobType, payload));
+            if (timer != null) {
+                wheel.cancel(timer);
+            }
+        }
+        return jobQueue.cancel(jobType, payload);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        // Timer quá hạn (run_at <= now) cũng được nạp, nó sẽ fire ngay ở tick đầu tiên
+        loadNearHorizon();
+        ticker.scheduleAtFixedRate(this::advance, tick.toMillis(), tick.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Timing wheel started: tick {}, near horizon {}", tick, nearHorizon);
+    }
+
+    /**
+     * Load the READY timers due between the last loaded time and now + near horizon into the wheel
+     */
+    @Scheduled(fixedDelayString = "${paylater.timers.reload-interval-ms}",
+            initialDelayString = "${paylater.timers.reload-interval-ms}")
+    public void loadNearHorizon() {
+        if (handlers.isEmpty()) {
+            return;
+        }
+        try {
+            LocalDateTime from;
+            synchronized (this) {
+                from = loadedUntil == null ? EPOCH : loadedUntil;
+            }
+            LocalDateTime to = LocalDateTime.now().plus(nearHorizon);
+            List<ScheduledJob> jobs = scheduledJobRepository.findReadyBetween(
+                    handlers.keySet(), from, to, PageRequest.of(0, maxLoaded));
+            if (jobs.size() == maxLoaded) {
+                // Wheel đầy: chỉ nạp tới run_at cuối cùng, phần còn lại được nạp ở lần sau
+                to = jobs.get(jobs.size() - 1).getRunAt();
+                log.warn("Loaded the maximum of {} timers, near horizon cut to {}", maxLoaded, to);
+            }
+            synchronized (this) {
+                for (ScheduledJob job : jobs) {
+                    if (!job.getRunAt().isAfter(to)) {
+                        addToWheel(new TimerRef(job.getId(), job.getJobType(), job.getPayload()), job.getRunAt());
+                    }
+                }
+                loadedUntil = to;
+            }
+            log.debug("Loaded {} timers due until {}, {} timers in the wheel", jobs.size(), to, wheel.size());
+        } catch (Exception e) {
+            log.error("Error loading timers into the timing wheel", e);
+        }
+    }
+
+    /**
+     * Fire overdue timers that the wheel of this instance did not fire
+     */
+    @Scheduled(fixedDelayString = "${paylater.timers.overdue-poll-ms}")
+    public void fireOverdue() {
+        LocalDateTime dueBefore = LocalDateTime.now().minus(overdueGrace);
+        for (JobType jobType : handlers.keySet()) {
+            try {
+                List<ScheduledJob> jobs;
+                do {
+                    jobs = jobQueue.claim(jobType, fireBatchSize, dueBefore);
+                    if (!jobs.isEmpty()) {
+                        log.info("Firing {} overdue {} timers", jobs.size(), jobType);
+                        run(jobType, jobs);
+                    }
+                } while (jobs.size() == fireBatchSize);
+            } catch (Exception e) {
+                log.error("Error firing overdue {} timers", jobType, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+        firer.shutdown();
+    }
+
+    private void advance() {
+        List<TimerRef> expired = new ArrayList<>();
+        try {
+            synchronized (this) {
+                wheel.advance(System.currentTimeMillis(), ref -> {
+                    String key = payloadKey(ref.jobType(), ref.payload());
+                    TimingWheel.Timer<TimerRef> timer = timersByPayload.get(key);
+                    if (timer != null && timer.getValue() == ref) {
+                        timersByPayload.remove(key);
+                    }
+                    expired.add(ref);
+                });
+            }
+        } catch (Exception e) {
+            log.error("Error advancing the timing wheel", e);
+        }
+        if (!expired.isEmpty()) {
+            firer.execute(() -> fire(expired));
+        }
+    }
+
+    private void addToWheel(TimerRef ref, LocalDateTime fireAt) {
+        TimingWheel.Timer<TimerRef> timer = wheel.add(toEpochMillis(fireAt), ref);
+        if (timer == null) {
+            // Đã tới hạn
+            firer.execute(() -> fire(List.of(ref)));
+            return;
+        }
+        // Payload có nhiều timer thì chỉ giữ handle mới nhất; timer cũ đã bị hủy trong DB nên fire cũng không claim được
+        timersByPayload.put(payloadKey(ref.jobType(), ref.payload()), timer);
+    }
+
+    private void fire(List<TimerRef> refs) {
+        LocalDateTime dueBefore = LocalDateTime.now();
+        Map<JobType, List<String>> idsByType = new EnumMap<>(JobType.class);
+        for (TimerRef ref : refs) {
+            idsByType.computeIfAbsent(ref.jobType(), type -> new ArrayList<>()).add(ref.jobId());
+        }
+        idsByType.forEach((jobType, ids) -> {
+            for (int from = 0; from < ids.size(); from += fireBatchSize) {
+                List<String> chunk = ids.subList(from, Math.min(from + fireBatchSize, ids.size()));
+                try {
+                    // Timer đã bị hủy, đã chạy, hoặc đang được replica khác chạy thì không claim được
+                    List<ScheduledJob> jobs = jobQueue.claimIds(chunk, dueBefore);
+                    if (!jobs.isEmpty()) {
+                        run(jobType, jobs);
+                    }
+                } catch (Exception e) {
+                    log.error("Error firing {} {} timers", chunk.size(), jobType, e);
+                }
+            }
+        });
+    }
+
+    private void run(JobType jobType, List<ScheduledJob> jobs) {
+        Function<List<ScheduledJob>, List<ScheduledJob>> handler = handlers.get(jobType);
+        if (handler == null) {
+            log.error("No handler registered for {} timers, releasing {} jobs", jobType, jobs.size());
+            jobs.forEach(job -> jobQueue.fail(job, "No handler registered", retryDelay));
+            return;
+        }
+        try {
+            List<ScheduledJob> failed = handler.apply(jobs);
+            failed.forEach(job -> jobQueue.fail(job, "Timer handler failed", retryDelay));
+            jobQueue.complete(failed.isEmpty() ? jobs : jobs.stream().filter(job -> !failed.contains(job)).toList());
+        } catch (Exception e) {
+            log.error("Error running {} {} timers", jobs.size(), jobType, e);
+            jobs.forEach(job -> jobQueue.fail(job, e.getMessage(), retryDelay));
+        }
+    }
+
+    private static String payloadKey(JobType jobType, String payload) {
+        return jobType.name() + ':' + payload;
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        // Làm tròn lên millisecond: wheel không được fire trước run_at
+        return instant.toEpochMilli() + (instant.getNano() % 1_000_000 == 0 ? 0 : 1);
+    }
+
+    private record TimerRef(String jobId, JobType jobType, String payload) {
+    }
+}
@@ -0,0 +1,195 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.config.ChargeDispatcherProperties;
+import vn.chiendt.skilio.constant.ChargeOutcome;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker per gateway provider, shared by the charge dispatcher and the retry paths.
+ * CLOSED while the failure rate and slow-call rate of the sliding window stay under their thresholds;
+ * OPEN for openDuration once either is reached (every charge is deferred); then HALF_OPEN lets a few
+ * trial charges through and closes again if they all succeed in time, or re-opens on the first bad one.
+ * The phase is an immutable object swapped with a CAS, so no lock is taken on the charge path.
+ * Only gateway errors count as failures: a declined card means the gateway is healthy.
+ */
+@Slf4j(topic = "GATEWAY-CIRCUIT-BREAKER")
+@Component
+public class GatewayCircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final ChargeDispatcherProperties.CircuitBreaker config;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public GatewayCircuitBreaker(ChargeDispatcherProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getCircuitBreaker();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Ask to call the gateway. A granted call must be reported with onResult.
+     * @param gateway Gateway provider
+     * @return false while the circuit is open (or all half-open trial calls are taken): defer the charge
+     */
+    public boolean tryAcquire(String gateway) {
+        if (!config.isEnabled()) {
+            return true;
+        }
+        Breaker breaker = breaker(gateway);
+        while (true) {
+            Phase phase = breaker.phase.get();
+            long now = System.nanoTime();
+            if (phase.state == State.CLOSED) {
+                return true;
+            }
+            if (phase.state == State.OPEN) {
+                if (now - phase.untilNanos < 0) {
+                    breaker.deferred.increment();
+                    return false;
+                }
+                if (breaker.transition(phase, Phase.halfOpen(config))) {
+                    log.info("Circuit of gateway {} half-open, letting {} trial charges through",
+                            gateway, config.getHalfOpenCalls());
+                }
+                continue;
+            }
+            if (phase.permits.getAndDecrement() > 0) {
+                return true;
+            }
+            // Trial call bị mất kết quả (interrupt, crash) thì sau openDuration mở lại lượt thử mới
+            if (now - phase.untilNanos >= 0 && breaker.transition(phase, Phase.halfOpen(config))) {
+                continue;
+            }
+            breaker.deferred.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Report the result of a call granted by tryAcquire
+     * @param gateway Gateway provider
+     * @param outcome Charge outcome
+     * @param latencyNanos Duration of the gateway call
+     */
+    public void onResult(String gateway, ChargeOutcome outcome, long latencyNanos) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        Breaker breaker = breaker(gateway);
+        boolean failure = outcome == ChargeOutcome.GATEWAY_ERROR;
+        boolean slow = latencyNanos > config.getSlowCallDuration().toNanos();
+        Phase phase = breaker.phase.get();
+        switch (phase.state) {
+            case CLOSED -> {
+                breaker.window.record(failure, slow);
+                SlidingWindowMetrics.Snapshot window = breaker.window.snapshot();
+                if (window.calls() >= config.getMinimumCalls()
+                        && (window.failureRate() >= config.getFailureRateThreshold()
+                        || window.slowCallRate() >= config.getSlowCallRateThreshold())
+                        && breaker.transition(phase, Phase.open(config))) {
+                    log.warn("Circuit of gateway {} opened for {}: {} calls, failure rate {}%, slow-call rate {}%",
+                            gateway, config.getOpenDuration(), window.calls(),
+                            Math.round(window.failureRate()), Math.round(window.slowCallRate()));
+                }
+            }
+            case HALF_OPEN -> {
+                if (failure || slow) {
+                    if (breaker.transition(phase, Phase.open(config))) {
+                        log.warn("Circuit of gateway {} re-opened after a failed trial charge", gateway);
+                    }
+                } else if (phase.successes.incrementAndGet() >= config.getHalfOpenCalls()
+                        && breaker.transition(phase, Phase.closed())) {
+                    breaker.window.reset();
+                    log.info("Circuit of gateway {} closed", gateway);
+                }
+            }
+            default -> {
+                // Kết quả của call bắt đầu trước khi circuit mở, bỏ qua
+            }
+        }
+    }
+
+    /**
+     * Time to defer a charge refused by tryAcquire to: when the circuit half-opens, plus a random
+     * spread so deferred charges do not all come back at once
+     * @param gateway Gateway provider
+     */
+    public LocalDateTime deferUntil(String gateway) {
+        Phase phase = breaker(gateway).phase.get();
+        long remainingNanos = phase.state == State.OPEN
+                ? Math.max(0, phase.untilNanos - System.nanoTime())
+                : config.getOpenDuration().toNanos();
+        long spreadNanos = config.getDeferSpread().toNanos();
+        long jitterNanos = spreadNanos > 0 ? ThreadLocalRandom.current().nextLong(spreadNanos) : 0;
+        return LocalDateTime.now().plus(remainingNanos + jitterNanos, ChronoUnit.NANOS);
+    }
+
+    public State getState(String gateway) {
+        Breaker breaker = breakers.get(gateway);
+        return breaker == null ? State.CLOSED : breaker.phase.get().state;
+    }
+
+    private Breaker breaker(String gateway) {
+        return breakers.computeIfAbsent(gateway, this::newBreaker);
+    }
+
+    private Breaker newBreaker(String gateway) {
+        Breaker breaker = new Breaker(new SlidingWindowMetrics(config.getWindow(), config.getWindowBuckets()),
+                Counter.builder("paylater.gateway.circuit.deferred")
+                        .description("Charges deferred because the gateway circuit was open")
+                        .tag("gateway", gateway)
+                        .register(meterRegistry));
+        Gauge.builder("paylater.gateway.circuit.state", breaker, b -> b.phase.get().state.ordinal())
+                .description("Gateway circuit state: 0 closed, 1 half-open, 2 open")
+                .tag("gateway", gateway)
+                .register(meterRegistry);
+        return breaker;
+    }
+
+    private static final class Breaker {
+        private final SlidingWindowMetrics window;
+        private final Counter deferred;
+        private final AtomicReference<Phase> phase = new AtomicReference<>(Phase.closed());
+
+        private Breaker(SlidingWindowMetrics window, Counter deferred) {
+            this.window = window;
+            this.deferred = deferred;
+        }
+
+        private boolean transition(Phase from, Phase to) {
+            return phase.compareAndSet(from, to);
+        }
+    }
+
+    /**
+     * One circuit phase; untilNanos is the end of OPEN, or when lost HALF_OPEN trials are handed out again
+     */
+    private record Phase(State state, long untilNanos, AtomicInteger permits, AtomicInteger successes) {
+
+        private static Phase closed() {
+            return new Phase(State.CLOSED, 0, null, null);
+        }
+
+        private static Phase open(ChargeDispatcherProperties.CircuitBreaker config) {
+            return new Phase(State.OPEN, System.nanoTime() + config.getOpenDuration().toNanos(), null, null);
+        }
+
+        private static Phase halfOpen(ChargeDispatcherProperties.CircuitBreaker config) {
+            return new Phase(State.HALF_OPEN, System.nanoTime() + config.getOpenDuration().toNanos(),
+                    new AtomicInteger(config.getHalfOpenCalls()), new AtomicInteger());
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.JobStatus;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.entity.ScheduledJob;
+import vn.chiendt.skilio.repository.ScheduledJobRepository;
+import vn.chiendt.skilio.utils.TimeOrderedUuid;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Database work queue shared by all replicas (table scheduled_jobs).
+ * Jobs are enqueued idempotently by job key and leased with FOR UPDATE SKIP LOCKED, so each
+ * job is held by one pod at a time. A lease that is not completed before it expires (pod crash)
+ * makes the job claimable again; completing or releasing checks the owner, so a pod that lost
+ * its lease cannot overwrite the new owner's result.
+ */
+@Component
+@Slf4j(topic = "JOB-QUEUE")
+public class JobQueue {
+
+    private static final String INSERT_SQL = "INSERT INTO scheduled_jobs " +
+            "(id, job_type, job_key, payload, shard_key, status, run_at, attempts, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, 'READY', ?, 0, ?, ?) ON CONFLICT (job_key) DO NOTHING";
+    private static final int PURGE_BATCH_SIZE = 10_000;
+
+    private final ScheduledJobRepository scheduledJobRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String owner;
+    private final Duration leaseDuration;
+    private final int maxAttempts;
+    private final Duration retention;
+
+    public JobQueue(ScheduledJobRepository scheduledJobRepository,
+                    JdbcTemplate jdbcTemplate,
+                    TransactionTemplate transactionTemplate,
+                    @Value("${HOSTNAME:local}") String hostname,
+                    @Value("${paylater.jobs.lease}") Duration leaseDuration,
+                    @Value("${paylater.jobs.max-attempts}") int maxAttempts,
+                    @Value("${paylater.jobs.retention}") Duration retention) {
+        this.scheduledJobRepository = scheduledJobRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.owner = hostname + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.leaseDuration = leaseDuration;
+        this.maxAttempts = maxAttempts;
+        this.retention = retention;
+        log.info("Job queue lease owner: {}", owner);
+    }
+
+    /**
+     * Enqueue a job unless a job with the same key already exists
+     * @param jobType Job type
+     * @param jobKey Idempotency key
+     * @param payload Payload
+     * @param shardKey Shard key, may be null
+     * @param runAt Earliest run time
+     * @return True if the job was added
+     */
+    public boolean enqueue(JobType jobType, String jobKey, String payload, String shardKey, LocalDateTime runAt) {
+        return schedule(jobType, jobKey, payload, shardKey, runAt) != null;
+    }
+
+    /**
+     * Enqueue a job unless a job with the same key already exists
+     * @param jobType Job type
+     * @param jobKey Idempotency key
+     * @param payload Payload
+     * @param shardKey Shard key, may be null
+     * @param runAt Earliest run time
+     * @return ID of the added job, null if the key already exists
+     */
+    public String schedule(JobType jobType, String jobKey, String payload, String shardKey, LocalDateTime runAt) {
+        String id = TimeOrderedUuid.nextString();
+        LocalDateTime now = LocalDateTime.now();
+        int added = jdbcTemplate.update(INSERT_SQL, id, jobType.name(), jobKey, payload, shardKey, runAt, now, now);
+        return added > 0 ? id : null;
+    }
+
+    /**
+     * Enqueue jobs in one JDBC batch, keys that already exist are skipped
+     * @param jobType Job type
+     * @param jobs Jobs
+     * @return Number of jobs added
+     */
+    public int enqueueAll(JobType jobType, List<JobRequest> jobs) {
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> rows = new ArrayList<>(jobs.size());
+        for (JobRequest job : jobs) {
+            rows.add(new Object[]{TimeOrderedUuid.nextString(), jobType.name(), job.jobKey(), job.payload(),
+                    job.shardKey(), job.runAt(), now, now});
+        }
+
+        int added = 0;
+        for (int count : jdbcTemplate.batchUpdate(INSERT_SQL, rows)) {
+            // SUCCESS_NO_INFO (-2) khi driver không trả về số dòng
+            added += count == 0 ? 0 : 1;
+        }
+        return added;
+    }
+
+    /**
+     * Lease up to limit claimable jobs of a type to this instance
+     * @param jobType Job type
+     * @param limit Maximum number of jobs
+     * @return Leased jobs, empty if there is nothing to do
+     */
+    public List<ScheduledJob> claim(JobType jobType, int limit) {
+        return claim(jobType, limit, LocalDateTime.now());
+    }
+
+    /**
+     * Lease up to limit jobs of a type that were due before the given time
+     * @param jobType Job type
+     * @param limit Maximum number of jobs
+     * @param dueBefore Only jobs due (or with a lease expired) before this time
+     * @return Leased jobs, empty if there is nothing to do
+     */
+    public List<ScheduledJob> claim(JobType jobType, int limit, LocalDateTime dueBefore) {
+        List<ScheduledJob> jobs = transactionTemplate.execute(status ->
+                lease(scheduledJobRepository.lockClaimable(jobType.name(), dueBefore, limit)));
+        return jobs == null ? Collections.emptyList() : jobs;
+    }
+
+    /**
+     * Lease the given jobs if they are still claimable (not done, cancelled or leased elsewhere)
+     * @param ids Job IDs
+     * @param dueBefore Only jobs due before this time
+     * @return Leased jobs
+     */
+    public List<ScheduledJob> claimIds(Collection<String> ids, LocalDateTime dueBefore) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ScheduledJob> jobs = transactionTemplate.execute(status ->
+                lease(scheduledJobRepository.lockClaimableByIds(ids, dueBefore)));
+        return jobs == null ? Collections.emptyList() : jobs;
+    }
+
+    /**
+     * Cancel the READY jobs of a type for a payload
+     * @param jobType Job type
+     * @param payload Payload
+     * @return Number of jobs cancelled
+     */
+    public int cancel(JobType jobType, String payload) {
+        Integer cancelled = transactionTemplate.execute(status ->
+                scheduledJobRepository.cancelReady(jobType, payload, LocalDateTime.now()));
+        return cancelled == null ? 0 : cancelled;
+    }
+
+    private List<ScheduledJob> lease(List<ScheduledJob> claimed) {
+        LocalDateTime now = LocalDateTime.now();
+        for (ScheduledJob job : claimed) {
+            if (job.getStatus() == JobStatus.LEASED) {
+                log.warn("Reclaiming {} job {} from expired lease of {}", job.getJobType(), job.getId(), job.getLeaseOwner());
+            }
+            job.setStatus(JobStatus.LEASED);
+            job.setLeaseOwner(owner);
+            job.setLeaseExpiresAt(now.plus(leaseDuration));
+            job.setAttempts(job.getAttempts() + 1);
+            job.setUpdatedAt(now);
+        }
+        return claimed;
+    }
+
+    /**
+     * Extend the lease of a long-running job
+     * @param job Leased job
+     * @return False if the lease was already lost to another instance
+     */
+    public boolean extendLease(ScheduledJob job) {
+        LocalDateTime leaseExpiresAt = LocalDateTime.now().plus(leaseDuration);
+        Integer updated = transactionTemplate.execute(status ->
+                scheduledJobRepository.extendLease(job.getId(), owner, leaseExpiresAt));
+        if (updated == null || updated == 0) {
+            log.warn("Lease of {} job {} lost", job.getJobType(), job.getId());
+            return false;
+        }
+        job.setLeaseExpiresAt(leaseExpiresAt);
+        return true;
+    }
+
+    /**
+     * Extend the leases of a batch of jobs that are still being worked on
+     * @param jobs Jobs leased by this instance
+     * @return Number of leases extended, lower than jobs.size() if some leases were lost
+     */
+    public int extendLeases(List<ScheduledJob> jobs) {
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        List<String> ids = new ArrayList<>(jobs.size());
+        for (ScheduledJob job : jobs) {
+            ids.add(job.getId());
+        }
+        LocalDateTime leaseExpiresAt = LocalDateTime.now().plus(leaseDuration);
+        Integer extended = transactionTemplate.execute(status ->
+                scheduledJobRepository.extendLeases(ids, owner, leaseExpiresAt));
+        int count = extended == null ? 0 : extended;
+        if (count < jobs.size()) {
+            log.warn("{} of {} job leases were lost by {}", jobs.size() - count, jobs.size(), owner);
+        }
+        return count;
+    }
+
+    /**
+     * Mark leased jobs DONE
+     * @param jobs Jobs leased by this instance
+     * @return Number of jobs completed, lower than jobs.size() if some leases were lost
+     */
+    public int complete(List<ScheduledJob> jobs) {
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        List<String> ids = new ArrayList<>(jobs.size());
+        for (ScheduledJob job : jobs) {
+            ids.add(job.getId());
+        }
+        Integer completed = transactionTemplate.execute(status ->
+                scheduledJobRepository.complete(ids, owner, LocalDateTime.now()));
+        int count = completed == null ? 0 : completed;
+        if (count < jobs.size()) {
+            log.warn("{} of {} jobs were no longer leased to {}", jobs.size() - count, jobs.size(), owner);
+        }
+        return count;
+    }
+
+    /**
+     * Release a job after a failure: retried after retryDelay, or FAILED once max-attempts is reached
+     * @param job Job leased by this instance
+     * @param error Error message
+     * @param retryDelay Delay before the next attempt
+     */
+    public void fail(ScheduledJob job, String error, Duration retryDelay) {
+        LocalDateTime now = LocalDateTime.now();
+        JobStatus status = job.getAttempts() >= maxAttempts ? JobStatus.FAILED : JobStatus.READY;
+        Integer updated = transactionTemplate.execute(tx -> scheduledJobRepository.release(
+                job.getId(), owner, status, now.plus(retryDelay), error, now));
+        if (updated == null || updated == 0) {
+            log.warn("Lease of {} job {} lost before release", job.getJobType(), job.getId());
+            return;
+        }
+        log.warn("{} job {} failed on attempt {}, now {}: {}", job.getJobType(), job.getId(), job.getAttempts(), status, error);
+    }
+
+    /**
+     * Delete DONE / CANCELLED jobs older than the retention, in chunks
+     */
+    @Scheduled(cron = "0 0 3 * * ?") // Run daily at 3 AM
+    public void purgeDoneJobs() {
+        LocalDateTime before = LocalDateTime.now().minus(retention);
+        long deleted = 0;
+        while (true) {
+            Integer count = transactionTemplate.execute(status ->
+                    scheduledJobRepository.deleteDoneBefore(before, PURGE_BATCH_SIZE));
+            if (count == null || count == 0) {
+                break;
+            }
+            deleted += count;
+        }
+        log.info("Purged {} finished jobs older than {}", deleted, before);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Job to enqueue
+     */
+    public record JobRequest(String jobKey, String payload, String shardKey, LocalDateTime runAt) {
+    }
+}
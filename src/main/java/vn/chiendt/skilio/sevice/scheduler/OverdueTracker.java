@@ -0,0 +1,389 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
+import vn.chiendt.skilio.domain.dto.DueInstallmentKey;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.repository.InstallmentRepository;
+import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory set of overdue (unpaid past due date + grace) installments, keyed by plan.
+ * Each tick only reads the installments whose due date crossed the grace line since the previous tick,
+ * through the (due_date, id) index; startup loads the lookback window once. Installments paid or plans
+ * closed elsewhere are dropped by a periodic reconcile of the tracked IDs. Plans with too many missed
+ * installments, or overdue for too long, are moved to DEFAULTED.
+ */
+@Slf4j(topic = "OVERDUE-TRACKER")
+@Component
+public class OverdueTracker {
+
+    private final InstallmentRepository installmentRepository;
+    private final PaylaterPlansRepository paylaterPlansRepository;
+    private final OutboxService outboxService;
+    private final PaylaterPlanCache paylaterPlanCache;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration grace;
+    private final Duration lookback;
+    private final int pageSize;
+    private final int defaultAfterDays;
+    private final int defaultAfterMissed;
+
+    private final Map<String, PlanOverdue> overdueByPlan = new ConcurrentHashMap<>();
+    private final AtomicInteger installmentCount = new AtomicInteger();
+    private final Counter defaulted;
+    private volatile LocalDateTime watermark; // installment có due date < watermark đã được xét
+    private volatile LocalDateTime lastTickAt;
+
+    public OverdueTracker(InstallmentRepository installmentRepository,
+                          PaylaterPlansRepository paylaterPlansRepository,
+                          OutboxService outboxService,
+                          PaylaterPlanCache paylaterPlanCache,
+                          TransactionTemplate transactionTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${paylater.overdue.grace}") Duration grace,
+                          @Value("${paylater.overdue.lookback}") Duration lookback,
+                          @Value("${paylater.overdue.page-size}") int pageSize,
+                          @Value("${paylater.overdue.default-after-days}") int defaultAfterDays,
+                          @Value("${paylater.overdue.default-after-missed}") int defaultAfterMissed) {
+        this.installmentRepository = installmentRepository;
+        this.paylaterPlansRepository = paylaterPlansRepository;
+        this.outboxService = outboxService;
+        this.paylaterPlanCache = paylaterPlanCache;
+        this.transactionTemplate = transactionTemplate;
+        this.grace = grace;
+        this.lookback = lookback;
+        this.pageSize = pageSize;
+        this.defaultAfterDays = defaultAfterDays;
+        this.defaultAfterMissed = defaultAfterMissed;
+
+        Gauge.builder("paylater.overdue.plans", overdueByPlan, Map::size)
+                .description("Plans with at least one overdue installment")
+                .register(meterRegistry);
+        Gauge.builder("paylater.overdue.installments", installmentCount, AtomicInteger::get)
+                .description("Overdue installments")
+                .register(meterRegistry);
+        this.defaulted = Counter.builder("paylater.overdue.defaulted")
+                .description("Plans moved to DEFAULTED by the overdue tracker")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        tick();
+    }
+
+    /**
+     * Track the installments that became overdue since the previous tick, then apply the default thresholds
+     */
+    @Scheduled(fixedDelayString = "${paylater.overdue.tick-ms}", initialDelayString = "${paylater.overdue.tick-ms}")
+    public synchronized void tick() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime to = now.minus(grace);
+            LocalDateTime from = watermark == null ? to.minus(lookback) : watermark;
+            int added = 0;
+            if (to.isAfter(from)) {
+                added = track(from, to);
+                watermark = to;
+            }
+            int defaultedPlans = applyDefaultThresholds(now);
+            lastTickAt = now;
+            if (added > 0 || defaultedPlans > 0) {
+                log.info("{} installments became overdue, {} plans defaulted, tracking {} installments of {} plans",
+                        added, defaultedPlans, installmentCount.get(), overdueByPlan.size());
+            }
+        } catch (Exception e) {
+            log.error("Error updating overdue installments", e);
+        }
+    }
+
+    /**
+     * Drop tracked installments that were paid, and plans that were cancelled, completed or defaulted elsewhere
+     */
+    @Scheduled(fixedDelayString = "${paylater.overdue.reconcile-interval-ms}",
+            initialDelayString = "${paylater.overdue.reconcile-interval-ms}")
+    public void reconcile() {
+        try {
+            List<DueInstallmentKey> tracked = new ArrayList<>(installmentCount.get());
+            overdueByPlan.forEach((planId, plan) -> {
+                for (int i = 0; i < plan.installmentIds().length; i++) {
+                    tracked.add(new DueInstallmentKey(plan.dueDates()[i], plan.installmentIds()[i], planId));
+                }
+            });
+            int removed = 0;
+            for (int from = 0; from < tracked.size(); from += pageSize) {
+                List<DueInstallmentKey> chunk = tracked.subList(from, Math.min(from + pageSize, tracked.size()));
+                Set<String> stillUnpaid = new HashSet<>(installmentRepository.findStillUnpaidIds(
+                        chunk.stream().map(DueInstallmentKey::id).toList()));
+                for (DueInstallmentKey key : chunk) {
+                    if (!stillUnpaid.contains(key.id())) {
+                        removed += removeInstallment(key.planId(), key.id());
+                    }
+                }
+            }
+            log.debug("Reconciled {} overdue installments, {} no longer overdue", tracked.size(), removed);
+        } catch (Exception e) {
+            log.error("Error reconciling overdue installments", e);
+        }
+    }
+
+    /**
+     * @return IDs of all overdue installments
+     */
+    public List<String> getOverdueInstallmentIds() {
+        List<String> ids = new ArrayList<>(installmentCount.get());
+        overdueByPlan.values().forEach(plan -> ids.addAll(Arrays.asList(plan.installmentIds())));
+        return ids;
+    }
+
+    /**
+     * @param planId Plan ID
+     * @return Days since the oldest overdue installment of the plan was due, 0 if none is overdue
+     */
+    public int getDaysOverdue(String planId) {
+        PlanOverdue plan = overdueByPlan.get(planId);
+        return plan == null ? 0 : daysOverdue(plan, LocalDateTime.now());
+    }
+
+    /**
+     * Overdue plans grouped by days overdue (1-30, 31-60, 61-90, 90+)
+     * @return Summary of the current overdue set
+     */
+    public Summary getSummary() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Integer> plansByDaysOverdue = new LinkedHashMap<>();
+        for (String bucket : List.of("1-30", "31-60", "61-90", "90+")) {
+            plansByDaysOverdue.put(bucket, 0);
+        }
+        for (PlanOverdue plan : overdueByPlan.values()) {
+            int days = daysOverdue(plan, now);
+            String bucket = days <= 30 ? "1-30" : days <= 60 ? "31-60" : days <= 90 ? "61-90" : "90+";
+            plansByDaysOverdue.merge(bucket, 1, Integer::sum);
+        }
+        return new Summary(overdueByPlan.size(), installmentCount.get(), plansByDaysOverdue, watermark, lastTickAt);
+    }
+
+    /**
+     * Stop tracking a plan (cancelled, completed, defaulted)
+     * @param planId Plan ID
+     */
+    public void removePlan(String planId) {
+        PlanOverdue removed = overdueByPlan.remove(planId);
+        if (removed != null) {
+            installmentCount.addAndGet(-removed.installmentIds().length);
+        }
+    }
+
+    private int track(LocalDateTime from, LocalDateTime to) {
+        Pageable page = PageRequest.of(0, pageSize);
+        LocalDateTime afterDueDate = from;
+        String afterId = "";
+        int added = 0;
+        List<DueInstallmentKey> keys;
+        do {
+            keys = installmentRepository.findUnpaidDueKeysAfter(from, to, afterDueDate, afterId, page);
+            for (DueInstallmentKey key : keys) {
+                added += addInstallment(key);
+            }
+            if (!keys.isEmpty()) {
+                DueInstallmentKey last = keys.get(keys.size() - 1);
+                afterDueDate = last.dueDate();
+                afterId = last.id();
+            }
+        } while (keys.size() == pageSize);
+        return added;
+    }
+
+    private int addInstallment(DueInstallmentKey key) {
+        int[] added = new int[1];
+        overdueByPlan.compute(key.planId(), (planId, plan) -> {
+            if (plan == null) {
+                added[0] = 1;
+                return new PlanOverdue(new String[]{key.id()}, new LocalDateTime[]{key.dueDate()});
+            }
+            if (plan.indexOf(key.id()) >= 0) {
+                return plan;
+            }
+            added[0] = 1;
+            return plan.with(key.id(), key.dueDate());
+        });
+        installmentCount.addAndGet(added[0]);
+        return added[0];
+    }
+
+    private int removeInstallment(String planId, String installmentId) {
+        int[] removed = new int[1];
+        overdueByPlan.computeIfPresent(planId, (id, plan) -> {
+            int index = plan.indexOf(installmentId);
+            if (index < 0) {
+                return plan;
+            }
+            removed[0] = 1;
+            return plan.installmentIds().length == 1 ? null : plan.without(index);
+        });
+        installmentCount.addAndGet(-removed[0]);
+        return removed[0];
+    }
+
+    private int applyDefaultThresholds(LocalDateTime now) {
+        int count = 0;
+        for (Map.Entry<String, PlanOverdue> entry : overdueByPlan.entrySet()) {
+            PlanOverdue plan = entry.getValue();
+            if (!reachesDefaultThreshold(plan, now)) {
+                continue;
+            }
+            String planId = entry.getKey();
+            Set<String> stillUnpaid = new HashSet<>();
+            try {
+                if (markDefaulted(planId, plan, now, stillUnpaid)) {
+                    count++;
+                    removePlan(planId);
+                    continue;
+                }
+                // Không default: bỏ các installment đã được trả, phần còn lại vẫn được theo dõi
+                for (String installmentId : plan.installmentIds()) {
+                    if (!stillUnpaid.contains(installmentId)) {
+                        removeInstallment(planId, installmentId);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Error defaulting plan {}", planId, e);
+            }
+        }
+        return count;
+    }
+
+    private boolean reachesDefaultThreshold(PlanOverdue plan, LocalDateTime now) {
+        return plan.installmentIds().length >= defaultAfterMissed || daysOverdue(plan, now) >= defaultAfterDays;
+    }
+
+    private boolean markDefaulted(String planId, PlanOverdue plan, LocalDateTime now, Set<String> stillUnpaid) {
+        String[] message = new String[1];
+        Boolean updated = transactionTemplate.execute(status -> {
+            // Bộ nhớ chỉ bỏ installment đã trả ở lần reconcile sau: đếm lại ngay trong transaction này,
+            // DEFAULTED không thể hoàn tác
+            stillUnpaid.addAll(installmentRepository.findStillUnpaidIds(Arrays.asList(plan.installmentIds())));
+            PlanOverdue overdue = plan.retain(stillUnpaid);
+            if (overdue == null || !reachesDefaultThreshold(overdue, now)) {
+                return false;
+            }
+            message[0] = overdue.installmentIds().length + " installments overdue, oldest "
+                    + daysOverdue(overdue, now) + " days";
+            // Update có điều kiện: chỉ một replica chuyển trạng thái và ghi event
+            if (paylaterPlansRepository.markDefaulted(planId) == 0) {
+                return false;
+            }
+            outboxService.append(PlanLifecycleMessage.builder()
+                    .eventType(PlanEventType.PLAN_STATUS_CHANGED)
+                    .planId(planId)
+                    .status(PaylaterStatus.DEFAULTED.name())
+                    .message(message[0])
+                    .occurredAt(LocalDateTime.now())
+                    .build());
+            paylaterPlanCache.evict(planId);
+            return true;
+        });
+        if (Boolean.TRUE.equals(updated)) {
+            defaulted.increment();
+            log.warn("Plan {} moved to DEFAULTED: {}", planId, message[0]);
+            return true;
+        }
+        return false;
+    }
+
+    private static int daysOverdue(PlanOverdue plan, LocalDateTime now) {
+        return (int) Math.max(0, ChronoUnit.DAYS.between(plan.dueDates()[0], now));
+    }
+
+    /**
+     * Overdue installments of one plan, sorted by due date. Immutable, replaced on every change.
+     */
+    private record PlanOverdue(String[] installmentIds, LocalDateTime[] dueDates) {
+
+        private int indexOf(String installmentId) {
+            for (int i = 0; i < installmentIds.length; i++) {
+                if (installmentIds[i].equals(installmentId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private PlanOverdue with(String installmentId, LocalDateTime dueDate) {
+            int index = 0;
+            while (index < dueDates.length && !dueDates[index].isAfter(dueDate)) {
+                index++;
+            }
+            String[] ids = new String[installmentIds.length + 1];
+            LocalDateTime[] dates = new LocalDateTime[dueDates.length + 1];
+            System.arraycopy(installmentIds, 0, ids, 0, index);
+            System.arraycopy(dueDates, 0, dates, 0, index);
+            ids[index] = installmentId;
+            dates[index] = dueDate;
+            System.arraycopy(installmentIds, index, ids, index + 1, installmentIds.length - index);
+            System.arraycopy(dueDates, index, dates, index + 1, dueDates.length - index);
+            return new PlanOverdue(ids, dates);
+        }
+
+        /**
+         * @return Only the given installments, null if none of them is tracked
+         */
+        private PlanOverdue retain(Set<String> ids) {
+            List<String> keptIds = new ArrayList<>(ids.size());
+            List<LocalDateTime> keptDates = new ArrayList<>(ids.size());
+            for (int i = 0; i < installmentIds.length; i++) {
+                if (ids.contains(installmentIds[i])) {
+                    keptIds.add(installmentIds[i]);
+                    keptDates.add(dueDates[i]);
+                }
+            }
+            return keptIds.isEmpty() ? null
+                    : new PlanOverdue(keptIds.toArray(String[]::new), keptDates.toArray(LocalDateTime[]::new));
+        }
+
+        private PlanOverdue without(int index) {
+            String[] ids = new String[installmentIds.length - 1];
+            LocalDateTime[] dates = new LocalDateTime[dueDates.length - 1];
+            System.arraycopy(installmentIds, 0, ids, 0, index);
+            System.arraycopy(dueDates, 0, dates, 0, index);
+            System.arraycopy(installmentIds, index + 1, ids, index, ids.length - index);
+            System.arraycopy(dueDates, index + 1, dates, index, dates.length - index);
+            return new PlanOverdue(ids, dates);
+        }
+    }
+
+    /**
+     * Current overdue state
+     */
+    public record Summary(int plans, int installments, Map<String, Integer> plansByDaysOverdue,
+                          LocalDateTime trackedUntil, LocalDateTime lastTickAt) {
+    }
+}
@@ -0,0 +1,106 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.PlanEventType;
+import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.entity.InstallmentTransactions;
+import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
+import vn.chiendt.skilio.sevice.PlanActivationService;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Completes transactions that were charged at the gateway but whose result could not be stored: they
+ * stay PENDING with the gateway reference recorded. Once such a transaction has been stale for a while
+ * (no webhook completed it either) it is marked SUCCESS like the checkout would have, activating the plan
+ * for installment #1. The update is conditional on PENDING, so replicas sweeping together complete each
+ * transaction once.
+ */
+@Slf4j(topic = "PENDING-SWEEP")
+@Component
+public class PendingChargeSweeper {
+
+    private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final OutboxService outboxService;
+    private final PlanActivationService planActivationService;
+    private final Duration staleAfter;
+    private final int pageSize;
+
+    public PendingChargeSweeper(InstallmentTransactionsRepository installmentTransactionsRepository,
+                                TransactionTemplate transactionTemplate,
+                                OutboxService outboxService,
+                                PlanActivationService planActivationService,
+                                @Value("${paylater.checkout.pending-sweep.stale-after}") Duration staleAfter,
+                                @Value("${paylater.checkout.pending-sweep.page-size}") int pageSize) {
+        this.installmentTransactionsRepository = installmentTransactionsRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.outboxService = outboxService;
+        this.planActivationService = planActivationService;
+        this.staleAfter = staleAfter;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Complete up to one page of stale PENDING transactions that carry a gateway reference
+     */
+    @Scheduled(fixedDelayString = "${paylater.checkout.pending-sweep.interval-ms}",
+            initialDelayString = "${paylater.checkout.pending-sweep.interval-ms}")
+    public void sweep() {
+        try {
+            List<InstallmentTransactions> stale = installmentTransactionsRepository.findStalePendingWithPaymentRef(
+                    LocalDateTime.now().minus(staleAfter), PageRequest.of(0, pageSize));
+            int completed = 0;
+            for (InstallmentTransactions transaction : stale) {
+                try {
+                    if (Boolean.TRUE.equals(transactionTemplate.execute(status -> complete(transaction)))) {
+                        completed++;
+                    }
+                } catch (Exception e) {
+                    log.error("Error completing pending transaction {}", transaction.getId(), e);
+                }
+            }
+            if (!stale.isEmpty()) {
+                log.info("Completed {} of {} stale pending transactions", completed, stale.size());
+            }
+        } catch (Exception e) {
+            log.error("Error sweeping stale pending transactions", e);
+        }
+    }
+
+    private boolean complete(InstallmentTransactions transaction) {
+        LocalDateTime now = LocalDateTime.now();
+        String message = "Charge confirmed by pending sweep";
+        // updatedAt là lúc ghi lại payment reference, ngay sau khi charge thành công
+        int updated = installmentTransactionsRepository.completePendingTransaction(transaction.getId(),
+                TransactionStatus.SUCCESS, transaction.getPaymentRef(), transaction.getUpdatedAt(), message,
+                null, null, null, now);
+        if (updated == 0) {
+            return false;
+        }
+        String planId = transaction.getInstallment().getPlanId();
+        outboxService.append(PlanLifecycleMessage.builder()
+                .eventType(PlanEventType.TRANSACTION_SUCCEEDED)
+                .planId(planId)
+                .transactionId(transaction.getId())
+                .status(TransactionStatus.SUCCESS.name())
+                .paymentRef(transaction.getPaymentRef())
+                .amount(transaction.getAmount())
+                .currency(transaction.getInstallment().getCurrency())
+                .message(message)
+                .build());
+        if (transaction.getInstallment().getInstallmentNumber() == 1) {
+            planActivationService.activate(planId, transaction.getPaymentRef(), now);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.config.RetryClassifierProperties;
+import vn.chiendt.skilio.constant.DeclineCategory;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Decides whether and when a failed charge is retried, from the gateway's decline code:
+ * hard declines are never retried, insufficient funds are retried on the next payday,
+ * anything else (including gateway errors without a code) follows the soft backoff.
+ */
+@Component
+public class RetryClassifier {
+
+    private final RetryClassifierProperties properties;
+    private final Set<String> hardDeclineCodes;
+    private final Set<String> insufficientFundsCodes;
+    private final TreeSet<Integer> paydays;
+    private final Map<DeclineCategory, Counter> declines = new EnumMap<>(DeclineCategory.class);
+
+    public RetryClassifier(RetryClassifierProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.hardDeclineCodes = normalize(properties.getHardDeclineCodes());
+        this.insufficientFundsCodes = normalize(properties.getInsufficientFundsCodes());
+        this.paydays = new TreeSet<>(properties.getPaydays());
+        for (DeclineCategory category : DeclineCategory.values()) {
+            declines.put(category, Counter.builder("paylater.retry.declines")
+                    .description("Failed charges by decline category")
+                    .tag("category", category.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * @param declineCode Gateway decline code, null for a gateway error
+     * @return Decline category, SOFT for unknown codes
+     */
+    public DeclineCategory classify(String declineCode) {
+        String code = normalize(declineCode);
+        if (code == null) {
+            return DeclineCategory.SOFT;
+        }
+        if (hardDeclineCodes.contains(code)) {
+            return DeclineCategory.HARD;
+        }
+        if (insufficientFundsCodes.contains(code)) {
+            return DeclineCategory.INSUFFICIENT_FUNDS;
+        }
+        return DeclineCategory.SOFT;
+    }
+
+    /**
+     * Classify a failed charge and pick its next retry time
+     * @param declineCode Gateway decline code, null for a gateway error
+     * @param attemptNumber Attempt that just failed (1 = first charge)
+     * @param failedAt Time of the failed attempt
+     * @return Decline category and earliest retry time (null if never retried again)
+     */
+    public Decision decide(String declineCode, int attemptNumber, LocalDateTime failedAt) {
+        DeclineCategory category = classify(declineCode);
+        declines.get(category).increment();
+        int retryCount = attemptNumber - 1;
+        if (retryCount >= maxRetries(category)) {
+            return new Decision(normalize(declineCode), category, null);
+        }
+        LocalDateTime nextRetryAt = switch (category) {
+            case HARD -> null;
+            case INSUFFICIENT_FUNDS -> nextPayday(failedAt.plus(properties.getPaydayMinDelay()));
+            case SOFT -> failedAt.plus(properties.getSoftBackoff().get(retryCount));
+        };
+        return new Decision(normalize(declineCode), category, nextRetryAt);
+    }
+
+    /**
+     * @return Retries allowed after the first charge for a category
+     */
+    public int maxRetries(DeclineCategory category) {
+        return switch (category) {
+            case HARD -> 0;
+            case INSUFFICIENT_FUNDS -> properties.getInsufficientFundsMaxRetries();
+            case SOFT -> properties.getSoftBackoff().size();
+        };
+    }
+
+    private LocalDateTime nextPayday(LocalDateTime notBefore) {
+        if (paydays.isEmpty()) {
+            return notBefore;
+        }
+        YearMonth month = YearMonth.from(notBefore);
+        // Tối đa sang tháng kế tiếp là chắc chắn có payday
+        for (int i = 0; i < 2; i++, month = month.plusMonths(1)) {
+            for (int day : paydays) {
+                LocalDate date = month.atDay(Math.min(Math.max(day, 1), month.lengthOfMonth()));
+                LocalDateTime candidate = date.atTime(properties.getPaydayTime());
+                if (!candidate.isBefore(notBefore)) {
+                    return candidate;
+                }
+            }
+        }
+        return notBefore;
+    }
+
+    private static Set<String> normalize(Set<String> codes) {
+        return codes.stream()
+                .map(RetryClassifier::normalize)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static String normalize(String code) {
+        if (code == null || code.isBlank()) {
+            return null;
+        }
+        String normalized = code.trim().toLowerCase(Locale.ROOT);
+        return normalized.length() > 50 ? normalized.substring(0, 50) : normalized;
+    }
+
+    /**
+     * Retry decision for one failed charge
+     * @param declineCode Normalized decline code, null for a gateway error
+     */
+    public record Decision(String declineCode, DeclineCategory category, LocalDateTime nextRetryAt) {
+    }
+}
@@ -0,0 +1,191 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.domain.dto.RetryKey;
+import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.sevice.RetryService;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fires each failed transaction's retry at its next_retry_at instead of on the next 30-minute run.
+ * Upcoming retries are held in a bounded DelayQueue filled from the (status, next_retry_at) index:
+ * every load walks a keyset cursor from the start of the index up to now + lookahead and only queues as
+ * many rows as there is room for, so retries past the window (or past the capacity) are paged in as the
+ * queue drains. Rows already queued at the same time are skipped; a row whose next_retry_at moved is
+ * queued again at its new time and its old entry is dropped when it comes due.
+ * Every replica loads the same rows; RetryService claims a retry with a compare-and-set on
+ * next_retry_at, so each retry is charged by one replica only.
+ */
+@Slf4j(topic = "RETRY-DISPATCHER")
+@Component
+@ConditionalOnProperty(prefix = "paylater.retry.dispatcher", name = "enabled", havingValue = "true")
+public class RetryDispatcher {
+
+    private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final RetryService retryService;
+    private final int capacity;
+    private final Duration lookahead;
+    private final int pageSize;
+
+    private final DelayQueue<RetryEntry> queue = new DelayQueue<>();
+    // Transaction ID -> due time của entry hiện hành trong queue
+    private final Map<String, Long> queued = new ConcurrentHashMap<>();
+    private final Semaphore running;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ExecutorService workers;
+    private final Thread dispatcherThread;
+
+    public RetryDispatcher(InstallmentTransactionsRepository installmentTransactionsRepository,
+                           RetryService retryService,
+                           MeterRegistry meterRegistry,
+                           @Value("${paylater.retry.dispatcher.capacity}") int capacity,
+                           @Value("${paylater.retry.dispatcher.lookahead}") Duration lookahead,
+                           @Value("${paylater.retry.dispatcher.page-size}") int pageSize,
+                           @Value("${paylater.retry.dispatcher.concurrency}") int concurrency) {
+        this.installmentTransactionsRepository = installmentTransactionsRepository;
+        this.retryService = retryService;
+        this.capacity = capacity;
+        this.lookahead = lookahead;
+        this.pageSize = pageSize;
+        this.running = new Semaphore(concurrency);
+        this.workers = Executors.newFixedThreadPool(concurrency, runnable -> new Thread(runnable, "retry-worker"));
+        this.dispatcherThread = new Thread(this::dispatchLoop, "retry-dispatcher");
+        this.dispatcherThread.setDaemon(true);
+
+        Gauge.builder("paylater.retry.queue.size", queue, DelayQueue::size)
+                .description("Retries waiting in the in-memory delay queue")
+                .register(meterRegistry);
+        Gauge.builder("paylater.retry.in.flight", inFlight, AtomicInteger::get)
+                .description("Retries being charged")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        load();
+        dispatcherThread.start();
+        log.info("Retry dispatcher started: capacity {}, lookahead {}", capacity, lookahead);
+    }
+
+    /**
+     * Page in the retries due within the lookahead window, as far as the queue has room
+     */
+    @Scheduled(fixedDelayString = "${paylater.retry.dispatcher.load-interval-ms}",
+            initialDelayString = "${paylater.retry.dispatcher.load-interval-ms}")
+    public synchronized void load() {
+        try {
+            LocalDateTime to = LocalDateTime.now().plus(lookahead);
+            // Quét lại từ đầu mỗi lần: retry mới hoặc bị dời sớm hơn có thể nằm trước vị trí lần quét trước
+            LocalDateTime cursorRetryAt = RetryKey.START.nextRetryAt();
+            String cursorId = RetryKey.START.id();
+            int loaded = 0;
+            int room = capacity - queue.size() - inFlight.get();
+            while (room > 0) {
+                Pageable page = PageRequest.of(0, pageSize);
+                List<RetryKey> keys = installmentTransactionsRepository.findRetryKeysAfter(
+                        to, cursorRetryAt, cursorId, page);
+                for (RetryKey key : keys) {
+                    long dueMillis = toEpochMillis(key.nextRetryAt());
+                    Long current = queued.put(key.id(), dueMillis);
+                    if (current == null || current != dueMillis) {
+                        queue.add(new RetryEntry(key.id(), dueMillis));
+                        loaded++;
+                        if (--room == 0) {
+                            break;
+                        }
+                    }
+                }
+                if (keys.size() < page.getPageSize()) {
+                    break;
+                }
+                RetryKey last = keys.get(keys.size() - 1);
+                cursorRetryAt = last.nextRetryAt();
+                cursorId = last.id();
+            }
+            if (loaded > 0) {
+                log.debug("Loaded {} retries due until {}, {} queued", loaded, to, queue.size());
+            }
+        } catch (Exception e) {
+            log.error("Error loading retries into the delay queue", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatcherThread.interrupt();
+        workers.shutdown();
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                RetryEntry entry = queue.take();
+                if (!queued.remove(entry.transactionId(), entry.dueMillis())) {
+                    // Retry đã được dời sang thời điểm khác, entry mới nằm trong queue
+                    continue;
+                }
+                // Giới hạn số retry chạy đồng thời, entry tiếp theo đợi ở đây chứ không dồn vào executor
+                running.acquire();
+                inFlight.incrementAndGet();
+                workers.execute(() -> {
+                    try {
+                        retryService.processRetry(entry.transactionId());
+                    } catch (Exception e) {
+                        log.error("Error retrying transaction {}", entry.transactionId(), e);
+                    } finally {
+                        inFlight.decrementAndGet();
+                        running.release();
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error dispatching retry", e);
+            }
+        }
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        // Làm tròn lên millisecond để retry không fire trước next_retry_at
+        return instant.toEpochMilli() + (instant.getNano() % 1_000_000 == 0 ? 0 : 1);
+    }
+
+    private record RetryEntry(String transactionId, long dueMillis) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueMillis, ((RetryEntry) other).dueMillis);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free time-based sliding window of call, failure and slow-call counts. The window is a ring of
+ * buckets; a bucket that has fallen out of the window is replaced by a fresh one with a CAS on first
+ * use, and counting is a LongAdder increment, so recording a call never blocks.
+ */
+public final class SlidingWindowMetrics {
+
+    private final long bucketNanos;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    public SlidingWindowMetrics(Duration window, int bucketCount) {
+        this.bucketNanos = Math.max(1, window.toNanos() / bucketCount);
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * Count one finished call
+     * @param failure The call failed
+     * @param slow The call was slower than the slow-call threshold
+     */
+    public void record(boolean failure, boolean slow) {
+        Bucket bucket = current(Math.floorDiv(System.nanoTime(), bucketNanos));
+        bucket.calls.increment();
+        if (failure) {
+            bucket.failures.increment();
+        }
+        if (slow) {
+            bucket.slowCalls.increment();
+        }
+    }
+
+    /**
+     * @return Totals of the buckets still inside the window
+     */
+    public Snapshot snapshot() {
+        long epoch = Math.floorDiv(System.nanoTime(), bucketNanos);
+        long calls = 0;
+        long failures = 0;
+        long slowCalls = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && epoch - bucket.epoch < buckets.length()) {
+                calls += bucket.calls.sum();
+                failures += bucket.failures.sum();
+                slowCalls += bucket.slowCalls.sum();
+            }
+        }
+        return new Snapshot(calls, failures, slowCalls);
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    private Bucket current(long epoch) {
+        int index = Math.floorMod(epoch, buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            // Thread chậm có thể thấy bucket mới hơn epoch của nó, đếm vào đó luôn
+            if (bucket != null && bucket.epoch >= epoch) {
+                return bucket;
+            }
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final long epoch;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+
+        private Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * Window totals
+     */
+    public record Snapshot(long calls, long failures, long slowCalls) {
+
+        public double failureRate() {
+            return calls == 0 ? 0 : failures * 100.0 / calls;
+        }
+
+        public double slowCallRate() {
+            return calls == 0 ? 0 : slowCalls * 100.0 / calls;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel. Level 0 has wheelSize slots of one tick, every higher level has
+ * wheelSize slots spanning one full turn of the level below; when a lower level wraps, the
+ * matching slot of the level above is cascaded down. Adding and cancelling a timer are O(1),
+ * advancing costs O(1) per tick plus the timers that expire or cascade.
+ * Not thread-safe, callers synchronize.
+ */
+public final class TimingWheel<T> {
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long[] ticksPerSlot;
+    private final Bucket<T>[][] buckets;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, int wheelSize, int levels, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.ticksPerSlot = new long[levels];
+        this.buckets = new Bucket[levels][wheelSize];
+        long span = 1;
+        for (int level = 0; level < levels; level++) {
+            ticksPerSlot[level] = span;
+            span = Math.multiplyExact(span, wheelSize);
+            for (int slot = 0; slot < wheelSize; slot++) {
+                buckets[level][slot] = new Bucket<>();
+            }
+        }
+        this.currentTick = startMs / tickMs;
+    }
+
+    /**
+     * @return Furthest deadline the wheel accepts, relative to its current time
+     */
+    public long horizonMs() {
+        return ticksPerSlot[ticksPerSlot.length - 1] * wheelSize * tickMs - tickMs;
+    }
+
+    /**
+     * @param deadlineMs Deadline, epoch millis
+     * @return True if the deadline is close enough to be added
+     */
+    public boolean accepts(long deadlineMs) {
+        return (deadlineMs + tickMs - 1) / tickMs - currentTick < ticksPerSlot[ticksPerSlot.length - 1] * wheelSize;
+    }
+
+    /**
+     * Add a timer
+     * @param deadlineMs Deadline, epoch millis
+     * @param value Value handed to the expiry callback
+     * @return Timer handle, null if the deadline is already reached (the caller runs it now)
+     * @throws IllegalArgumentException if the deadline is beyond the horizon
+     */
+    public Timer<T> add(long deadlineMs, T value) {
+        // Làm tròn lên để timer không bao giờ fire trước deadline
+        Timer<T> timer = new Timer<>((deadlineMs + tickMs - 1) / tickMs, value);
+        if (!place(timer)) {
+            return null;
+        }
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancel a timer that has not expired yet
+     * @param timer Timer handle
+     * @return False if the timer already expired or was cancelled
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (timer.bucket == null) {
+            return false;
+        }
+        timer.bucket.remove(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advance the wheel to nowMs and expire every timer whose deadline has been reached
+     * @param nowMs Current time, epoch millis
+     * @param expired Callback for each expired timer value
+     */
+    public void advance(long nowMs, Consumer<T> expired) {
+        long targetTick = nowMs / tickMs;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Cascade từ level cao xuống để timer có thể rơi tiếp xuống các level thấp hơn
+            for (int level = ticksPerSlot.length - 1; level > 0; level--) {
+                if (currentTick % ticksPerSlot[level] == 0) {
+                    Bucket<T> bucket = buckets[level][slot(currentTick, level)];
+                    Timer<T> timer;
+                    while ((timer = bucket.poll()) != null) {
+                        if (!place(timer)) {
+                            size--;
+                            expired.accept(timer.value);
+                        }
+                    }
+                }
+            }
+            Bucket<T> due = buckets[0][slot(currentTick, 0)];
+            Timer<T> timer;
+            while ((timer = due.poll()) != null) {
+                size--;
+                expired.accept(timer.value);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean place(Timer<T> timer) {
+        long delta = timer.deadlineTick - currentTick;
+        if (delta <= 0) {
+            return false;
+        }
+        int level = 0;
+        while (delta >= ticksPerSlot[level] * wheelSize) {
+            level++;
+            if (level == ticksPerSlot.length) {
+                throw new IllegalArgumentException("Timer deadline is beyond the wheel horizon");
+            }
+        }
+        buckets[level][slot(timer.deadlineTick, level)].add(timer);
+        return true;
+    }
+
+    private int slot(long tick, int level) {
+        return (int) ((tick / ticksPerSlot[level]) % wheelSize);
+    }
+
+    /**
+     * Handle of a scheduled timer
+     */
+    public static final class Timer<T> {
+        private final long deadlineTick;
+        private final T value;
+        private Bucket<T> bucket;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        private Timer(long deadlineTick, T value) {
+            this.deadlineTick = deadlineTick;
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list of timers, O(1) add and remove
+     */
+    private static final class Bucket<T> {
+        private final Timer<T> head = new Timer<>(0, null);
+
+        private Bucket() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        private void add(Timer<T> timer) {
+            timer.bucket = this;
+            timer.prev = head.prev;
+            timer.next = head;
+            head.prev.next = timer;
+            head.prev = timer;
+        }
+
+        private void remove(Timer<T> timer) {
+            timer.prev.next = timer.next;
+            timer.next.prev = timer.prev;
+            timer.prev = null;
+            timer.next = null;
+            timer.bucket = null;
+        }
+
+        private Timer<T> poll() {
+            Timer<T> first = head.next;
+            if (first == head) {
+                return null;
+            }
+            remove(first);
+            return first;
+        }
+    }
+}
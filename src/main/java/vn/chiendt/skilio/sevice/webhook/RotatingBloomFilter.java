@@ -0,0 +1,111 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe bloom filter over two generations: keys go into the current generation, lookups check
+ * both. The current generation is retired once it holds expectedInsertions keys or is older than the
+ * rotation period, so the false-positive rate stays bounded and old keys age out without a reset.
+ * Bits are set with a CAS on the containing word, no lock is taken.
+ */
+public final class RotatingBloomFilter {
+
+    private final int expectedInsertions;
+    private final int bitCount;
+    private final int hashCount;
+    private final long rotationNanos;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public RotatingBloomFilter(int expectedInsertions, double falsePositiveRate, Duration rotation) {
+        this.expectedInsertions = expectedInsertions;
+        double bits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(bits)));
+        this.hashCount = Math.max(1, (int) Math.round(bitCount / (double) expectedInsertions * Math.log(2)));
+        this.rotationNanos = rotation.toNanos();
+        this.current = new Generation(bitCount);
+    }
+
+    /**
+     * @return false if the key was certainly never added (within the last two generations)
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        Generation older = previous;
+        return current.mightContain(hash) || (older != null && older.mightContain(hash));
+    }
+
+    public void put(String key) {
+        Generation generation = current;
+        if (generation.insertions.get() >= expectedInsertions
+                || System.nanoTime() - generation.createdNanos >= rotationNanos) {
+            generation = rotate(generation);
+        }
+        generation.put(hash(key));
+    }
+
+    private synchronized Generation rotate(Generation full) {
+        if (current == full) {
+            previous = full;
+            current = new Generation(bitCount);
+        }
+        return current;
+    }
+
+    private static long hash(String key) {
+        // FNV-1a rồi trộn bit kiểu murmur3 fmix64
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private final class Generation {
+        private final AtomicLongArray words;
+        private final AtomicInteger insertions = new AtomicInteger();
+        private final long createdNanos = System.nanoTime();
+
+        private Generation(int bits) {
+            this.words = new AtomicLongArray((bits + 63) / 64);
+        }
+
+        private boolean mightContain(long hash) {
+            int hash1 = (int) hash;
+            int hash2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                int bit = bitIndex(hash1, hash2, i);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash) {
+            int hash1 = (int) hash;
+            int hash2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                int bit = bitIndex(hash1, hash2, i);
+                long mask = 1L << bit;
+                words.accumulateAndGet(bit >>> 6, mask, (word, m) -> word | m);
+            }
+            insertions.incrementAndGet();
+        }
+
+        private int bitIndex(int hash1, int hash2, int i) {
+            // Double hashing: k vị trí từ hai nửa của một hash 64 bit
+            int combined = hash1 + i * hash2;
+            return (combined < 0 ? ~combined : combined) % bitCount;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import vn.chiendt.skilio.constant.TransactionStatus;
+
+import java.math.BigDecimal;
+
+/**
+ * Status transition of one transaction requested by a gateway webhook
+ * @param eventId Gateway event ID, null if the event has none
+ * @param gatewayProvider Gateway provider
+ * @param paymentRef Gateway reference of the charge
+ * @param status SUCCESS, FAILED or REFUNDED
+ * @param declineCode FAILED: gateway decline code, null if the event has none
+ * @param errorMessage FAILED: error message
+ * @param refundAmount REFUNDED: refunded amount
+ */
+public record StatusUpdate(String eventId, String gatewayProvider, String paymentRef, TransactionStatus status,
+                           String declineCode, String errorMessage, BigDecimal refundAmount) {
+
+    public static StatusUpdate success(String eventId, String gatewayProvider, String paymentRef) {
+        return new StatusUpdate(eventId, gatewayProvider, paymentRef, TransactionStatus.SUCCESS, null, null, null);
+    }
+
+    public static StatusUpdate failure(String eventId, String gatewayProvider, String paymentRef, String declineCode,
+                                       String errorMessage) {
+        return new StatusUpdate(eventId, gatewayProvider, paymentRef, TransactionStatus.FAILED, declineCode,
+                errorMessage, null);
+    }
+
+    public static StatusUpdate refund(String eventId, String gatewayProvider, String paymentRef,
+                                      BigDecimal refundAmount) {
+        return new StatusUpdate(eventId, gatewayProvider, paymentRef, TransactionStatus.REFUNDED, null, null,
+                refundAmount);
+    }
+
+    /**
+     * @return Event type recorded by the deduplicator
+     */
+    public String eventType() {
+        return switch (status) {
+            case SUCCESS -> "payment_succeeded";
+            case FAILED -> "payment_failed";
+            case REFUNDED -> "refund";
+            case PENDING -> throw new IllegalStateException("Not a webhook status transition: " + status);
+        };
+    }
+}
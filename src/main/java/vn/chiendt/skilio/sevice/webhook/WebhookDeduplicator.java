@@ -0,0 +1,185 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.repository.ProcessedWebhookEventRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recognises redelivered gateway webhooks by (gateway provider, event ID).
+ * A rotating bloom filter answers "never seen" for most events without any lookup; a possible
+ * duplicate is confirmed by a bounded in-memory cache of recently processed events, then by the
+ * processed_webhook_events table. Marking an event processed inserts its row in the caller's transaction
+ * (ON CONFLICT DO NOTHING), so two replicas applying the same event concurrently cannot both win.
+ */
+@Slf4j(topic = "WEBHOOK-DEDUP")
+@Component
+public class WebhookDeduplicator {
+
+    private static final int PURGE_BATCH_SIZE = 10_000;
+
+    private final ProcessedWebhookEventRepository processedWebhookEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final RotatingBloomFilter seen;
+    private final Cache<String, Boolean> recent;
+    private final Duration retention;
+    private final Counter bloomMisses;
+    private final Counter recentHits;
+    private final Counter storeLookups;
+    private final Counter duplicates;
+
+    public WebhookDeduplicator(ProcessedWebhookEventRepository processedWebhookEventRepository,
+                               TransactionTemplate transactionTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${paylater.webhook.dedup.expected-insertions}") int expectedInsertions,
+                               @Value("${paylater.webhook.dedup.false-positive-rate}") double falsePositiveRate,
+                               @Value("${paylater.webhook.dedup.rotation}") Duration rotation,
+                               @Value("${paylater.webhook.dedup.recent-size}") long recentSize,
+                               @Value("${paylater.webhook.dedup.retention}") Duration retention) {
+        this.processedWebhookEventRepository = processedWebhookEventRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.seen = new RotatingBloomFilter(expectedInsertions, falsePositiveRate, rotation);
+        this.recent = Caffeine.newBuilder().maximumSize(recentSize).build();
+        this.retention = retention;
+        this.bloomMisses = lookupCounter(meterRegistry, "bloom_miss");
+        this.recentHits = lookupCounter(meterRegistry, "recent_hit");
+        this.storeLookups = lookupCounter(meterRegistry, "store");
+        this.duplicates = Counter.builder("paylater.webhook.duplicates")
+                .description("Redelivered webhook events rejected")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Cheap check before any work: the bloom filter, then recent events, then the table
+     * @param gatewayProvider Gateway provider
+     * @param eventId Gateway event ID, events without one are never duplicates
+     * @return true if the event was already processed: skip it
+     */
+    public boolean isDuplicate(String gatewayProvider, String eventId) {
+        if (eventId == null || eventId.isBlank()) {
+            return false;
+        }
+        String key = eventKey(gatewayProvider, eventId);
+        if (!seen.mightContain(key)) {
+            bloomMisses.increment();
+            return false;
+        }
+        if (recent.getIfPresent(key) != null) {
+            recentHits.increment();
+            return rejectDuplicate(key);
+        }
+        storeLookups.increment();
+        if (processedWebhookEventRepository.existsById(key)) {
+            recent.put(key, Boolean.TRUE);
+            return rejectDuplicate(key);
+        }
+        return false;
+    }
+
+    /**
+     * Record webhook events as processed with one insert, in the caller's transaction and before applying
+     * them. If that transaction rolls back the records go with it and redeliveries are processed again.
+     * A replica inserting the same event concurrently waits for the other to commit and gets nothing back.
+     * @param updates Events, in arrival order
+     * @return For each event, false if it was processed before or earlier in the list: skip it
+     */
+    public boolean[] markProcessed(List<StatusUpdate> updates) {
+        boolean[] claimed = new boolean[updates.size()];
+        String[] keys = new String[updates.size()];
+        Map<String, String> eventTypes = new LinkedHashMap<>();
+        for (int i = 0; i < updates.size(); i++) {
+            StatusUpdate update = updates.get(i);
+            if (update.eventId() == null || update.eventId().isBlank()) {
+                claimed[i] = true;
+                continue;
+            }
+            keys[i] = eventKey(update.gatewayProvider(), update.eventId());
+            seen.put(keys[i]);
+            eventTypes.putIfAbsent(keys[i], update.eventType());
+        }
+        if (eventTypes.isEmpty()) {
+            return claimed;
+        }
+
+        Set<String> inserted = new HashSet<>(processedWebhookEventRepository.insertAllIfAbsent(
+                eventTypes.keySet().toArray(String[]::new), eventTypes.values().toArray(String[]::new),
+                LocalDateTime.now()));
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            // remove: cùng event lặp lại trong danh sách thì chỉ lần đầu được nhận
+            claimed[i] = inserted.remove(keys[i]);
+            if (claimed[i]) {
+                rememberAfterCommit(keys[i]);
+            } else {
+                rejectDuplicate(keys[i]);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Delete processed events older than the retention, in chunks. Gateways stop redelivering long before.
+     */
+    @Scheduled(cron = "0 30 3 * * ?") // Run daily at 3:30 AM
+    public void purgeProcessedEvents() {
+        LocalDateTime before = LocalDateTime.now().minus(retention);
+        long deleted = 0;
+        while (true) {
+            Integer count = transactionTemplate.execute(status ->
+                    processedWebhookEventRepository.deleteProcessedBefore(before, PURGE_BATCH_SIZE));
+            if (count == null || count == 0) {
+                break;
+            }
+            deleted += count;
+        }
+        log.info("Purged {} processed webhook events older than {}", deleted, before);
+    }
+
+    private boolean rejectDuplicate(String key) {
+        duplicates.increment();
+        log.info("Duplicate webhook event {} ignored", key);
+        return true;
+    }
+
+    private static String eventKey(String gatewayProvider, String eventId) {
+        return gatewayProvider + ":" + eventId;
+    }
+
+    private void rememberAfterCommit(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            recent.put(key, Boolean.TRUE);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                recent.put(key, Boolean.TRUE);
+            }
+        });
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("paylater.webhook.dedup.lookups")
+                .description("Webhook dedup checks by the layer that answered")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
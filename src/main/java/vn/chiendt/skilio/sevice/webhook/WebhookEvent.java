@@ -0,0 +1,15 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+/**
+ * The fields a webhook is routed on, as they appear in the gateway's payload (null if absent)
+ * @param eventId Gateway event ID
+ * @param eventType Gateway event type
+ * @param paymentRef Gateway reference of the charge
+ * @param amount Amount, in minor units for Stripe
+ * @param currency Currency code
+ * @param errorCode Decline or error code of a failed charge
+ * @param errorMessage Error message of a failed charge
+ */
+public record WebhookEvent(String eventId, String eventType, String paymentRef, String amount, String currency,
+                           String errorCode, String errorMessage) {
+}
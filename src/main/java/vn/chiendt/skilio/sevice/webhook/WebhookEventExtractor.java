@@ -0,0 +1,136 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pulls the routing fields out of a raw webhook body in one streaming pass over its bytes.
+ * Only the objects on a known field path are descended into, everything else is skipped by the
+ * parser without being decoded, and no tree or String of the whole body is built.
+ */
+@Component
+public class WebhookEventExtractor {
+
+    private static final Field[] FIELDS = Field.values();
+
+    private final JsonFactory jsonFactory;
+    private final Map<WebhookSource, Node> fieldPaths = new EnumMap<>(WebhookSource.class);
+
+    public WebhookEventExtractor(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+        // Cùng một field khai báo nhiều path: path khai báo trước được ưu tiên
+        fieldPaths.put(WebhookSource.STRIPE, new Node()
+                .path("id", Field.EVENT_ID)
+                .path("type", Field.EVENT_TYPE)
+                .path("data.object.payment_intent", Field.PAYMENT_REF)
+                .path("data.object.id", Field.PAYMENT_REF)
+                .path("data.object.amount_refunded", Field.AMOUNT)
+                .path("data.object.amount", Field.AMOUNT)
+                .path("data.object.currency", Field.CURRENCY)
+                .path("data.object.last_payment_error.decline_code", Field.ERROR_CODE)
+                .path("data.object.last_payment_error.code", Field.ERROR_CODE)
+                .path("data.object.failure_code", Field.ERROR_CODE)
+                .path("data.object.last_payment_error.message", Field.ERROR_MESSAGE)
+                .path("data.object.failure_message", Field.ERROR_MESSAGE));
+        fieldPaths.put(WebhookSource.PAYPAL, new Node()
+                .path("id", Field.EVENT_ID)
+                .path("event_type", Field.EVENT_TYPE)
+                .path("resource.id", Field.PAYMENT_REF)
+                .path("resource.amount.value", Field.AMOUNT)
+                .path("resource.amount.currency_code", Field.CURRENCY)
+                .path("resource.status_details.reason", Field.ERROR_CODE)
+                .path("summary", Field.ERROR_MESSAGE));
+        fieldPaths.put(WebhookSource.GENERIC, new Node()
+                .path("event_id", Field.EVENT_ID)
+                .path("event_type", Field.EVENT_TYPE)
+                .path("payment_ref", Field.PAYMENT_REF)
+                .path("amount", Field.AMOUNT)
+                .path("currency", Field.CURRENCY)
+                .path("error_code", Field.ERROR_CODE)
+                .path("error_message", Field.ERROR_MESSAGE));
+    }
+
+    /**
+     * @param source Gateway, decides where the fields are in the payload
+     * @param payload Raw webhook body (UTF-8 JSON)
+     * @return Routing fields, null for those absent from the payload
+     * @throws IOException if the payload is not a JSON object
+     */
+    public WebhookEvent extract(WebhookSource source, byte[] payload) throws IOException {
+        String[] values = new String[FIELDS.length];
+        int[] priorities = new int[FIELDS.length];
+        Arrays.fill(priorities, Integer.MAX_VALUE);
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Webhook payload is not a JSON object");
+            }
+            readObject(parser, fieldPaths.get(source), values, priorities);
+        }
+        return new WebhookEvent(
+                values[Field.EVENT_ID.ordinal()],
+                values[Field.EVENT_TYPE.ordinal()],
+                values[Field.PAYMENT_REF.ordinal()],
+                values[Field.AMOUNT.ordinal()],
+                values[Field.CURRENCY.ordinal()],
+                values[Field.ERROR_CODE.ordinal()],
+                values[Field.ERROR_MESSAGE.ordinal()]);
+    }
+
+    private static void readObject(JsonParser parser, Node node, String[] values, int[] priorities)
+            throws IOException {
+        String name;
+        while ((name = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            Node child = node.children.get(name);
+            if (child == null) {
+                parser.skipChildren();
+            } else if (token == JsonToken.START_OBJECT) {
+                readObject(parser, child, values, priorities);
+            } else if (child.field != null && token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+                int index = child.field.ordinal();
+                if (child.priority < priorities[index]) {
+                    // Chỉ decode giá trị của các field cần dùng
+                    values[index] = parser.getText();
+                    priorities[index] = child.priority;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private enum Field {
+        EVENT_ID, EVENT_TYPE, PAYMENT_REF, AMOUNT, CURRENCY, ERROR_CODE, ERROR_MESSAGE
+    }
+
+    /**
+     * Field path tree of one gateway, walked along with the parser
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final int[] declared = new int[FIELDS.length];
+        private Field field;
+        private int priority;
+
+        private Node path(String path, Field target) {
+            Node node = this;
+            for (String name : path.split("\\.")) {
+                node = node.children.computeIfAbsent(name, key -> new Node());
+            }
+            node.field = target;
+            node.priority = declared[target.ordinal()]++;
+            return this;
+        }
+    }
+}
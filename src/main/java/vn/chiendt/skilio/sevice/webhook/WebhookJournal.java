@@ -0,0 +1,500 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.config.WebhookJournalProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of received webhooks, so a webhook can be acked before it is applied.
+ * Records go to fixed-size memory-mapped segment files (rolled when full, deleted once applied):
+ * appending is a copy into the mapping under a short lock, then the caller waits for the flusher
+ * thread, which fsyncs everything written since its last fsync in one call (group commit).
+ * Record layout: length, CRC32 of the body, sequence, body; a length of -1 ends a segment.
+ * On startup the last segment is scanned and cut after its last intact record.
+ */
+@Slf4j(topic = "WEBHOOK-JOURNAL")
+@Component
+@ConditionalOnProperty(prefix = "paylater.webhook.journal", name = "enabled", havingValue = "true")
+public class WebhookJournal {
+
+    private static final int RECORD_HEADER = 16;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMMIT_FILE = "consumer.offset";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long flushIntervalNanos;
+    private final long ackTimeoutNanos;
+
+    // Base sequence -> file của mọi segment chưa bị xóa, kể cả segment đang ghi
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableAdvanced = durableLock.newCondition();
+    private final Thread flusher;
+    private volatile boolean running;
+    private volatile long writtenSequence;
+    private volatile long durableSequence;
+
+    // guarded by this
+    private Segment current;
+    private long nextSequence;
+    private int flushedPosition;
+
+    public WebhookJournal(WebhookJournalProperties properties, MeterRegistry meterRegistry) {
+        this.directory = Paths.get(properties.getDirectory());
+        this.segmentSize = (int) properties.getSegmentSize().toBytes();
+        this.maxSegments = properties.getMaxSegments();
+        this.flushIntervalNanos = properties.getFlushInterval().toNanos();
+        this.ackTimeoutNanos = properties.getAckTimeout().toNanos();
+        this.flusher = new Thread(this::flushLoop, "webhook-journal-flusher");
+        this.flusher.setDaemon(true);
+
+        Gauge.builder("paylater.webhook.journal.segments", segments, Map::size)
+                .description("Webhook journal segments on disk")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void open() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                        .forEach(file -> segments.put(baseOf(file), file));
+            }
+            synchronized (this) {
+                if (segments.isEmpty()) {
+                    current = createSegment(1);
+                    nextSequence = 1;
+                } else {
+                    Map.Entry<Long, Path> last = segments.lastEntry();
+                    current = openSegment(last.getKey(), last.getValue());
+                    boolean ended = recover(current);
+                    if (ended) {
+                        current.channel.close();
+                        current = createSegment(nextSequence);
+                    }
+                }
+                flushedPosition = current.buffer.position();
+                writtenSequence = nextSequence - 1;
+                durableSequence = nextSequence - 1;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open webhook journal in " + directory, e);
+        }
+        running = true;
+        flusher.start();
+        log.info("Webhook journal opened in {}: {} segments, next sequence {}", directory, segments.size(), nextSequence);
+    }
+
+    @PreDestroy
+    void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.NANOSECONDS.toMillis(ackTimeoutNanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            current.buffer.force();
+            closeQuietly(current.channel);
+        }
+    }
+
+    /**
+     * Append a webhook and wait until it is on disk
+     * @param source Gateway
+     * @param headers Signature headers the webhook was received with
+     * @param payload Raw body
+     * @return Sequence of the record
+     * @throws JournalUnavailableException if the journal is full or the fsync did not finish within the ack timeout
+     */
+    public long append(WebhookSource source, Map<String, String> headers, byte[] payload) {
+        byte[] body = encode(source, System.currentTimeMillis(), headers, payload);
+        if (RECORD_HEADER + body.length + 4 > segmentSize) {
+            throw new IllegalArgumentException("Webhook of " + body.length + " bytes does not fit a journal segment");
+        }
+        long sequence;
+        synchronized (this) {
+            if (!running) {
+                throw new JournalUnavailableException("Webhook journal is closed");
+            }
+            // Luôn chừa 4 byte cho marker END_OF_SEGMENT
+            if (current.buffer.remaining() < RECORD_HEADER + body.length + 4) {
+                roll();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            sequence = nextSequence++;
+            current.buffer.putInt(body.length).putInt((int) crc.getValue()).putLong(sequence).put(body);
+            writtenSequence = sequence;
+        }
+        LockSupport.unpark(flusher);
+        if (!awaitDurable(sequence, ackTimeoutNanos)) {
+            throw new JournalUnavailableException("Webhook " + sequence + " was not fsynced in time");
+        }
+        return sequence;
+    }
+
+    /**
+     * Wait until a record is on disk
+     * @return false on timeout or interrupt
+     */
+    public boolean awaitDurable(long sequence, long timeoutNanos) {
+        if (durableSequence >= sequence) {
+            return true;
+        }
+        durableLock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (durableSequence < sequence) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = durableAdvanced.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * @param afterSequence Last sequence already applied
+     * @return Cursor reading the durable records after afterSequence, in order
+     */
+    public Cursor cursor(long afterSequence) throws IOException {
+        Long base = segments.floorKey(afterSequence + 1);
+        Cursor cursor = new Cursor(base == null ? segments.firstKey() : base);
+        while (cursor.nextSequence <= afterSequence && cursor.next() != null) {
+            // Bỏ qua các record đã apply ở đầu segment
+        }
+        return cursor;
+    }
+
+    /**
+     * @return Last sequence saved by commit, 0 if nothing was applied yet
+     */
+    public long committedSequence() throws IOException {
+        Path file = directory.resolve(COMMIT_FILE);
+        return Files.exists(file) ? Long.parseLong(Files.readString(file).trim()) : 0;
+    }
+
+    /**
+     * Save the applied position and delete the segments applied entirely
+     * @param appliedSequence Last applied sequence
+     */
+    public void commit(long appliedSequence) throws IOException {
+        Path tmp = directory.resolve(COMMIT_FILE + ".tmp");
+        Files.writeString(tmp, Long.toString(appliedSequence));
+        Files.move(tmp, directory.resolve(COMMIT_FILE),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        Long base = segments.firstKey();
+        while (true) {
+            Long next = segments.higherKey(base);
+            if (next == null || next > appliedSequence + 1) {
+                return;
+            }
+            Path file = segments.remove(base);
+            Files.deleteIfExists(file);
+            log.debug("Deleted applied webhook journal segment {}", file);
+            base = next;
+        }
+    }
+
+    private void roll() {
+        if (segments.size() >= maxSegments) {
+            throw new JournalUnavailableException("Webhook journal full, " + segments.size() + " segments not applied");
+        }
+        Segment old = current;
+        old.buffer.putInt(END_OF_SEGMENT);
+        old.buffer.force();
+        markDurable(writtenSequence);
+        try {
+            current = createSegment(nextSequence);
+        } catch (IOException e) {
+            current = old;
+            throw new JournalUnavailableException("Cannot create webhook journal segment", e);
+        }
+        flushedPosition = 0;
+        closeQuietly(old.channel);
+    }
+
+    private void flushLoop() {
+        while (running || writtenSequence > durableSequence) {
+            if (writtenSequence == durableSequence) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("Error flushing webhook journal", e);
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    private void flush() {
+        Segment segment;
+        int from;
+        int to;
+        long sequence;
+        synchronized (this) {
+            segment = current;
+            from = flushedPosition;
+            to = segment.buffer.position();
+            sequence = writtenSequence;
+        }
+        // Một fsync cho mọi webhook ghi từ lần fsync trước
+        if (to > from) {
+            segment.buffer.force(from, to - from);
+        }
+        synchronized (this) {
+            if (current == segment) {
+                flushedPosition = Math.max(flushedPosition, to);
+            }
+        }
+        markDurable(sequence);
+    }
+
+    private void markDurable(long sequence) {
+        durableLock.lock();
+        try {
+            if (sequence > durableSequence) {
+                durableSequence = sequence;
+                durableAdvanced.signalAll();
+            }
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Position the last segment after its last intact record and zero anything torn after it
+     * @return true if the segment was already closed with END_OF_SEGMENT
+     */
+    private boolean recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        long sequence = segment.base;
+        int position = 0;
+        boolean ended = false;
+        while (position + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == END_OF_SEGMENT) {
+                ended = true;
+                break;
+            }
+            if (length <= 0 || position + RECORD_HEADER + length > buffer.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(position + RECORD_HEADER, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (buffer.getLong(position + 8) != sequence || buffer.getInt(position + 4) != (int) crc.getValue()) {
+                break;
+            }
+            position += RECORD_HEADER + length;
+            sequence++;
+        }
+        if (!ended && position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+            log.warn("Discarding torn webhook journal record at {}:{}", segment.path, position);
+            byte[] zeros = new byte[8192];
+            for (int i = position; i < buffer.capacity(); i += zeros.length) {
+                buffer.put(i, zeros, 0, Math.min(zeros.length, buffer.capacity() - i));
+            }
+            buffer.force();
+        }
+        buffer.position(position);
+        nextSequence = sequence;
+        return ended;
+    }
+
+    private Segment createSegment(long base) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+        Segment segment = openSegment(base, path);
+        segments.put(base, path);
+        return segment;
+    }
+
+    private Segment openSegment(long base, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(base, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    }
+
+    private static long baseOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Error closing webhook journal segment", e);
+        }
+    }
+
+    private static byte[] encode(WebhookSource source, long receivedAtMillis, Map<String, String> headers,
+                                 byte[] payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(source.name());
+            out.writeLong(receivedAtMillis);
+            out.writeShort(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue() == null ? "" : header.getValue());
+            }
+            out.writeInt(payload.length);
+            out.write(payload);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Entry decode(long sequence, byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        WebhookSource source = WebhookSource.valueOf(in.readUTF());
+        long receivedAtMillis = in.readLong();
+        int headerCount = in.readUnsignedShort();
+        Map<String, String> headers = new LinkedHashMap<>(headerCount * 2);
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(in.readUTF(), in.readUTF());
+        }
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return new Entry(sequence, source, receivedAtMillis, headers, payload);
+    }
+
+    /**
+     * Reads durable records in sequence order, across segments. Used by one thread.
+     */
+    public final class Cursor {
+
+        private long base;
+        private MappedByteBuffer buffer;
+        private long nextSequence;
+
+        private Cursor(long base) throws IOException {
+            open(base);
+        }
+
+        /**
+         * @return Next record, null if none is durable yet
+         */
+        public Entry next() throws IOException {
+            while (nextSequence <= durableSequence) {
+                int length = buffer.getInt(buffer.position());
+                if (length == END_OF_SEGMENT) {
+                    Long nextBase = segments.higherKey(base);
+                    if (nextBase == null) {
+                        return null;
+                    }
+                    open(nextBase);
+                    continue;
+                }
+                if (length <= 0) {
+                    return null;
+                }
+                int crc = buffer.getInt(buffer.position() + 4);
+                long sequence = buffer.getLong(buffer.position() + 8);
+                byte[] body = new byte[length];
+                buffer.get(buffer.position() + RECORD_HEADER, body);
+                CRC32 actual = new CRC32();
+                actual.update(body);
+                if (sequence != nextSequence || crc != (int) actual.getValue()) {
+                    throw new IOException("Corrupt webhook journal record " + nextSequence + " in segment " + base);
+                }
+                buffer.position(buffer.position() + RECORD_HEADER + length);
+                nextSequence++;
+                return decode(sequence, body);
+            }
+            return null;
+        }
+
+        public long getNextSequence() {
+            return nextSequence;
+        }
+
+        private void open(long segmentBase) throws IOException {
+            Path path = segments.get(segmentBase);
+            if (path == null) {
+                throw new IOException("Webhook journal segment " + segmentBase + " was deleted");
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            base = segmentBase;
+            nextSequence = segmentBase;
+        }
+    }
+
+    /**
+     * One journaled webhook
+     */
+    public record Entry(long sequence, WebhookSource source, long receivedAtMillis, Map<String, String> headers,
+                        byte[] payload) {
+    }
+
+    private record Segment(long base, Path path, FileChannel channel, MappedByteBuffer buffer) {
+    }
+
+    /**
+     * The webhook was not journaled; the gateway should redeliver it
+     */
+    public static class JournalUnavailableException extends IllegalStateException {
+
+        public JournalUnavailableException(String message) {
+            super(message);
+        }
+
+        public JournalUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.config.WebhookJournalProperties;
+import vn.chiendt.skilio.sevice.PaymentWebhookService;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Applies journaled webhooks in journal order from a single background thread. Up to window entries are
+ * handed to the status writer without waiting, so they share its transactions, and the applied position
+ * only moves over a prefix of entries that have all completed. It is committed every commitInterval, so
+ * after a crash the events since the last commit are applied again (at least once). When an event fails,
+ * nothing new is submitted, the rest of the window is awaited and reading starts again at the failed event,
+ * so it and everything behind it are applied again in journal order (the ones already applied come back as
+ * duplicates). An event that still fails after maxAttempts is logged and skipped, so one bad webhook cannot
+ * stall the ones behind it.
+ */
+@Slf4j(topic = "WEBHOOK-CONSUMER")
+@Component
+@ConditionalOnProperty(prefix = "paylater.webhook.journal", name = "enabled", havingValue = "true")
+public class WebhookJournalConsumer {
+
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final WebhookJournal webhookJournal;
+    private final PaymentWebhookService paymentWebhookService;
+    private final WebhookJournalProperties.Consumer config;
+    private final Thread consumerThread;
+    private volatile boolean running = true;
+    private volatile long appliedSequence;
+
+    public WebhookJournalConsumer(WebhookJournal webhookJournal,
+                                  PaymentWebhookService paymentWebhookService,
+                                  WebhookJournalProperties properties,
+                                  MeterRegistry meterRegistry) {
+        this.webhookJournal = webhookJournal;
+        this.paymentWebhookService = paymentWebhookService;
+        this.config = properties.getConsumer();
+        this.consumerThread = new Thread(this::consumeLoop, "webhook-journal-consumer");
+
+        Gauge.builder("paylater.webhook.journal.lag", this,
+                        consumer -> consumer.webhookJournal.getDurableSequence() - consumer.appliedSequence)
+                .description("Journaled webhooks not applied yet")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        consumerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        consumerThread.interrupt();
+        consumerThread.join(config.getCommitInterval().toMillis() + 1000);
+    }
+
+    private void consumeLoop() {
+        WebhookJournal.Cursor cursor = null;
+        Deque<InFlight> inFlight = new ArrayDeque<>(config.getWindow());
+        long committed = 0;
+        long nextCommit = System.nanoTime();
+        long retrySequence = 0;
+        int retryAttempt = 1;
+        while (running) {
+            try {
+                if (cursor == null) {
+                    committed = webhookJournal.committedSequence();
+                    appliedSequence = committed;
+                    cursor = webhookJournal.cursor(committed);
+                    inFlight.clear();
+                    log.info("Applying journaled webhooks after sequence {}", committed);
+                }
+                // Gửi cả cửa sổ cho status writer mà không chờ, để các event được gộp chung transaction
+                WebhookJournal.Entry entry = null;
+                while (inFlight.size() < config.getWindow() && (entry = cursor.next()) != null) {
+                    int attempt = entry.sequence() == retrySequence ? retryAttempt : 1;
+                    inFlight.addLast(new InFlight(entry, submit(entry), attempt));
+                }
+                InFlight failed = advance(inFlight);
+                if (failed != null) {
+                    // Cửa sổ đã trống: đọc lại từ event lỗi để nó và các event sau được gửi lại theo thứ tự journal
+                    retrySequence = failed.entry().sequence();
+                    retryAttempt = failed.attempt() + 1;
+                    cursor = webhookJournal.cursor(retrySequence - 1);
+                    continue;
+                }
+                if (inFlight.isEmpty()) {
+                    webhookJournal.awaitDurable(cursor.getNextSequence(), IDLE_WAIT_NANOS);
+                } else if (entry == null || inFlight.size() == config.getWindow()) {
+                    awaitQuietly(inFlight.peekFirst().result());
+                }
+                if (appliedSequence > committed && System.nanoTime() - nextCommit >= 0) {
+                    webhookJournal.commit(appliedSequence);
+                    committed = appliedSequence;
+                    nextCommit = System.nanoTime() + config.getCommitInterval().toNanos();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Đọc lại từ vị trí đã commit
+                log.error("Error consuming webhook journal", e);
+                cursor = null;
+                sleep(config.getRetryBackoff().toMillis());
+            }
+        }
+        commitQuietly(committed);
+    }
+
+    /**
+     * Move the applied position over the completed prefix of the window. If the head failed and has attempts
+     * left, wait until the entries behind it are done, empty the window and return the failed entry, so the
+     * caller reads again from it; entries behind it are not counted as applied.
+     * @return Failed head entry to read again from, null if the window can go on
+     */
+    private InFlight advance(Deque<InFlight> inFlight) throws InterruptedException {
+        while (!inFlight.isEmpty() && inFlight.peekFirst().result().isDone()) {
+            InFlight head = inFlight.pollFirst();
+            WebhookJournal.Entry entry = head.entry();
+            try {
+                head.result().join();
+            } catch (CompletionException | CancellationException e) {
+                if (!running) {
+                    // Dừng giữa chừng thì không bỏ qua event, lần chạy sau apply lại
+                    throw new InterruptedException("Webhook consumer stopped");
+                }
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (head.attempt() < config.getMaxAttempts()) {
+                    log.warn("Error applying {} webhook {} (attempt {})", entry.source(), entry.sequence(),
+                            head.attempt(), cause);
+                    for (InFlight behind : inFlight) {
+                        while (!behind.result().isDone()) {
+                            if (!running) {
+                                throw new InterruptedException("Webhook consumer stopped");
+                            }
+                            awaitQuietly(behind.result());
+                        }
+                    }
+                    inFlight.clear();
+                    Thread.sleep(config.getRetryBackoff().toMillis() * head.attempt());
+                    return head;
+                }
+                log.error("Skipping {} webhook {} after {} attempts", entry.source(), entry.sequence(),
+                        head.attempt(), cause);
+            }
+            appliedSequence = entry.sequence();
+        }
+        return null;
+    }
+
+    private CompletableFuture<?> submit(WebhookJournal.Entry entry) {
+        try {
+            return paymentWebhookService.submitWebhook(entry.source(), entry.payload());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static void awaitQuietly(CompletableFuture<?> result) throws InterruptedException {
+        try {
+            result.get(IDLE_WAIT_NANOS, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | CancellationException | TimeoutException e) {
+            // Kết quả được xử lý trong advance
+        }
+    }
+
+    private void commitQuietly(long committed) {
+        if (appliedSequence <= committed) {
+            return;
+        }
+        try {
+            webhookJournal.commit(appliedSequence);
+        } catch (Exception e) {
+            log.warn("Error committing webhook journal position {}", appliedSequence, e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Journal entry handed to the status writer, with its pending result
+     */
+    private record InFlight(WebhookJournal.Entry entry, CompletableFuture<?> result, int attempt) {
+    }
+}
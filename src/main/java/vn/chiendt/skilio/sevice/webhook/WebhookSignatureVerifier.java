@@ -0,0 +1,251 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import vn.chiendt.skilio.config.WebhookSignatureProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * HMAC-SHA256 verification of gateway webhooks against every active secret of the gateway.
+ * The signed timestamp is checked before anything is hashed, and signatures are compared in constant time.
+ * Keyed Mac instances are pooled instead of held per thread: in virtual-thread mode every request runs
+ * on a new thread, so a ThreadLocal Mac would be created on every call.
+ */
+@Slf4j(topic = "WEBHOOK-SIGNATURE")
+@Component
+public class WebhookSignatureVerifier {
+
+    public static final String PAYPAL_TRANSMISSION_ID = "PayPal-Transmission-Id";
+    public static final String PAYPAL_TRANSMISSION_TIME = "PayPal-Transmission-Time";
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final int MAX_SIGNATURES = 4;
+
+    private final long toleranceSeconds;
+    private final Map<WebhookSource, SecretKeys> secrets = new EnumMap<>(WebhookSource.class);
+    private final Map<WebhookSource, Counter> rejected = new EnumMap<>(WebhookSource.class);
+
+    public WebhookSignatureVerifier(WebhookSignatureProperties properties, MeterRegistry meterRegistry) {
+        this.toleranceSeconds = properties.getTolerance().toSeconds();
+        for (WebhookSource source : WebhookSource.values()) {
+            List<String> configured = properties.getSecrets().getOrDefault(source, List.of()).stream()
+                    .filter(secret -> secret != null && !secret.isBlank())
+                    .toList();
+            if (configured.isEmpty()) {
+                log.warn("No webhook secret configured for {}, its webhooks will be rejected", source);
+            }
+            secrets.put(source, new SecretKeys(configured));
+            rejected.put(source, Counter.builder("paylater.webhook.signature.rejected")
+                    .description("Webhooks rejected for a missing, stale or invalid signature")
+                    .tag("source", source.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Verify a webhook from the headers it was received with
+     * @param source Gateway
+     * @param payload Raw webhook body
+     * @param headers Signature headers of the gateway
+     * @throws InvalidSignatureException if the signature is missing, too old or matches no active secret
+     */
+    public void verify(WebhookSource source, byte[] payload, Map<String, String> headers) {
+        switch (source) {
+            case STRIPE -> verifyStripe(payload, headers.get(source.getSignatureHeader()));
+            case PAYPAL -> verifyPayPal(payload, headers.get(PAYPAL_TRANSMISSION_ID),
+                    headers.get(PAYPAL_TRANSMISSION_TIME), headers.get(source.getSignatureHeader()));
+            case GENERIC -> verifyGeneric(payload, headers.get(source.getSignatureHeader()));
+        }
+    }
+
+    /**
+     * @param signatureHeader Stripe-Signature: t=timestamp,v1=hex[,v1=hex...] over "timestamp.payload"
+     */
+    public void verifyStripe(byte[] payload, String signatureHeader) {
+        verifyTimestamped(WebhookSource.STRIPE, payload, signatureHeader);
+    }
+
+    /**
+     * @param signatureHeader X-Webhook-Signature, same layout as Stripe's
+     */
+    public void verifyGeneric(byte[] payload, String signatureHeader) {
+        verifyTimestamped(WebhookSource.GENERIC, payload, signatureHeader);
+    }
+
+    /**
+     * @param transmissionTime ISO-8601 time the webhook was sent
+     * @param transmissionSig Base64 HMAC over "transmissionId|transmissionTime|crc32(payload)"
+     */
+    public void verifyPayPal(byte[] payload, String transmissionId, String transmissionTime, String transmissionSig) {
+        WebhookSource source = WebhookSource.PAYPAL;
+        if (transmissionId == null || transmissionTime == null || transmissionSig == null) {
+            throw reject(source, "missing transmission headers");
+        }
+        try {
+            checkTimestamp(source, Instant.parse(transmissionTime).getEpochSecond());
+        } catch (DateTimeParseException e) {
+            throw reject(source, "invalid transmission time");
+        }
+        byte[][] signatures = new byte[1][];
+        try {
+            signatures[0] = Base64.getDecoder().decode(transmissionSig);
+        } catch (IllegalArgumentException e) {
+            throw reject(source, "malformed signature");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        byte[] signed = (transmissionId + "|" + transmissionTime + "|" + crc.getValue()).getBytes(StandardCharsets.UTF_8);
+        if (!matchesAny(source, signed, null, signatures, 1)) {
+            throw reject(source, "no matching signature");
+        }
+    }
+
+    private void verifyTimestamped(WebhookSource source, byte[] payload, String header) {
+        if (header == null || header.isEmpty()) {
+            throw reject(source, "missing signature");
+        }
+        // Tách header bằng indexOf, chưa decode chữ ký nào trước khi kiểm tra timestamp
+        int timestampStart = -1;
+        int timestampEnd = -1;
+        int[] signatureStarts = new int[MAX_SIGNATURES];
+        int[] signatureEnds = new int[MAX_SIGNATURES];
+        int count = 0;
+        for (int start = 0; start < header.length(); ) {
+            int end = header.indexOf(',', start);
+            if (end < 0) {
+                end = header.length();
+            }
+            if (header.startsWith("t=", start)) {
+                timestampStart = start + 2;
+                timestampEnd = end;
+            } else if (header.startsWith("v1=", start) && count < MAX_SIGNATURES) {
+                signatureStarts[count] = start + 3;
+                signatureEnds[count++] = end;
+            }
+            start = end + 1;
+        }
+        if (timestampStart < 0 || count == 0) {
+            throw reject(source, "malformed signature header");
+        }
+        try {
+            checkTimestamp(source, Long.parseLong(header, timestampStart, timestampEnd, 10));
+        } catch (NumberFormatException e) {
+            throw reject(source, "malformed timestamp");
+        }
+
+        byte[][] signatures = new byte[count][];
+        try {
+            for (int i = 0; i < count; i++) {
+                signatures[i] = HexFormat.of().parseHex(header, signatureStarts[i], signatureEnds[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw reject(source, "malformed signature");
+        }
+        byte[] signedPrefix = header.substring(timestampStart, timestampEnd).concat(".")
+                .getBytes(StandardCharsets.US_ASCII);
+        if (!matchesAny(source, signedPrefix, payload, signatures, count)) {
+            throw reject(source, "no matching signature");
+        }
+    }
+
+    private void checkTimestamp(WebhookSource source, long epochSecond) {
+        if (Math.abs(Instant.now().getEpochSecond() - epochSecond) > toleranceSeconds) {
+            throw reject(source, "timestamp outside tolerance");
+        }
+    }
+
+    private boolean matchesAny(WebhookSource source, byte[] prefix, byte[] payload, byte[][] signatures, int count) {
+        SecretKeys keys = secrets.get(source);
+        Mac[] macs = keys.borrow();
+        try {
+            for (Mac mac : macs) {
+                mac.update(prefix);
+                if (payload != null) {
+                    mac.update(payload);
+                }
+                byte[] expected = mac.doFinal();
+                for (int i = 0; i < count; i++) {
+                    // So sánh thời gian hằng, không lộ số byte trùng
+                    if (MessageDigest.isEqual(expected, signatures[i])) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            keys.release(macs);
+        }
+    }
+
+    private InvalidSignatureException reject(WebhookSource source, String reason) {
+        rejected.get(source).increment();
+        return new InvalidSignatureException(source + " webhook rejected: " + reason);
+    }
+
+    /**
+     * Active secrets of one gateway, with a pool of Mac sets already keyed with them.
+     * doFinal resets a Mac to its keyed state, so a borrowed set is reused as is.
+     */
+    private static final class SecretKeys {
+
+        private final SecretKeySpec[] keys;
+        private final ConcurrentLinkedQueue<Mac[]> pool = new ConcurrentLinkedQueue<>();
+
+        private SecretKeys(List<String> secrets) {
+            this.keys = secrets.stream()
+                    .map(secret -> new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA256))
+                    .toArray(SecretKeySpec[]::new);
+            // Khởi tạo thử ngay lúc start để secret lỗi làm app fail sớm
+            pool.offer(newMacs());
+        }
+
+        private Mac[] borrow() {
+            Mac[] macs = pool.poll();
+            return macs != null ? macs : newMacs();
+        }
+
+        private void release(Mac[] macs) {
+            pool.offer(macs);
+        }
+
+        private Mac[] newMacs() {
+            Mac[] macs = new Mac[keys.length];
+            try {
+                for (int i = 0; i < keys.length; i++) {
+                    macs[i] = Mac.getInstance(HMAC_SHA256);
+                    macs[i].init(keys[i]);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize " + HMAC_SHA256, e);
+            }
+            return macs;
+        }
+    }
+
+    /**
+     * The webhook signature is missing, too old or matches no active secret
+     */
+    public static class InvalidSignatureException extends IllegalArgumentException {
+
+        public InvalidSignatureException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.PlanEventType;
+import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.domain.message.PlanLifecycleMessage;
+import vn.chiendt.skilio.entity.InstallmentTransactions;
+import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.sevice.OutboxService;
+import vn.chiendt.skilio.sevice.PlanActivationService;
+import vn.chiendt.skilio.sevice.scheduler.RetryClassifier;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Applies webhook status transitions in groups: a single writer thread collects up to maxBatchSize
+ * updates or waits at most maxDelay, then applies the whole group in one transaction. The transactions
+ * are loaded with one query per gateway, their updates and outbox events go out as JDBC batches
+ * (hibernate.jdbc.batch_size) and the group pays for a single commit. Callers either block until their
+ * group commits (apply) or keep several updates in flight (submit). A group that fails is applied again
+ * one update at a time, so one bad event does not fail the others. Only PENDING/FAILED → SUCCESS, PENDING → FAILED and SUCCESS → REFUNDED are applied.
+ * The transactions are read with a row lock, so the status checked is still the status when the group flushes.
+ */
+@Slf4j(topic = "WEBHOOK-COALESCER")
+@Component
+public class WebhookStatusCoalescer {
+
+    private static final long IDLE_WAIT_MILLIS = 500;
+    // Trạng thái hiện tại được phép của transaction, theo trạng thái webhook yêu cầu
+    private static final Map<TransactionStatus, Set<TransactionStatus>> ALLOWED_FROM = Map.of(
+            TransactionStatus.SUCCESS, EnumSet.of(TransactionStatus.PENDING, TransactionStatus.FAILED),
+            TransactionStatus.FAILED, EnumSet.of(TransactionStatus.PENDING),
+            TransactionStatus.REFUNDED, EnumSet.of(TransactionStatus.SUCCESS));
+
+    private final InstallmentTransactionsRepository installmentTransactionsRepository;
+    private final WebhookDeduplicator webhookDeduplicator;
+    private final OutboxService outboxService;
+    private final RetryClassifier retryClassifier;
+    private final PlanActivationService planActivationService;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long replyTimeoutMillis;
+    private final BlockingQueue<Pending> queue;
+    private final DistributionSummary groupSizes;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    public WebhookStatusCoalescer(InstallmentTransactionsRepository installmentTransactionsRepository,
+                                  WebhookDeduplicator webhookDeduplicator,
+                                  OutboxService outboxService,
+                                  RetryClassifier retryClassifier,
+                                  PlanActivationService planActivationService,
+                                  TransactionTemplate transactionTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${paylater.webhook.coalescer.max-batch-size}") int maxBatchSize,
+                                  @Value("${paylater.webhook.coalescer.max-delay}") Duration maxDelay,
+                                  @Value("${paylater.webhook.coalescer.reply-timeout}") Duration replyTimeout,
+                                  @Value("${paylater.webhook.coalescer.queue-capacity}") int queueCapacity) {
+        this.installmentTransactionsRepository = installmentTransactionsRepository;
+        this.webhookDeduplicator = webhookDeduplicator;
+        this.outboxService = outboxService;
+        this.retryClassifier = retryClassifier;
+        this.planActivationService = planActivationService;
+        this.transactionTemplate = transactionTemplate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.replyTimeoutMillis = replyTimeout.toMillis();
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.writerThread = new Thread(this::writeLoop, "webhook-status-writer");
+
+        this.groupSizes = DistributionSummary.builder("paylater.webhook.coalescer.group.size")
+                .description("Webhook status updates applied per transaction")
+                .register(meterRegistry);
+        Gauge.builder("paylater.webhook.coalescer.queue", queue, BlockingQueue::size)
+                .description("Webhook status updates waiting for the writer")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        // Writer áp dụng hết hàng đợi rồi mới dừng
+        running = false;
+        writerThread.join(replyTimeoutMillis + IDLE_WAIT_MILLIS);
+    }
+
+    /**
+     * Queue a status transition and wait until the group containing it is committed
+     * @param update Status transition
+     * @return Outcome of the update
+     * @throws IllegalStateException if the update failed, or was not committed within the reply timeout
+     *         (it may still commit later; a redelivery is then dropped as a duplicate)
+     */
+    public Result apply(StatusUpdate update) {
+        try {
+            return submit(update).get(replyTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to apply webhook status update", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Webhook status update not committed within " + replyTimeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for webhook status update", e);
+        }
+    }
+
+    /**
+     * Queue a status transition without waiting for it. Updates are applied in the order they are queued,
+     * so a caller can keep many in flight (the journal consumer) and still apply them in order.
+     * @param update Status transition
+     * @return Completed with the outcome once the group containing the update is committed
+     * @throws IllegalStateException if the writer is stopped or the queue stayed full for the reply timeout
+     */
+    public CompletableFuture<Result> submit(StatusUpdate update) {
+        if (!running) {
+            throw new IllegalStateException("Webhook status writer is stopped");
+        }
+        Pending pending = new Pending(update, new CompletableFuture<>());
+        try {
+            if (!queue.offer(pending, replyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Webhook status queue full");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted queueing webhook status update", e);
+        }
+        return pending.result();
+    }
+
+    private void writeLoop() {
+        List<Pending> group = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                // Gom tới maxBatchSize update hoặc tới khi hết maxDelay
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (group.size() < maxBatchSize) {
+                    if (queue.drainTo(group, maxBatchSize - group.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Webhook status writer interrupted, applying {} queued updates", group.size());
+            }
+            if (!group.isEmpty()) {
+                applyGroup(group);
+                group.clear();
+            }
+        }
+    }
+
+    private void applyGroup(List<Pending> group) {
+        groupSizes.record(group.size());
+        Result[] results;
+        try {
+            results = transactionTemplate.execute(status -> applyInTransaction(group));
+        } catch (Exception e) {
+            if (group.size() == 1) {
+                group.get(0).result().completeExceptionally(e);
+                return;
+            }
+            log.warn("Error applying {} webhook status updates together, applying them one by one", group.size(), e);
+            for (Pending pending : group) {
+                applyGroup(List.of(pending));
+            }
+            return;
+        }
+        // Chỉ trả lời caller sau khi transaction đã commit
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).result().complete(results[i]);
+        }
+    }
+
+    private Result[] applyInTransaction(List<Pending> group) {
+        Result[] results = new Result[group.size()];
+
+        // Một query cho mỗi gateway trong nhóm; row bị lock tới commit nên retry, sweep hay checkout
+        // không thể đổi status giữa lúc kiểm tra ALLOWED_FROM và lúc flush
+        Map<String, List<String>> refsByGateway = new LinkedHashMap<>();
+        for (Pending pending : group) {
+            refsByGateway.computeIfAbsent(pending.update().gatewayProvider(), gateway -> new ArrayList<>())
+                    .add(pending.update().paymentRef());
+        }
+        Map<String, InstallmentTransactions> transactions = new HashMap<>();
+        refsByGateway.forEach((gateway, refs) -> installmentTransactionsRepository
+                .lockByGatewayProviderAndPaymentRefIn(gateway, refs)
+                .forEach(transaction -> transactions.put(key(gateway, transaction.getPaymentRef()), transaction)));
+
+        // Event của transaction chưa có thì không ghi nhận, để lần gửi lại vẫn được xử lý
+        List<StatusUpdate> found = new ArrayList<>(group.size());
+        List<Integer> foundIndexes = new ArrayList<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            StatusUpdate update = group.get(i).update();
+            if (transactions.containsKey(key(update.gatewayProvider(), update.paymentRef()))) {
+                found.add(update);
+                foundIndexes.add(i);
+            } else {
+                log.warn("Transaction not found for payment reference: {}", update.paymentRef());
+                results[i] = Result.NOT_FOUND;
+            }
+        }
+        if (found.isEmpty()) {
+            return results;
+        }
+
+        boolean[] claimed = webhookDeduplicator.markProcessed(found);
+        LocalDateTime now = LocalDateTime.now();
+        for (int j = 0; j < found.size(); j++) {
+            int i = foundIndexes.get(j);
+            if (!claimed[j]) {
+                results[i] = Result.DUPLICATE;
+                continue;
+            }
+            StatusUpdate update = found.get(j);
+            InstallmentTransactions transaction = transactions.get(key(update.gatewayProvider(), update.paymentRef()));
+            // Webhook đến muộn không được làm transaction đi lùi (SUCCESS → FAILED, REFUNDED → SUCCESS)
+            if (!ALLOWED_FROM.get(update.status()).contains(transaction.getStatus())) {
+                log.info("Ignoring {} webhook for transaction {} in status {}", update.status(),
+                        transaction.getId(), transaction.getStatus());
+                results[i] = Result.IGNORED;
+                continue;
+            }
+            // Entity đang được quản lý: các UPDATE được flush thành một batch lúc commit
+            PlanEventType eventType = applyTo(transaction, update, now);
+            outboxService.append(transactionEvent(eventType, transaction));
+            if (eventType == PlanEventType.TRANSACTION_SUCCEEDED
+                    && transaction.getInstallment().getInstallmentNumber() == 1) {
+                planActivationService.activate(transaction.getInstallment().getPlanId(), transaction.getPaymentRef(), now);
+            }
+            results[i] = Result.APPLIED;
+        }
+        return results;
+    }
+
+    private PlanEventType applyTo(InstallmentTransactions transaction, StatusUpdate update, LocalDateTime now) {
+        switch (update.status()) {
+            case SUCCESS -> {
+                transaction.setStatus(TransactionStatus.SUCCESS);
+                transaction.setNextRetryAt(null);
+                transaction.setDeclineCode(null);
+                transaction.setDeclineCategory(null);
+                transaction.setChargedAt(now);
+                transaction.setMessage("Payment successful via webhook");
+                return PlanEventType.TRANSACTION_SUCCEEDED;
+            }
+            case FAILED -> {
+                transaction.setStatus(TransactionStatus.FAILED);
+                transaction.setMessage("Payment failed via webhook: " + update.errorMessage());
+                RetryClassifier.Decision decision = retryClassifier.decide(update.declineCode(),
+                        transaction.getAttemptNumber(), now);
+                transaction.setDeclineCode(decision.declineCode());
+                transaction.setDeclineCategory(decision.category());
+                transaction.setNextRetryAt(decision.nextRetryAt());
+                return PlanEventType.TRANSACTION_FAILED;
+            }
+            case REFUNDED -> {
+                transaction.setStatus(TransactionStatus.REFUNDED);
+                transaction.setNextRetryAt(null);
+                transaction.setRefundAmount(update.refundAmount());
+                transaction.setMessage("Refund processed via webhook");
+                return PlanEventType.TRANSACTION_REFUNDED;
+            }
+            default -> throw new IllegalArgumentException("Not a webhook status transition: " + update.status());
+        }
+    }
+
+    private PlanLifecycleMessage transactionEvent(PlanEventType eventType, InstallmentTransactions transaction) {
+        return PlanLifecycleMessage.builder()
+                .eventType(eventType)
+                .planId(transaction.getInstallment().getPlanId())
+                .transactionId(transaction.getId())
+                .status(transaction.getStatus().name())
+                .paymentRef(transaction.getPaymentRef())
+                .amount(eventType == PlanEventType.TRANSACTION_REFUNDED
+                        ? transaction.getRefundAmount() : transaction.getAmount())
+                .currency(transaction.getInstallment().getCurrency())
+                .message(transaction.getMessage())
+                .build();
+    }
+
+    private static String key(String gatewayProvider, String paymentRef) {
+        return gatewayProvider + ":" + paymentRef;
+    }
+
+    /**
+     * Outcome of one status update. IGNORED: the transaction's current status does not allow the
+     * transition (a late or out-of-order event), the event is recorded as processed and nothing changes.
+     */
+    public enum Result {
+        APPLIED, NOT_FOUND, DUPLICATE, IGNORED
+    }
+
+    private record Pending(StatusUpdate update, CompletableFuture<Result> result) {
+    }
+}
@@ -0,0 +1,51 @@
+package vn.chiendt.skilio.utils;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UUIDv7 style identifiers: 48-bit Unix millis, version 7, a 12-bit sequence and 62 random bits.
+ * IDs are strictly increasing inside one JVM, so inserts land on the right edge of the B-tree
+ * instead of on random pages like v4 UUIDs.
+ * The random part comes from ThreadLocalRandom: IDs are unique and ordered, not secrets.
+ */
+public final class TimeOrderedUuid {
+
+    private static final int SEQUENCE_BITS = 12;
+
+    /** Last issued (millis << 12 | sequence), advanced by CAS so no thread ever blocks */
+    private static final AtomicLong LAST_TICK = new AtomicLong();
+
+    private TimeOrderedUuid() {
+    }
+
+    public static UUID next() {
+        long tick = nextTick();
+        long mostSigBits = (tick >>> SEQUENCE_BITS) << 16    // unix_ts_ms
+                | 0x7000L                                    // version 7
+                | (tick & 0xFFFL);                           // rand_a used as sequence
+        long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL)
+                | 0x8000000000000000L;                       // variant 0b10
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * Canonical 36-char form, same shape as the ids produced by GenerationType.UUID
+     */
+    public static String nextString() {
+        return next().toString();
+    }
+
+    private static long nextTick() {
+        while (true) {
+            long last = LAST_TICK.get();
+            long now = System.currentTimeMillis() << SEQUENCE_BITS;
+            // Same millisecond (or clock went back): bump the sequence, overflow borrows from the next millisecond
+            long next = Math.max(now, last + 1);
+            if (LAST_TICK.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+}
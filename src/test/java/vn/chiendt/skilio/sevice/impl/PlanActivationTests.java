@@ -0,0 +1,263 @@
+package vn.chiendt.skilio.sevice.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.config.RetryClassifierProperties;
+import vn.chiendt.skilio.constant.ChargeOutcome;
+import vn.chiendt.skilio.constant.Currency;
+import vn.chiendt.skilio.constant.PaylaterStatus;
+import vn.chiendt.skilio.constant.PlanEventType;
+import vn.chiendt.skilio.constant.TransactionStatus;
+import vn.chiendt.skilio.entity.Installment;
+import vn.chiendt.skilio.entity.InstallmentTransactions;
+import vn.chiendt.skilio.entity.PaylaterPlans;
+import vn.chiendt.skilio.repository.InstallmentRepository;
+import vn.chiendt.skilio.repository.InstallmentTransactionsRepository;
+import vn.chiendt.skilio.repository.OutboxEventRepository;
+import vn.chiendt.skilio.repository.PaylaterPlansRepository;
+import vn.chiendt.skilio.sevice.PayLaterSchedulerService;
+import vn.chiendt.skilio.sevice.PaymentService;
+import vn.chiendt.skilio.sevice.cache.PaylaterPlanCache;
+import vn.chiendt.skilio.sevice.feign.PaymentServiceFeignClient;
+import vn.chiendt.skilio.sevice.scheduler.DurableTimerService;
+import vn.chiendt.skilio.sevice.scheduler.GatewayCircuitBreaker;
+import vn.chiendt.skilio.sevice.scheduler.RetryClassifier;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * A plan whose first charge failed becomes ACTIVE when a retry succeeds, and its later installments are
+ * then charged by the scheduler; a charge whose outcome is unknown is retried with the same idempotency key. Needs a scratch PostgreSQL database:
+ * <pre>
+ * mvn test -Dtest=PlanActivationTests -Dtest.jdbc.url=jdbc:postgresql://localhost:5432/paylater_test \
+ *     -Dtest.jdbc.user=postgres -Dtest.jdbc.password=postgres
+ * </pre>
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@EnabledIfSystemProperty(named = "test.jdbc.url", matches = ".+")
+class PlanActivationTests {
+
+    private static final String PAYMENT_METHOD = "pm_card_customer_1";
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("test.jdbc.url"));
+        registry.add("spring.datasource.username", () -> System.getProperty("test.jdbc.user"));
+        registry.add("spring.datasource.password", () -> System.getProperty("test.jdbc.password"));
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "create-drop");
+    }
+
+    @Autowired
+    private PaylaterPlansRepository paylaterPlansRepository;
+
+    @Autowired
+    private InstallmentRepository installmentRepository;
+
+    @Autowired
+    private InstallmentTransactionsRepository installmentTransactionsRepository;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final PaymentServiceFeignClient paymentService = mock(PaymentServiceFeignClient.class);
+    private final PayLaterSchedulerService payLaterSchedulerService = mock(PayLaterSchedulerService.class);
+    private PlanActivationServiceImpl planActivationService;
+    private RetryServiceImpl retryService;
+    private InstallmentChargeServiceImpl installmentChargeService;
+
+    @BeforeEach
+    void setUp() {
+        outboxEventRepository.deleteAllInBatch();
+        installmentTransactionsRepository.deleteAllInBatch();
+        installmentRepository.deleteAllInBatch();
+        paylaterPlansRepository.deleteAllInBatch();
+
+        @SuppressWarnings("unchecked")
+        ObjectProvider<PayLaterSchedulerService> scheduler = mock(ObjectProvider.class);
+        when(scheduler.getObject()).thenReturn(payLaterSchedulerService);
+        OutboxServiceImpl outboxService = new OutboxServiceImpl(outboxEventRepository,
+                new ObjectMapper().findAndRegisterModules());
+        planActivationService = new PlanActivationServiceImpl(paylaterPlansRepository, installmentRepository,
+                new PaylaterPlanCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1)), outboxService, scheduler);
+
+        GatewayCircuitBreaker gatewayCircuitBreaker = mock(GatewayCircuitBreaker.class);
+        when(gatewayCircuitBreaker.tryAcquire(anyString())).thenReturn(true);
+        RetryClassifier retryClassifier = new RetryClassifier(new RetryClassifierProperties(), new SimpleMeterRegistry());
+        retryService = new RetryServiceImpl(installmentTransactionsRepository, paylaterPlansRepository,
+                paymentService, mock(DurableTimerService.class), transactionTemplate, gatewayCircuitBreaker,
+                retryClassifier, planActivationService, outboxService);
+        ReflectionTestUtils.setField(retryService, "claimLease", Duration.ofMinutes(5));
+
+        installmentChargeService = new InstallmentChargeServiceImpl(installmentRepository,
+                installmentTransactionsRepository, paylaterPlansRepository, paymentService, transactionTemplate,
+                outboxService, retryClassifier);
+    }
+
+    @Test
+    void retrySuccessActivatesPlanAndLaterInstallmentsAreCharged() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        PaylaterPlans plan = savePlan();
+        Installment first = saveInstallment(plan, 1, now.minusDays(1));
+        Installment second = saveInstallment(plan, 2, now);
+        InstallmentTransactions failedCharge = installmentTransactionsRepository.save(InstallmentTransactions.builder()
+                .installment(first)
+                .status(TransactionStatus.FAILED)
+                .amount(first.getPlannedAmount())
+                .paymentMethodId(PAYMENT_METHOD)
+                .gatewayProvider("stripe")
+                .message("First charge failed: card_declined")
+                .nextRetryAt(now.minusMinutes(1))
+                .build());
+        when(paymentService.charge(any(), anyString(), anyString(), anyString()))
+                .thenReturn(succeeded("ch_retry_1"), succeeded("ch_scheduled_2"));
+
+        assertThat(retryService.processRetry(failedCharge.getId())).isTrue();
+
+        PaylaterPlans activated = paylaterPlansRepository.findById(plan.getId()).orElseThrow();
+        assertThat(activated.getStatus()).isEqualTo(PaylaterStatus.ACTIVE);
+        assertThat(activated.getFirstChargeId()).isEqualTo("ch_retry_1");
+        assertThat(outboxEventRepository.findAll())
+                .filteredOn(event -> event.getEventType() == PlanEventType.PLAN_ACTIVATED)
+                .hasSize(1);
+        verify(payLaterSchedulerService).scheduleNextInstallment(second.getId(), plan.getId(), second.getDueDate());
+
+        // Installment #2 đến hạn: plan đã ACTIVE nên scheduler charge được
+        InstallmentTransactions scheduled = installmentChargeService.prepareCharge(second.getId());
+        assertThat(scheduled).isNotNull();
+        assertThat(scheduled.getPaymentMethodId()).isEqualTo(PAYMENT_METHOD);
+        assertThat(installmentChargeService.charge(scheduled)).isEqualTo(ChargeOutcome.SUCCEEDED);
+        assertThat(installmentTransactionsRepository.existsByInstallmentIdAndStatusIn(second.getId(),
+                List.of(TransactionStatus.SUCCESS))).isTrue();
+    }
+
+    @Test
+    void planIsActivatedOnlyOnce() {
+        PaylaterPlans plan = savePlan();
+        saveInstallment(plan, 1, LocalDateTime.now());
+        LocalDateTime now = LocalDateTime.now();
+
+        assertThat(transactionTemplate.<Boolean>execute(status ->
+                planActivationService.activate(plan.getId(), "ch_checkout", now))).isTrue();
+        // Webhook đến sau cho cùng lần charge
+        assertThat(transactionTemplate.<Boolean>execute(status ->
+                planActivationService.activate(plan.getId(), "ch_webhook", now))).isFalse();
+
+        assertThat(paylaterPlansRepository.findById(plan.getId()).orElseThrow().getFirstChargeId())
+                .isEqualTo("ch_checkout");
+        assertThat(outboxEventRepository.findAll())
+                .filteredOn(event -> event.getEventType() == PlanEventType.PLAN_ACTIVATED)
+                .hasSize(1);
+    }
+
+    @Test
+    void gatewayTimeoutsAreRetriedWithTheSameIdempotencyKey() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        PaylaterPlans plan = savePlan();
+        Installment first = saveInstallment(plan, 1, now.minusMonths(1));
+        Installment second = saveInstallment(plan, 2, now);
+        installmentTransactionsRepository.save(InstallmentTransactions.builder()
+                .installment(first)
+                .status(TransactionStatus.SUCCESS)
+                .amount(first.getPlannedAmount())
+                .paymentMethodId(PAYMENT_METHOD)
+                .gatewayProvider("stripe")
+                .paymentRef("ch_checkout")
+                .build());
+        transactionTemplate.executeWithoutResult(status ->
+                planActivationService.activate(plan.getId(), "ch_checkout", now));
+        // Hai lần timeout (gateway có thể đã charge), lần thứ ba gateway trả lời
+        when(paymentService.charge(any(), anyString(), anyString(), anyString()))
+                .thenThrow(new RuntimeException("Read timed out"))
+                .thenThrow(new RuntimeException("Read timed out"))
+                .thenReturn(succeeded("ch_scheduled_2"));
+
+        InstallmentTransactions scheduled = installmentChargeService.prepareCharge(second.getId());
+        assertThat(installmentChargeService.charge(scheduled)).isEqualTo(ChargeOutcome.GATEWAY_ERROR);
+        InstallmentTransactions deferred = installmentTransactionsRepository.findById(scheduled.getId()).orElseThrow();
+        assertThat(deferred.getStatus()).isEqualTo(TransactionStatus.FAILED);
+        assertThat(deferred.getNextRetryAt()).isNotNull();
+
+        makeRetryDue(scheduled.getId());
+        assertThat(retryService.processRetry(scheduled.getId())).isFalse();
+        InstallmentTransactions stillDeferred = installmentTransactionsRepository.findById(scheduled.getId())
+                .orElseThrow();
+        assertThat(stillDeferred.getAttemptNumber()).isEqualTo(deferred.getAttemptNumber());
+        assertThat(stillDeferred.getNextRetryAt()).isAfter(LocalDateTime.now());
+
+        makeRetryDue(scheduled.getId());
+        assertThat(retryService.processRetry(scheduled.getId())).isTrue();
+
+        ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+        verify(paymentService, times(3)).charge(any(), anyString(), anyString(), keys.capture());
+        assertThat(keys.getAllValues()).containsOnly(PaymentService.idempotencyKey(scheduled.getId(), 1));
+        assertThat(installmentTransactionsRepository.findById(scheduled.getId()).orElseThrow().getStatus())
+                .isEqualTo(TransactionStatus.SUCCESS);
+    }
+
+    private void makeRetryDue(String transactionId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            InstallmentTransactions transaction = installmentTransactionsRepository.findById(transactionId)
+                    .orElseThrow();
+            transaction.setNextRetryAt(LocalDateTime.now().minusSeconds(1).truncatedTo(ChronoUnit.MILLIS));
+        });
+    }
+
+    private PaylaterPlans savePlan() {
+        return paylaterPlansRepository.save(PaylaterPlans.builder()
+                .userId(1L)
+                .orderId("order-1")
+                .principalAmount(new BigDecimal("300.00"))
+                .currency(Currency.USD)
+                .status(PaylaterStatus.PENDING)
+                .installmentsTotal(2)
+                .creationDate(LocalDateTime.now())
+                .build());
+    }
+
+    private Installment saveInstallment(PaylaterPlans plan, int number, LocalDateTime dueDate) {
+        return installmentRepository.save(Installment.builder()
+                .planId(plan.getId())
+                .installmentNumber(number)
+                .dueDate(dueDate)
+                .plannedAmount(new BigDecimal("150.00"))
+                .build());
+    }
+
+    private static PaymentService.PaymentResult succeeded(String transactionId) {
+        PaymentService.PaymentResult result = new PaymentService.PaymentResult();
+        result.setSuccess(true);
+        result.setTransactionId(transactionId);
+        return result;
+    }
+}
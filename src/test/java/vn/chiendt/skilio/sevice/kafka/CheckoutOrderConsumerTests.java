@@ -0,0 +1,176 @@
+package vn.chiendt.skilio.sevice.kafka;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import vn.chiendt.skilio.config.KafkaConfig;
+import vn.chiendt.skilio.domain.dto.CheckoutResultDto;
+import vn.chiendt.skilio.domain.dto.PaylaterPlanCreation;
+import vn.chiendt.skilio.sevice.PaylaterPlansService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * The @KafkaListener of CheckoutOrderConsumer on the real checkoutBatchContainerFactory against an
+ * embedded broker: records of one poll reach the plan service as one batch, records that cannot be
+ * deserialized or converted are skipped without failing the rest of the batch, and a storage failure
+ * redelivers the batch from the first order that was not stored.
+ */
+@SpringBootTest(classes = CheckoutOrderConsumerTests.KafkaTestConfig.class, properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.auto-offset-reset=earliest",
+        "paylater.checkout.kafka.topic=" + CheckoutOrderConsumerTests.TOPIC,
+        "paylater.checkout.kafka.group-id=checkout-consumer-tests",
+        "paylater.checkout.kafka.batch-size=" + CheckoutOrderConsumerTests.BATCH_SIZE,
+        "paylater.checkout.kafka.concurrency=1"
+})
+@EmbeddedKafka(partitions = 1, topics = CheckoutOrderConsumerTests.TOPIC)
+class CheckoutOrderConsumerTests {
+
+    static final String TOPIC = "checkout-consumer-tests";
+    static final int BATCH_SIZE = 50;
+
+    @Configuration
+    @ImportAutoConfiguration(KafkaAutoConfiguration.class)
+    @Import({KafkaConfig.class, CheckoutOrderConsumer.class})
+    static class KafkaTestConfig {
+    }
+
+    @MockitoBean
+    private PaylaterPlansService paylaterPlansService;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void recordBatches() {
+        batches.clear();
+        when(paylaterPlansService.processPayLaterCheckoutBatch(anyList())).thenAnswer(invocation -> {
+            List<PaylaterPlanCreation> requests = invocation.getArgument(0);
+            batches.add(requests.stream().map(PaylaterPlanCreation::getOrderId).toList());
+            return Collections.<CheckoutResultDto>emptyList();
+        });
+    }
+
+    @Test
+    void recordsOfOnePollAreHandedOverAsOneBatch() {
+        List<String> orderIds = new ArrayList<>();
+        // Listener dừng trong lúc gửi để mỗi poll lấy đủ batch-size record
+        publishWhileStopped(template -> {
+            for (int i = 0; i < 120; i++) {
+                String orderId = "batch-order-" + i;
+                orderIds.add(orderId);
+                template.send(TOPIC, orderId, checkoutJson(orderId, "USD"));
+            }
+        });
+
+        await().atMost(Duration.ofSeconds(30)).untilAsserted(() ->
+                assertThat(batches.stream().mapToInt(List::size).sum()).isEqualTo(orderIds.size()));
+
+        assertThat(batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(BATCH_SIZE));
+        assertThat(batches).anySatisfy(batch -> assertThat(batch).hasSize(BATCH_SIZE));
+        assertThat(batches.stream().flatMap(List::stream).toList()).containsExactlyElementsOf(orderIds);
+    }
+
+    @Test
+    void invalidRecordsAreSkippedAndTheRestOfTheBatchIsProcessed() {
+        publishWhileStopped(template -> {
+            template.send(TOPIC, "valid-1", checkoutJson("valid-1", "USD"));
+            template.send(TOPIC, "not-json", "not json");
+            template.send(TOPIC, "valid-2", checkoutJson("valid-2", "usd"));
+            template.send(TOPIC, "no-order-id",
+                    "{\"userId\":1,\"totalAmount\":300.00,\"currency\":\"USD\",\"installmentsTotal\":3}");
+            template.send(TOPIC, "bad-currency", checkoutJson("bad-currency", "XYZ"));
+            template.send(TOPIC, "valid-3", checkoutJson("valid-3", "USD"));
+        });
+
+        await().atMost(Duration.ofSeconds(30)).untilAsserted(() ->
+                assertThat(batches.stream().flatMap(List::stream)).contains("valid-3"));
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsExactly("valid-1", "valid-2", "valid-3");
+    }
+
+    @Test
+    void storageFailureRedeliversTheBatchFromTheFirstUnstoredOrder() {
+        AtomicBoolean failed = new AtomicBoolean();
+        doAnswer(invocation -> {
+            List<PaylaterPlanCreation> requests = invocation.getArgument(0);
+            batches.add(requests.stream().map(PaylaterPlanCreation::getOrderId).toList());
+            if (failed.compareAndSet(false, true)) {
+                throw new PaylaterPlansService.CheckoutStorageException("stored-2", new IllegalStateException("db down"));
+            }
+            return Collections.<CheckoutResultDto>emptyList();
+        }).when(paylaterPlansService).processPayLaterCheckoutBatch(anyList());
+
+        publishWhileStopped(template -> {
+            for (int i = 0; i < 4; i++) {
+                template.send(TOPIC, "stored-" + i, checkoutJson("stored-" + i, "USD"));
+            }
+        });
+
+        await().atMost(Duration.ofSeconds(30)).untilAsserted(() -> assertThat(batches).hasSize(2));
+
+        assertThat(batches.get(0)).containsExactly("stored-0", "stored-1", "stored-2", "stored-3");
+        // Offset của các order đã lưu được commit, batch sau bắt đầu từ order lỗi
+        assertThat(batches.get(1)).containsExactly("stored-2", "stored-3");
+    }
+
+    private void publishWhileStopped(Consumer<KafkaTemplate<String, String>> publish) {
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            container.stop();
+        }
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        DefaultKafkaProducerFactory<String, String> producerFactory = new DefaultKafkaProducerFactory<>(
+                props, new StringSerializer(), new StringSerializer());
+        try {
+            KafkaTemplate<String, String> template = new KafkaTemplate<>(producerFactory);
+            publish.accept(template);
+            template.flush();
+        } finally {
+            producerFactory.destroy();
+        }
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            container.start();
+        }
+    }
+
+    private static String checkoutJson(String orderId, String currency) {
+        return "{\"orderId\":\"" + orderId + "\",\"userId\":1,\"totalAmount\":300.00,\"currency\":\"" + currency
+                + "\",\"installmentsTotal\":3}";
+    }
+}
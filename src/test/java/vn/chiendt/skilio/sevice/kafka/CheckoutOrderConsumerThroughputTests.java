@@ -0,0 +1,130 @@
+package vn.chiendt.skilio.sevice.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import vn.chiendt.skilio.domain.dto.CheckoutResultDto;
+import vn.chiendt.skilio.domain.dto.PaylaterPlanCreation;
+import vn.chiendt.skilio.domain.message.CheckoutOrderMessage;
+import vn.chiendt.skilio.sevice.PaylaterPlansService;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures checkout ingestion throughput for different consumer batch sizes against an embedded broker.
+ * The plan service is stubbed with a fixed cost per call to model the commit of one database transaction.
+ */
+@Slf4j
+@EmbeddedKafka(partitions = 1, topics = {"checkout-batch-1", "checkout-batch-50", "checkout-batch-500"})
+class CheckoutOrderConsumerThroughputTests {
+
+    private static final int MESSAGE_COUNT = 2000;
+    private static final long COMMIT_COST_MILLIS = 2;
+
+    @Test
+    void throughputGrowsWithBatchSize(EmbeddedKafkaBroker broker) throws Exception {
+        double batchOf1 = measureThroughput(broker, 1);
+        double batchOf50 = measureThroughput(broker, 50);
+        double batchOf500 = measureThroughput(broker, 500);
+
+        log.info("Checkout ingestion throughput (events/s): batch=1 -> {}, batch=50 -> {}, batch=500 -> {}",
+                (long) batchOf1, (long) batchOf50, (long) batchOf500);
+
+        assertThat(batchOf50).isGreaterThan(batchOf1);
+        assertThat(batchOf500).isGreaterThan(batchOf1);
+    }
+
+    private double measureThroughput(EmbeddedKafkaBroker broker, int batchSize) throws Exception {
+        String topic = "checkout-batch-" + batchSize;
+        publish(broker, topic);
+
+        CountDownLatch done = new CountDownLatch(MESSAGE_COUNT);
+        AtomicInteger transactions = new AtomicInteger();
+        PaylaterPlansService plansService = mock(PaylaterPlansService.class);
+        when(plansService.processPayLaterCheckoutBatch(anyList())).thenAnswer(invocation -> {
+            List<PaylaterPlanCreation> requests = invocation.getArgument(0);
+            Thread.sleep(COMMIT_COST_MILLIS);
+            transactions.incrementAndGet();
+            requests.forEach(request -> done.countDown());
+            return Collections.<CheckoutResultDto>emptyList();
+        });
+        CheckoutOrderConsumer consumer = new CheckoutOrderConsumer(plansService);
+
+        ContainerProperties containerProperties = new ContainerProperties(topic);
+        containerProperties.setMessageListener((BatchMessageListener<String, CheckoutOrderMessage>) records ->
+                consumer.consume(records.stream().map(ConsumerRecord::value).toList()));
+        KafkaMessageListenerContainer<String, CheckoutOrderMessage> container = new KafkaMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(consumerProps(broker, topic, batchSize),
+                        new StringDeserializer(), new JsonDeserializer<>(CheckoutOrderMessage.class, false)),
+                containerProperties);
+
+        long start = System.nanoTime();
+        container.start();
+        try {
+            assertThat(done.await(60, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            container.stop();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        log.info("batch={} consumed {} events in {} transactions, {} s", batchSize, MESSAGE_COUNT, transactions.get(), seconds);
+        return MESSAGE_COUNT / seconds;
+    }
+
+    private void publish(EmbeddedKafkaBroker broker, String topic) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        DefaultKafkaProducerFactory<String, CheckoutOrderMessage> producerFactory = new DefaultKafkaProducerFactory<>(
+                props, new StringSerializer(), new JsonSerializer<>());
+        KafkaTemplate<String, CheckoutOrderMessage> template = new KafkaTemplate<>(producerFactory);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            String orderId = topic + "-order-" + i;
+            template.send(topic, orderId, CheckoutOrderMessage.builder()
+                    .orderId(orderId)
+                    .userId((long) i)
+                    .totalAmount(new BigDecimal("300.00"))
+                    .currency("USD")
+                    .installmentsTotal(3)
+                    .build());
+        }
+        template.flush();
+        producerFactory.destroy();
+    }
+
+    private Map<String, Object> consumerProps(EmbeddedKafkaBroker broker, String group, int batchSize) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, group);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchSize);
+        return props;
+    }
+}
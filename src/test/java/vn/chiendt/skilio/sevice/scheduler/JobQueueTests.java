@@ -0,0 +1,167 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.chiendt.skilio.constant.JobStatus;
+import vn.chiendt.skilio.constant.JobType;
+import vn.chiendt.skilio.entity.ScheduledJob;
+import vn.chiendt.skilio.repository.ScheduledJobRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lease semantics of the scheduled_jobs queue. Needs a scratch PostgreSQL database (SKIP LOCKED):
+ * <pre>
+ * mvn test -Dtest=JobQueueTests -Dtest.jdbc.url=jdbc:postgresql://localhost:5432/paylater_test \
+ *     -Dtest.jdbc.user=postgres -Dtest.jdbc.password=postgres
+ * </pre>
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@EnabledIfSystemProperty(named = "test.jdbc.url", matches = ".+")
+class JobQueueTests {
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("test.jdbc.url"));
+        registry.add("spring.datasource.username", () -> System.getProperty("test.jdbc.user"));
+        registry.add("spring.datasource.password", () -> System.getProperty("test.jdbc.password"));
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "create-drop");
+    }
+
+    @Autowired
+    private ScheduledJobRepository scheduledJobRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void clean() {
+        scheduledJobRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void enqueueIsIdempotentByJobKey() {
+        JobQueue queue = queue("pod-a", LEASE);
+
+        assertThat(queue.enqueue(JobType.DAILY_CHARGE_RUN, "daily-charge:2026-01-01", "2026-01-01", null,
+                LocalDateTime.now())).isTrue();
+        assertThat(queue.enqueue(JobType.DAILY_CHARGE_RUN, "daily-charge:2026-01-01", "2026-01-01", null,
+                LocalDateTime.now())).isFalse();
+        assertThat(scheduledJobRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentPodsNeverClaimTheSameJob() throws Exception {
+        int jobCount = 2_000;
+        List<JobQueue.JobRequest> jobs = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            jobs.add(new JobQueue.JobRequest("charge:" + i, "installment-" + i, "plan-" + (i % 100),
+                    LocalDateTime.now().minusSeconds(1)));
+        }
+        queue("setup", LEASE).enqueueAll(JobType.INSTALLMENT_CHARGE, jobs);
+
+        Map<String, String> claimedBy = new ConcurrentHashMap<>();
+        List<String> duplicates = new ArrayList<>();
+        List<String> owners = new ArrayList<>();
+        ExecutorService pods = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int pod = 0; pod < 4; pod++) {
+                JobQueue queue = queue("pod-" + pod, LEASE);
+                owners.add(queue.getOwner());
+                workers.add(pods.submit(() -> {
+                    List<ScheduledJob> claimed;
+                    while (!(claimed = queue.claim(JobType.INSTALLMENT_CHARGE, 50)).isEmpty()) {
+                        for (ScheduledJob job : claimed) {
+                            if (claimedBy.putIfAbsent(job.getId(), queue.getOwner()) != null) {
+                                synchronized (duplicates) {
+                                    duplicates.add(job.getId());
+                                }
+                            }
+                        }
+                        queue.complete(claimed);
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pods.shutdown();
+        }
+
+        assertThat(duplicates).isEmpty();
+        assertThat(claimedBy).hasSize(jobCount);
+        assertThat(claimedBy.values()).containsAll(owners);
+        assertThat(scheduledJobRepository.findAll()).allMatch(job -> job.getStatus() == JobStatus.DONE);
+    }
+
+    @Test
+    void expiredLeaseIsReclaimedAndOldOwnerIsFenced() throws Exception {
+        JobQueue crashedPod = queue("pod-a", Duration.ofSeconds(2));
+        JobQueue survivingPod = queue("pod-b", LEASE);
+        crashedPod.enqueue(JobType.RETRY_RUN, "retry-run:1", "1", null, LocalDateTime.now().minusSeconds(1));
+
+        List<ScheduledJob> first = crashedPod.claim(JobType.RETRY_RUN, 10);
+        assertThat(first).hasSize(1);
+        assertThat(survivingPod.claim(JobType.RETRY_RUN, 10)).isEmpty();
+
+        Thread.sleep(2500);
+        List<ScheduledJob> reclaimed = survivingPod.claim(JobType.RETRY_RUN, 10);
+        assertThat(reclaimed).hasSize(1);
+        assertThat(reclaimed.get(0).getAttempts()).isEqualTo(2);
+
+        assertThat(crashedPod.complete(first)).isZero();
+        assertThat(survivingPod.complete(reclaimed)).isEqualTo(1);
+    }
+
+    @Test
+    void extendedLeasesAreNotReclaimed() throws Exception {
+        JobQueue busyPod = queue("pod-a", Duration.ofSeconds(2));
+        JobQueue otherPod = queue("pod-b", LEASE);
+        busyPod.enqueueAll(JobType.INSTALLMENT_CHARGE, List.of(
+                new JobQueue.JobRequest("charge:1", "installment-1", "plan-1", LocalDateTime.now().minusSeconds(1)),
+                new JobQueue.JobRequest("charge:2", "installment-2", "plan-2", LocalDateTime.now().minusSeconds(1))));
+        List<ScheduledJob> claimed = busyPod.claim(JobType.INSTALLMENT_CHARGE, 10);
+        assertThat(claimed).hasSize(2);
+
+        Thread.sleep(1500);
+        assertThat(busyPod.extendLeases(claimed)).isEqualTo(2);
+        Thread.sleep(1000);
+
+        assertThat(otherPod.claim(JobType.INSTALLMENT_CHARGE, 10)).isEmpty();
+        assertThat(otherPod.extendLeases(claimed)).isZero();
+        assertThat(busyPod.complete(claimed)).isEqualTo(2);
+    }
+
+    private JobQueue queue(String hostname, Duration lease) {
+        return new JobQueue(scheduledJobRepository, jdbcTemplate, transactionTemplate, hostname, lease, 5, Duration.ofDays(7));
+    }
+}
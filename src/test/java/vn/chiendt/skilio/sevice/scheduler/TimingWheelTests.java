@@ -0,0 +1,188 @@
+package vn.chiendt.skilio.sevice.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Expiry, cascading and cancellation of the hierarchical timing wheel. With 10 ms ticks, 8 slots and
+ * 3 levels a level-1 slot spans 8 ticks, a level-2 slot 64 ticks and the horizon is 512 ticks.
+ */
+class TimingWheelTests {
+
+    private static final long TICK_MS = 10;
+    private static final int WHEEL_SIZE = 8;
+    private static final int LEVELS = 3;
+
+    private final List<Long> fired = new ArrayList<>();
+
+    @Test
+    void deadlineOnLevelOneBoundaryFiresWhenCascaded() {
+        TimingWheel<Long> wheel = wheel(0);
+        wheel.add(80, 80L);
+
+        wheel.advance(79, fired::add);
+        assertThat(fired).isEmpty();
+
+        wheel.advance(80, fired::add);
+        assertThat(fired).containsExactly(80L);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void deadlineOnLevelTwoBoundaryFiresWhenCascaded() {
+        TimingWheel<Long> wheel = wheel(0);
+        wheel.add(640, 640L);
+        wheel.add(650, 650L);
+
+        wheel.advance(639, fired::add);
+        assertThat(fired).isEmpty();
+
+        wheel.advance(640, fired::add);
+        assertThat(fired).containsExactly(640L);
+
+        // 650 rơi xuống level 0 khi cascade ở 640
+        wheel.advance(650, fired::add);
+        assertThat(fired).containsExactly(640L, 650L);
+    }
+
+    @Test
+    void deadlineIsRoundedUpToTheNextTick() {
+        TimingWheel<Long> wheel = wheel(0);
+        wheel.add(71, 71L);
+
+        wheel.advance(79, fired::add);
+        assertThat(fired).isEmpty();
+
+        wheel.advance(80, fired::add);
+        assertThat(fired).containsExactly(71L);
+    }
+
+    @Test
+    void reachedDeadlineIsNotAdded() {
+        TimingWheel<Long> wheel = wheel(1_000);
+
+        assertThat(wheel.add(1_000, 1_000L)).isNull();
+        assertThat(wheel.add(990, 990L)).isNull();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void cancelAfterCascade() {
+        TimingWheel<Long> wheel = wheel(0);
+        TimingWheel.Timer<Long> timer = wheel.add(150, 150L);
+
+        // Ở 80 timer được cascade từ level 1 xuống level 0
+        wheel.advance(80, fired::add);
+        assertThat(wheel.size()).isEqualTo(1);
+
+        assertThat(wheel.cancel(timer)).isTrue();
+        assertThat(wheel.size()).isZero();
+        assertThat(wheel.cancel(timer)).isFalse();
+
+        wheel.advance(1_000, fired::add);
+        assertThat(fired).isEmpty();
+    }
+
+    @Test
+    void cancelAfterExpiryReturnsFalse() {
+        TimingWheel<Long> wheel = wheel(0);
+        TimingWheel.Timer<Long> timer = wheel.add(700, 700L);
+
+        wheel.advance(700, fired::add);
+
+        assertThat(fired).containsExactly(700L);
+        assertThat(wheel.cancel(timer)).isFalse();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void advanceOverManyTicksFiresEveryTimerInDeadlineOrder() {
+        TimingWheel<Long> wheel = wheel(0);
+        Random random = new Random(42);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            long deadline = TICK_MS * (1 + random.nextInt(511));
+            deadlines.add(deadline);
+            wheel.add(deadline, deadline);
+        }
+
+        wheel.advance(wheel.horizonMs(), fired::add);
+
+        assertThat(fired).hasSize(deadlines.size());
+        assertThat(fired).containsExactlyInAnyOrderElementsOf(deadlines);
+        assertThat(fired).isSorted();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void timersNeverFireEarlyOrLateWhileAdvancingInSteps() {
+        long start = 1_000_003;
+        TimingWheel<Long> wheel = wheel(start);
+        Random random = new Random(7);
+        int added = 0;
+        long now = start;
+        while (now < start + 20 * wheel.horizonMs()) {
+            // Thêm timer mới tương đối so với thời điểm hiện tại để phủ mọi vị trí trong vòng quay
+            for (int i = 0; i < 5; i++) {
+                long deadline = now + 1 + random.nextInt((int) (wheel.horizonMs() - TICK_MS));
+                if (wheel.add(deadline, deadline) != null) {
+                    added++;
+                }
+            }
+            long previous = now;
+            now += 1 + random.nextInt(200);
+            long current = now;
+            wheel.advance(current, deadline -> {
+                // Timer đến hạn ở tick làm tròn lên, và phải fire ở đúng lần advance đi qua tick đó
+                long deadlineTick = (deadline + TICK_MS - 1) / TICK_MS;
+                assertThat(deadlineTick).isGreaterThan(previous / TICK_MS).isLessThanOrEqualTo(current / TICK_MS);
+                fired.add(deadline);
+            });
+        }
+
+        wheel.advance(now + wheel.horizonMs(), fired::add);
+        assertThat(fired).hasSize(added);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void deadlineBeyondHorizonIsRejected() {
+        TimingWheel<Long> wheel = wheel(0);
+        long horizon = wheel.horizonMs();
+        assertThat(horizon).isEqualTo(TICK_MS * 511);
+
+        assertThat(wheel.accepts(horizon)).isTrue();
+        assertThat(wheel.accepts(horizon + 1)).isFalse();
+        assertThatThrownBy(() -> wheel.add(horizon + 1, horizon + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(wheel.size()).isZero();
+
+        wheel.add(horizon, horizon);
+        wheel.advance(horizon, fired::add);
+        assertThat(fired).containsExactly(horizon);
+    }
+
+    @Test
+    void horizonMovesWithTheWheel() {
+        TimingWheel<Long> wheel = wheel(0);
+        long beyond = wheel.horizonMs() + 100;
+        assertThat(wheel.accepts(beyond)).isFalse();
+
+        wheel.advance(100, fired::add);
+
+        assertThat(wheel.accepts(beyond)).isTrue();
+        wheel.add(beyond, beyond);
+        wheel.advance(beyond, fired::add);
+        assertThat(fired).containsExactly(beyond);
+    }
+
+    private static TimingWheel<Long> wheel(long startMs) {
+        return new TimingWheel<>(TICK_MS, WHEEL_SIZE, LEVELS, startMs);
+    }
+}
@@ -0,0 +1,79 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import vn.chiendt.skilio.config.WebhookJournalProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+import vn.chiendt.skilio.sevice.PaymentWebhookService;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Journal order of the webhook consumer when an event fails while the events behind it are in flight:
+ * the window is drained and everything from the failed event on is submitted again, in journal order.
+ */
+class WebhookJournalConsumerTests {
+
+    @TempDir
+    Path directory;
+
+    private WebhookJournal journal;
+    private WebhookJournalConsumer consumer;
+    private PaymentWebhookService paymentWebhookService;
+    private final List<String> submitted = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        WebhookJournalProperties properties = new WebhookJournalProperties();
+        properties.setDirectory(directory.toString());
+        properties.getConsumer().setCommitInterval(Duration.ofMillis(10));
+        properties.getConsumer().setRetryBackoff(Duration.ofMillis(10));
+        journal = new WebhookJournal(properties, new SimpleMeterRegistry());
+        journal.open();
+        paymentWebhookService = mock(PaymentWebhookService.class);
+        consumer = new WebhookJournalConsumer(journal, paymentWebhookService, properties, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        consumer.stop();
+        journal.close();
+    }
+
+    @Test
+    void failedEventIsAppliedAgainBeforeTheEventsBehindIt() {
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        when(paymentWebhookService.submitWebhook(any(), any())).thenAnswer(invocation -> {
+            String eventId = new String(invocation.<byte[]>getArgument(1), UTF_8);
+            submitted.add(eventId);
+            if (eventId.equals("evt_2") && failedOnce.compareAndSet(false, true)) {
+                return CompletableFuture.failedFuture(new IllegalStateException("deadlock detected"));
+            }
+            return CompletableFuture.completedFuture(WebhookStatusCoalescer.Result.APPLIED);
+        });
+        for (String eventId : List.of("evt_1", "evt_2", "evt_3", "evt_4")) {
+            journal.append(WebhookSource.STRIPE, Map.of(), eventId.getBytes(UTF_8));
+        }
+
+        consumer.start();
+
+        await().atMost(Duration.ofSeconds(10)).until(() -> journal.committedSequence() == 4);
+        assertThat(submitted).containsExactly("evt_1", "evt_2", "evt_3", "evt_4", "evt_2", "evt_3", "evt_4");
+    }
+}
@@ -0,0 +1,249 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import vn.chiendt.skilio.config.WebhookJournalProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Startup recovery of the webhook journal: records are written, the segment files are then cut or
+ * damaged the way a crash would leave them, and the journal is reopened on the same directory. The
+ * reopened journal must keep every intact record, continue the sequence after the last one and never
+ * hand a damaged record to a cursor.
+ */
+class WebhookJournalRecoveryTests {
+
+    private static final Map<String, String> HEADERS = Map.of("Stripe-Signature", "t=1700000000,v1=abc");
+
+    @TempDir
+    Path directory;
+
+    private WebhookJournal journal;
+
+    @AfterEach
+    void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    @Test
+    void cleanReopenContinuesTheSequence() throws IOException {
+        reopen(DataSize.ofKilobytes(64));
+        append("evt_1", "evt_2", "evt_3");
+
+        reopen(DataSize.ofKilobytes(64));
+
+        assertThat(journal.getDurableSequence()).isEqualTo(3);
+        assertThat(journal.append(WebhookSource.STRIPE, HEADERS, payload("evt_4"))).isEqualTo(4);
+        List<WebhookJournal.Entry> entries = readAll(0);
+        assertThat(entries).extracting(WebhookJournal.Entry::sequence).containsExactly(1L, 2L, 3L, 4L);
+        assertThat(payloads(entries)).containsExactly("evt_1", "evt_2", "evt_3", "evt_4");
+        assertThat(entries.get(0).source()).isEqualTo(WebhookSource.STRIPE);
+        assertThat(entries.get(0).headers()).isEqualTo(HEADERS);
+    }
+
+    @Test
+    void recordCutByTruncationIsDropped() throws IOException {
+        reopen(DataSize.ofKilobytes(64));
+        append("evt_1", "evt_2", "evt_3");
+        closeJournal();
+
+        // Crash giữa lúc ghi record 3: file chỉ còn header và nửa body của nó
+        Path segment = segment(1);
+        List<Integer> offsets = recordOffsets(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(offsets.get(2) + 20);
+        }
+
+        reopen(DataSize.ofKilobytes(64));
+
+        assertThat(journal.getDurableSequence()).isEqualTo(2);
+        assertThat(sequences(readAll(0))).containsExactly(1L, 2L);
+        assertThat(journal.append(WebhookSource.STRIPE, HEADERS, payload("evt_3_redelivered"))).isEqualTo(3);
+        assertThat(payloads(readAll(2))).containsExactly("evt_3_redelivered");
+    }
+
+    @Test
+    void corruptRecordAndEverythingAfterItAreDropped() throws IOException {
+        reopen(DataSize.ofKilobytes(64));
+        append("evt_1", "evt_2", "evt_3");
+        closeJournal();
+
+        // Lật một byte trong body record 2: CRC không khớp, record 3 phía sau cũng không được tin
+        Path segment = segment(1);
+        List<Integer> offsets = recordOffsets(segment);
+        flipByte(segment, offsets.get(1) + 16 + 3);
+
+        reopen(DataSize.ofKilobytes(64));
+
+        assertThat(journal.getDurableSequence()).isEqualTo(1);
+        assertThat(payloads(readAll(0))).containsExactly("evt_1");
+        assertThat(journal.append(WebhookSource.STRIPE, HEADERS, payload("evt_2_redelivered"))).isEqualTo(2);
+        assertThat(journal.append(WebhookSource.STRIPE, HEADERS, payload("evt_3_redelivered"))).isEqualTo(3);
+        assertThat(payloads(readAll(0))).containsExactly("evt_1", "evt_2_redelivered", "evt_3_redelivered");
+    }
+
+    @Test
+    void recordWithWrongSequenceIsDropped() throws IOException {
+        reopen(DataSize.ofKilobytes(64));
+        append("evt_1", "evt_2");
+        closeJournal();
+
+        // Record cũ còn sót từ lần ghi trước: CRC đúng nhưng sequence không liền mạch
+        Path segment = segment(1);
+        List<Integer> offsets = recordOffsets(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 7), offsets.get(1) + 8);
+        }
+
+        reopen(DataSize.ofKilobytes(64));
+
+        assertThat(journal.getDurableSequence()).isEqualTo(1);
+        assertThat(sequences(readAll(0))).containsExactly(1L);
+    }
+
+    @Test
+    void recordsSpanningRolledSegmentsAreRecovered() throws IOException {
+        reopen(DataSize.ofBytes(512));
+        for (int i = 1; i <= 20; i++) {
+            append("evt_" + i);
+        }
+        assertThat(segmentFiles()).hasSizeGreaterThan(2);
+
+        reopen(DataSize.ofBytes(512));
+
+        assertThat(journal.getDurableSequence()).isEqualTo(20);
+        assertThat(sequences(readAll(0))).containsExactly(
+                1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L, 15L, 16L, 17L, 18L, 19L, 20L);
+        assertThat(payloads(readAll(12))).containsExactly(
+                "evt_13", "evt_14", "evt_15", "evt_16", "evt_17", "evt_18", "evt_19", "evt_20");
+        assertThat(journal.append(WebhookSource.STRIPE, HEADERS, payload("evt_21"))).isEqualTo(21);
+    }
+
+    @Test
+    void segmentClosedBeforeTheNextWasCreatedStartsANewSegment() throws IOException {
+        reopen(DataSize.ofKilobytes(64));
+        append("evt_1", "evt_2");
+        closeJournal();
+
+        // Crash ngay sau khi ghi END_OF_SEGMENT, trước khi tạo segment kế tiếp
+        Path segment = segment(1);
+        List<Integer> offsets = recordOffsets(segment);
+        int end = offsets.get(1) + 16 + ByteBuffer.wrap(Files.readAllBytes(segment)).getInt(offsets.get(1));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, -1), end);
+        }
+
+        reopen(DataSize.ofKilobytes(64));
+
+        assertThat(journal.append(WebhookSource.STRIPE, HEADERS, payload("evt_3"))).isEqualTo(3);
+        assertThat(Files.exists(segment(3))).isTrue();
+        assertThat(payloads(readAll(0))).containsExactly("evt_1", "evt_2", "evt_3");
+    }
+
+    @Test
+    void committedPositionSurvivesReopenAndAppliedSegmentsAreDeleted() throws IOException {
+        reopen(DataSize.ofBytes(512));
+        for (int i = 1; i <= 20; i++) {
+            append("evt_" + i);
+        }
+        int segmentsBefore = segmentFiles().size();
+        journal.commit(15);
+
+        reopen(DataSize.ofBytes(512));
+
+        assertThat(journal.committedSequence()).isEqualTo(15);
+        assertThat(segmentFiles()).hasSizeLessThan(segmentsBefore);
+        assertThat(payloads(readAll(journal.committedSequence())))
+                .containsExactly("evt_16", "evt_17", "evt_18", "evt_19", "evt_20");
+    }
+
+    private void reopen(DataSize segmentSize) {
+        closeJournal();
+        WebhookJournalProperties properties = new WebhookJournalProperties();
+        properties.setDirectory(directory.toString());
+        properties.setSegmentSize(segmentSize);
+        journal = new WebhookJournal(properties, new SimpleMeterRegistry());
+        journal.open();
+    }
+
+    private void append(String... eventIds) {
+        for (String eventId : eventIds) {
+            journal.append(WebhookSource.STRIPE, HEADERS, payload(eventId));
+        }
+    }
+
+    private List<WebhookJournal.Entry> readAll(long afterSequence) throws IOException {
+        WebhookJournal.Cursor cursor = journal.cursor(afterSequence);
+        List<WebhookJournal.Entry> entries = new ArrayList<>();
+        for (WebhookJournal.Entry entry = cursor.next(); entry != null; entry = cursor.next()) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private Path segment(long base) {
+        return directory.resolve(String.format("%020d.log", base));
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).toList();
+        }
+    }
+
+    /**
+     * Offsets of the records in a segment, read from their length fields
+     */
+    private static List<Integer> recordOffsets(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> offsets = new ArrayList<>();
+        int position = 0;
+        while (position + 16 <= buffer.capacity() && buffer.getInt(position) > 0) {
+            offsets.add(position);
+            position += 16 + buffer.getInt(position);
+        }
+        return offsets;
+    }
+
+    private static void flipByte(Path segment, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, position);
+            one.put(0, (byte) ~one.get(0));
+            one.rewind();
+            channel.write(one, position);
+        }
+    }
+
+    private static List<Long> sequences(List<WebhookJournal.Entry> entries) {
+        return entries.stream().map(WebhookJournal.Entry::sequence).toList();
+    }
+
+    private static List<String> payloads(List<WebhookJournal.Entry> entries) {
+        return entries.stream().map(entry -> new String(entry.payload(), UTF_8)).toList();
+    }
+
+    private static byte[] payload(String eventId) {
+        return eventId.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import vn.chiendt.skilio.config.WebhookSignatureProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of verifying one Stripe-style webhook signature: pooled keyed Macs against a Mac.getInstance
+ * per call, with one or two active secrets, and a stale timestamp that is rejected before hashing.
+ * <pre>
+ * mvn test -Dtest=WebhookSignatureVerifierBenchmark -Dbench.jmh=true -Dbench.threads=4
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WebhookSignatureVerifierBenchmark {
+
+    private static final String OLD_SECRET = "whsec_old_0123456789abcdef";
+    private static final String NEW_SECRET = "whsec_new_fedcba9876543210";
+
+    private WebhookSignatureVerifier verifier;
+    private byte[] payload;
+    private String signedWithOld;
+    private String signedWithNew;
+    private String stale;
+
+    @Setup
+    public void setUp() throws Exception {
+        WebhookSignatureProperties properties = new WebhookSignatureProperties();
+        properties.setSecrets(Map.of(WebhookSource.STRIPE, List.of(OLD_SECRET, NEW_SECRET)));
+        verifier = new WebhookSignatureVerifier(properties, new SimpleMeterRegistry());
+
+        StringBuilder body = new StringBuilder("{\"id\":\"evt_1\",\"type\":\"payment_intent.succeeded\",\"data\":{\"object\":{");
+        for (int i = 0; i < 100; i++) {
+            body.append("\"field_").append(i).append("\":\"value_").append(i).append("\",");
+        }
+        body.append("\"id\":\"pi_1\",\"amount\":150000,\"currency\":\"vnd\"}}}");
+        payload = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        long now = Instant.now().getEpochSecond();
+        signedWithOld = header(OLD_SECRET, now);
+        signedWithNew = header(NEW_SECRET, now);
+        stale = header(OLD_SECRET, now - 3600);
+
+        // Chữ ký hợp lệ phải qua, nếu không benchmark đo sai đường đi
+        verifier.verifyStripe(payload, signedWithOld);
+        verifier.verifyStripe(payload, signedWithNew);
+    }
+
+    @Benchmark
+    public void verifyFirstSecret() {
+        verifier.verifyStripe(payload, signedWithOld);
+    }
+
+    @Benchmark
+    public void verifySecondSecret() {
+        verifier.verifyStripe(payload, signedWithNew);
+    }
+
+    @Benchmark
+    public void rejectStaleTimestamp(Blackhole blackhole) {
+        try {
+            verifier.verifyStripe(payload, stale);
+        } catch (WebhookSignatureVerifier.InvalidSignatureException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public byte[] macInstancePerCall() throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(OLD_SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        mac.update(signedWithOld.substring(2, signedWithOld.indexOf(',')).concat(".").getBytes(StandardCharsets.US_ASCII));
+        return mac.doFinal(payload);
+    }
+
+    private String header(String secret, long timestamp) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        mac.update((timestamp + ".").getBytes(StandardCharsets.US_ASCII));
+        return "t=" + timestamp + ",v1=" + HexFormat.of().formatHex(mac.doFinal(payload));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bench.jmh", matches = "true")
+    void runBenchmarks() throws Exception {
+        Options options = new OptionsBuilder()
+                .include(WebhookSignatureVerifierBenchmark.class.getSimpleName())
+                .threads(Integer.getInteger("bench.threads", 4))
+                .warmupIterations(3)
+                .measurementIterations(5)
+                // Surefire chạy bằng classpath jar nên không fork JVM riêng
+                .forks(0)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,191 @@
+package vn.chiendt.skilio.sevice.webhook;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import vn.chiendt.skilio.config.WebhookSignatureProperties;
+import vn.chiendt.skilio.constant.WebhookSource;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Accepted and rejected webhook signatures: both secrets of a rotation, the timestamp tolerance,
+ * malformed Stripe-Signature headers, PayPal transmission signatures and a gateway without secrets.
+ */
+class WebhookSignatureVerifierTests {
+
+    private static final String OLD_SECRET = "whsec_old_0123456789abcdef";
+    private static final String NEW_SECRET = "whsec_new_fedcba9876543210";
+    private static final String PAYPAL_SECRET = "paypal_webhook_secret";
+    private static final byte[] PAYLOAD =
+            "{\"id\":\"evt_1\",\"type\":\"payment_intent.succeeded\"}".getBytes(StandardCharsets.UTF_8);
+
+    private SimpleMeterRegistry meterRegistry;
+    private WebhookSignatureVerifier verifier;
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        WebhookSignatureProperties properties = new WebhookSignatureProperties();
+        properties.setSecrets(Map.of(
+                WebhookSource.STRIPE, List.of(OLD_SECRET, NEW_SECRET),
+                WebhookSource.PAYPAL, List.of(PAYPAL_SECRET)));
+        meterRegistry = new SimpleMeterRegistry();
+        verifier = new WebhookSignatureVerifier(properties, meterRegistry);
+        now = Instant.now().getEpochSecond();
+    }
+
+    @Test
+    void signatureWithEitherSecretOfARotationIsAccepted() throws Exception {
+        assertThatCode(() -> verifier.verifyStripe(PAYLOAD, stripeHeader(OLD_SECRET, now, PAYLOAD)))
+                .doesNotThrowAnyException();
+        assertThatCode(() -> verifier.verifyStripe(PAYLOAD, stripeHeader(NEW_SECRET, now, PAYLOAD)))
+                .doesNotThrowAnyException();
+        assertThat(rejected(WebhookSource.STRIPE)).isZero();
+    }
+
+    @Test
+    void anyOfSeveralSignaturesInTheHeaderMayMatch() throws Exception {
+        String unknown = stripeHeader("whsec_unknown", now, PAYLOAD);
+        String valid = stripeHeader(NEW_SECRET, now, PAYLOAD);
+        String header = unknown + ",v1=" + valid.substring(valid.indexOf("v1=") + 3);
+
+        assertThatCode(() -> verifier.verifyStripe(PAYLOAD, header)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void unknownSecretOrChangedPayloadIsRejected() throws Exception {
+        String unknown = stripeHeader("whsec_unknown", now, PAYLOAD);
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, unknown), "no matching signature");
+
+        String signed = stripeHeader(OLD_SECRET, now, PAYLOAD);
+        byte[] changed = "{\"id\":\"evt_1\",\"type\":\"charge.refunded\"}".getBytes(StandardCharsets.UTF_8);
+        assertRejected(() -> verifier.verifyStripe(changed, signed), "no matching signature");
+
+        assertThat(rejected(WebhookSource.STRIPE)).isEqualTo(2);
+    }
+
+    @Test
+    void timestampOutsideToleranceIsRejected() throws Exception {
+        // Tolerance mặc định 5 phút, áp dụng cả hai phía
+        String stale = stripeHeader(OLD_SECRET, now - 3600, PAYLOAD);
+        String future = stripeHeader(OLD_SECRET, now + 3600, PAYLOAD);
+
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, stale), "timestamp outside tolerance");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, future), "timestamp outside tolerance");
+        assertThatCode(() -> verifier.verifyStripe(PAYLOAD, stripeHeader(OLD_SECRET, now - 60, PAYLOAD)))
+                .doesNotThrowAnyException();
+    }
+
+    @Test
+    void malformedHeaderIsRejected() throws Exception {
+        String signature = stripeHeader(OLD_SECRET, now, PAYLOAD);
+        String hex = signature.substring(signature.indexOf("v1=") + 3);
+
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, null), "missing signature");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, ""), "missing signature");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, "v1=" + hex), "malformed signature header");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, "t=" + now), "malformed signature header");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, "t=yesterday,v1=" + hex), "malformed timestamp");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, "t=" + now + ",v1=not-hex"), "malformed signature");
+        assertRejected(() -> verifier.verifyStripe(PAYLOAD, "t=" + now + ",v1=" + hex.substring(1)),
+                "malformed signature");
+    }
+
+    @Test
+    void payPalTransmissionSignatureIsVerified() throws Exception {
+        String transmissionId = "b2384410-f8d2-11ee-8b89-0242ac120002";
+        String transmissionTime = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+        String signature = payPalSignature(PAYPAL_SECRET, transmissionId, transmissionTime, PAYLOAD);
+
+        assertThatCode(() -> verifier.verifyPayPal(PAYLOAD, transmissionId, transmissionTime, signature))
+                .doesNotThrowAnyException();
+        assertThatCode(() -> verifier.verify(WebhookSource.PAYPAL, PAYLOAD, Map.of(
+                WebhookSignatureVerifier.PAYPAL_TRANSMISSION_ID, transmissionId,
+                WebhookSignatureVerifier.PAYPAL_TRANSMISSION_TIME, transmissionTime,
+                WebhookSource.PAYPAL.getSignatureHeader(), signature)))
+                .doesNotThrowAnyException();
+
+        // Transmission id khác thì chuỗi được ký khác
+        assertRejected(() -> verifier.verifyPayPal(PAYLOAD, "other-id", transmissionTime, signature),
+                "no matching signature");
+        byte[] changed = "{\"id\":\"WH-2\"}".getBytes(StandardCharsets.UTF_8);
+        assertRejected(() -> verifier.verifyPayPal(changed, transmissionId, transmissionTime, signature),
+                "no matching signature");
+    }
+
+    @Test
+    void payPalWithStaleTimeOrMalformedHeadersIsRejected() throws Exception {
+        String transmissionId = "b2384410-f8d2-11ee-8b89-0242ac120002";
+        String staleTime = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.SECONDS).toString();
+        String staleSignature = payPalSignature(PAYPAL_SECRET, transmissionId, staleTime, PAYLOAD);
+        String time = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+
+        assertRejected(() -> verifier.verifyPayPal(PAYLOAD, transmissionId, staleTime, staleSignature),
+                "timestamp outside tolerance");
+        assertRejected(() -> verifier.verifyPayPal(PAYLOAD, transmissionId, "yesterday", staleSignature),
+                "invalid transmission time");
+        assertRejected(() -> verifier.verifyPayPal(PAYLOAD, transmissionId, time, "%%not-base64%%"),
+                "malformed signature");
+        assertRejected(() -> verifier.verifyPayPal(PAYLOAD, null, time, staleSignature),
+                "missing transmission headers");
+        assertThat(rejected(WebhookSource.PAYPAL)).isEqualTo(4);
+    }
+
+    @Test
+    void gatewayWithoutSecretsRejectsEverything() throws Exception {
+        WebhookSignatureVerifier unconfigured =
+                new WebhookSignatureVerifier(new WebhookSignatureProperties(), new SimpleMeterRegistry());
+
+        assertRejected(() -> unconfigured.verifyStripe(PAYLOAD, stripeHeader(OLD_SECRET, now, PAYLOAD)),
+                "no matching signature");
+        // GENERIC không có secret trong cấu hình chung của test
+        assertRejected(() -> verifier.verifyGeneric(PAYLOAD, stripeHeader(OLD_SECRET, now, PAYLOAD)),
+                "no matching signature");
+    }
+
+    private double rejected(WebhookSource source) {
+        return meterRegistry.get("paylater.webhook.signature.rejected").tag("source", source.name()).counter().count();
+    }
+
+    private static void assertRejected(ThrowingCallable verification, String reason) {
+        assertThatThrownBy(verification)
+                .isInstanceOf(WebhookSignatureVerifier.InvalidSignatureException.class)
+                .hasMessageEndingWith(reason);
+    }
+
+    private static String stripeHeader(String secret, long timestamp, byte[] payload) throws Exception {
+        return "t=" + timestamp + ",v1=" + HexFormat.of().formatHex(hmac(secret, (timestamp + ".").getBytes(
+                StandardCharsets.US_ASCII), payload));
+    }
+
+    private static String payPalSignature(String secret, String transmissionId, String transmissionTime,
+                                          byte[] payload) throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        byte[] signed = (transmissionId + "|" + transmissionTime + "|" + crc.getValue())
+                .getBytes(StandardCharsets.UTF_8);
+        return Base64.getEncoder().encodeToString(hmac(secret, signed, new byte[0]));
+    }
+
+    private static byte[] hmac(String secret, byte[] prefix, byte[] payload) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        mac.update(prefix);
+        return mac.doFinal(payload);
+    }
+}
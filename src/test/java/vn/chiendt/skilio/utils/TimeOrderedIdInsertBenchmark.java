@@ -0,0 +1,84 @@
+package vn.chiendt.skilio.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Insert throughput and primary key index size of random v4 ids against TimeOrderedUuid,
+ * on tables shaped like installment_tranctions. Needs a scratch PostgreSQL database:
+ * <pre>
+ * mvn test -Dtest=TimeOrderedIdInsertBenchmark -Dbench.jdbc.url=jdbc:postgresql://localhost:5432/bench \
+ *     -Dbench.jdbc.user=postgres -Dbench.jdbc.password=postgres -Dbench.rows=10000000
+ * </pre>
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "bench.jdbc.url", matches = ".+")
+class TimeOrderedIdInsertBenchmark {
+
+    private static final int BATCH_SIZE = 5_000;
+
+    @Test
+    void compareRandomAndTimeOrderedIds() throws Exception {
+        long rows = Long.getLong("bench.rows", 10_000_000L);
+        String url = System.getProperty("bench.jdbc.url") + (System.getProperty("bench.jdbc.url").contains("?") ? "&" : "?")
+                + "reWriteBatchedInserts=true";
+
+        try (Connection connection = DriverManager.getConnection(url,
+                System.getProperty("bench.jdbc.user"), System.getProperty("bench.jdbc.password"))) {
+            connection.setAutoCommit(false);
+            run(connection, "bench_tx_uuid_v4", rows, () -> UUID.randomUUID().toString());
+            run(connection, "bench_tx_uuid_v7", rows, TimeOrderedUuid::nextString);
+        }
+    }
+
+    private void run(Connection connection, String table, long rows, Supplier<String> ids) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + table);
+            statement.execute("CREATE TABLE " + table + " (id varchar(255) PRIMARY KEY, installment_id varchar(255) NOT NULL, "
+                    + "attempt_number int, status varchar(20) NOT NULL, amount numeric(12,2) NOT NULL, created_at timestamp)");
+        }
+        connection.commit();
+
+        long start = System.nanoTime();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table
+                + " (id, installment_id, attempt_number, status, amount, created_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            BigDecimal amount = new BigDecimal("100.00");
+            for (long i = 1; i <= rows; i++) {
+                insert.setString(1, ids.get());
+                insert.setString(2, "installment-" + (i % 100_000));
+                insert.setInt(3, 1);
+                insert.setString(4, "PENDING");
+                insert.setBigDecimal(5, amount);
+                insert.setTimestamp(6, now);
+                insert.addBatch();
+                if (i % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT pg_relation_size('" + table + "_pkey'), pg_relation_size('" + table + "')")) {
+            rs.next();
+            log.info("{}: {} rows in {} s ({} rows/s), pkey index {} MB, heap {} MB", table, rows, String.format("%.1f", seconds),
+                    (long) (rows / seconds), rs.getLong(1) / (1024 * 1024), rs.getLong(2) / (1024 * 1024));
+        }
+        connection.commit();
+    }
+}